@@ -0,0 +1,136 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for SendGrid, OneSignal and the template service, for load tests. No dependencies:
+ * run with `java ProviderStub.java`.
+ *
+ *   POST /v3/mail/send                  SendGrid          -> 202 with an X-Message-Id header
+ *   POST /api/v1/notifications          OneSignal         -> 200 {"id", "recipients"}
+ *   POST /api/v1/templates/render       template service  -> 200, {{var}} replaced from "variables"
+ *   GET  /api/v1/templates/{code}       template service  -> 200, a fixed plain template
+ *
+ * Latency is log-normal, set per provider by <PREFIX>_LATENCY_P50_MS and <PREFIX>_LATENCY_P99_MS;
+ * <PREFIX>_ERROR_RATE (0..1) answers with <PREFIX>_ERROR_STATUS (default 500) instead.
+ * Prefixes: SENDGRID, ONESIGNAL, TEMPLATE. Defaults: p50 20ms, p99 120ms, no errors.
+ * Request counts are served at GET /stats.
+ */
+public class ProviderStub {
+
+    record Profile(String name, double mu, double sigma, double errorRate, int errorStatus, AtomicLong requests, AtomicLong errors) {
+
+        static Profile fromEnv(String prefix) {
+            double p50 = env(prefix + "_LATENCY_P50_MS", 20);
+            double p99 = Math.max(p50, env(prefix + "_LATENCY_P99_MS", 120));
+            // p99 of a log-normal sits 2.326 standard deviations above the median
+            return new Profile(prefix.toLowerCase(), Math.log(Math.max(p50, 0.01)),
+                    (Math.log(Math.max(p99, 0.01)) - Math.log(Math.max(p50, 0.01))) / 2.326,
+                    env(prefix + "_ERROR_RATE", 0), (int) env(prefix + "_ERROR_STATUS", 500),
+                    new AtomicLong(), new AtomicLong());
+        }
+
+        // Sleeps for one latency sample; returns false when this request should fail
+        boolean serve() throws InterruptedException {
+            requests.incrementAndGet();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long micros = (long) (Math.exp(mu + sigma * random.nextGaussian()) * 1000);
+            Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+            if (random.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static final Pattern VARIABLE = Pattern.compile("\"([A-Za-z0-9_]+)\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern TEMPLATE_STR = Pattern.compile("\"template_str\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    public static void main(String[] args) throws IOException {
+        int port = (int) env("STUB_PORT", 8090);
+        Profile sendGrid = Profile.fromEnv("SENDGRID");
+        Profile oneSignal = Profile.fromEnv("ONESIGNAL");
+        Profile templates = Profile.fromEnv("TEMPLATE");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+
+        server.createContext("/v3/mail/send", exchange -> handle(exchange, sendGrid, 202, body -> {
+            exchange.getResponseHeaders().set("X-Message-Id", UUID.randomUUID().toString());
+            return "";
+        }));
+        server.createContext("/api/v1/notifications", exchange -> handle(exchange, oneSignal, 200,
+                body -> "{\"id\":\"" + UUID.randomUUID() + "\",\"recipients\":1}"));
+        server.createContext("/api/v1/templates/render", exchange -> handle(exchange, templates, 200,
+                body -> "{\"success\":true,\"data\":{\"rendered\":\"" + render(body) + "\"}}"));
+        server.createContext("/api/v1/templates/", exchange -> handle(exchange, templates, 200,
+                body -> "{\"success\":true,\"data\":{\"latest_version\":{\"version_number\":1,"
+                        + "\"subject\":\"Load test\",\"body\":\"<p>Hello {{name}}, this is a load test message.</p>\"}}}"));
+        server.createContext("/stats", exchange -> respond(exchange, 200,
+                stats(sendGrid) + "\n" + stats(oneSignal) + "\n" + stats(templates) + "\n"));
+
+        server.start();
+        System.out.printf("Provider stub on :%d (sendgrid p50 %.0fms, onesignal p50 %.0fms, templates p50 %.0fms)%n",
+                port, Math.exp(sendGrid.mu()), Math.exp(oneSignal.mu()), Math.exp(templates.mu()));
+    }
+
+    interface Responder {
+        String body(String request);
+    }
+
+    private static void handle(HttpExchange exchange, Profile profile, int status, Responder responder) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            String request = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            if (!profile.serve()) {
+                respond(exchange, profile.errorStatus(), "{\"errors\":[\"stubbed failure\"]}");
+                return;
+            }
+            respond(exchange, status, responder.body(request));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "");
+        }
+    }
+
+    // Renders template_str with the flat string variables of the request; enough for load tests
+    private static String render(String request) {
+        Matcher template = TEMPLATE_STR.matcher(request);
+        String rendered = template.find() ? template.group(1) : "";
+        Matcher variable = VARIABLE.matcher(request);
+        while (variable.find()) {
+            rendered = rendered.replace("{{" + variable.group(1) + "}}", variable.group(2))
+                    .replace("{{ " + variable.group(1) + " }}", variable.group(2));
+        }
+        return rendered;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String stats(Profile profile) {
+        return profile.name() + " requests=" + profile.requests().get() + " errors=" + profile.errors().get();
+    }
+
+    private static double env(String name, double fallback) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? fallback : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,44 @@
+package com.hng.EmailService.benchmarks;
+
+import com.sendgrid.helpers.mail.Mail;
+import com.sendgrid.helpers.mail.objects.Content;
+import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.Personalization;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the SendGrid mail/send payload, for a single email and for a batched request
+ * with one personalization per recipient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MailBuildBenchmark {
+
+    @Param({"1", "100", "1000"})
+    int recipients;
+
+    String bodyHtml;
+
+    @Setup
+    public void setup() {
+        bodyHtml = "<html><body>" + "<p>Hello there, here is your weekly update.</p>".repeat(200) + "</body></html>";
+    }
+
+    @Benchmark
+    public String build() throws IOException {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("noreply@example.com"));
+        mail.setSubject("Your weekly update");
+        mail.addContent(new Content("text/html", bodyHtml));
+        for (int i = 0; i < recipients; i++) {
+            Personalization personalization = new Personalization();
+            personalization.addTo(new Email("user" + i + "@example.com"));
+            mail.addPersonalization(personalization);
+        }
+        return mail.build();
+    }
+}
@@ -0,0 +1,79 @@
+package com.hng.EmailService.benchmarks;
+
+import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.util.CodecMessageConverter;
+import com.hng.EmailService.util.JacksonBinaryMessageConverter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a queued request the way the listener does: the codec converter picks the codec from
+ * the content type, with the listener's parameter type as the inferred target. The same request is
+ * encoded once per codec; its size on the wire is printed when each trial starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDecodeBenchmark {
+
+    @Param({"5", "50"})
+    int variables;
+
+    @Param({MessageProperties.CONTENT_TYPE_JSON, JacksonBinaryMessageConverter.CBOR, JacksonBinaryMessageConverter.SMILE})
+    String contentType;
+
+    CodecMessageConverter converter;
+    Object request;
+    byte[] payload;
+
+    @Setup
+    public void setup() {
+        String trusted = EmailRequestDto.class.getPackageName();
+        converter = new CodecMessageConverter(new Jackson2JsonMessageConverter(), Map.of(
+                JacksonBinaryMessageConverter.CBOR, JacksonBinaryMessageConverter.cbor(trusted),
+                JacksonBinaryMessageConverter.SMILE, JacksonBinaryMessageConverter.smile(trusted)),
+                contentType);
+
+        StringBuilder data = new StringBuilder("{");
+        for (int i = 0; i < variables; i++) {
+            if (i > 0) data.append(',');
+            data.append("\"var_").append(i).append("\":\"value ").append(i).append('"');
+        }
+        data.append('}');
+
+        String body = "<html><body>" + "<p>Hello {{var_0}}, here is your update.</p>".repeat(40) + "</body></html>";
+        byte[] json = ("{\"channel\":\"email\",\"request_id\":\"3f1c1f9e-8a43-4f0e-9d0b-2a7c2b7f0a11\","
+                + "\"user_id\":\"7b6d2d2c-5b1f-4b1e-8f5e-1f2a3b4c5d6e\",\"template_code\":\"welcome_email\","
+                + "\"subject\":\"Welcome\",\"body\":\"" + body.replace("\"", "\\\"") + "\","
+                + "\"timestamp\":\"2025-11-10T12:00:00.000Z\",\"data\":" + data + ","
+                + "\"correlation_id\":\"c-123\",\"attempts\":0,\"email\":\"user@example.com\"}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        request = converter.fromMessage(message(json, MessageProperties.CONTENT_TYPE_JSON));
+        payload = converter.toMessage(request, new MessageProperties()).getBody();
+        System.out.printf("%n%s, %d variables: %d bytes on the wire (JSON %d)%n", contentType, variables, payload.length, json.length);
+    }
+
+    private Message message(byte[] body, String type) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(type);
+        properties.setInferredArgumentType(EmailRequestDto.class);
+        return new Message(body, properties);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return converter.fromMessage(message(payload, contentType));
+    }
+
+    @Benchmark
+    public Message encode() {
+        return converter.toMessage(request, new MessageProperties());
+    }
+}
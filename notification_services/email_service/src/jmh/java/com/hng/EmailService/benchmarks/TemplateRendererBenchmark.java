@@ -0,0 +1,80 @@
+package com.hng.EmailService.benchmarks;
+
+import com.hng.EmailService.util.CompiledTemplate;
+import com.hng.EmailService.util.TemplateRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering an email body: the cached renderer used for every message against the replace loop
+ * it replaced, and the escaped render used for locally cached templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateRendererBenchmark {
+
+    @Param({"2048", "16384", "65536"})
+    int htmlBytes;
+
+    @Param({"5", "50"})
+    int variables;
+
+    String body;
+    CompiledTemplate compiled;
+    Map<String, Object> data;
+
+    @Setup
+    public void setup() {
+        data = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            data.put("var_" + i, "value " + i + " & <more>");
+        }
+
+        // Table-based HTML with the placeholders spread evenly through it
+        StringBuilder html = new StringBuilder("<html><body><table width=\"600\">");
+        int row = 0;
+        while (html.length() < htmlBytes) {
+            html.append("<tr><td style=\"padding:8px;font-family:Arial\">Line ").append(row)
+                    .append(" for {{var_").append(row % variables).append("}} and some copy text</td></tr>");
+            row++;
+        }
+        html.append("</table></body></html>");
+        body = html.toString();
+        compiled = CompiledTemplate.compile(body);
+    }
+
+    @Benchmark
+    public String render() {
+        return TemplateRenderer.render(body, data);
+    }
+
+    @Benchmark
+    public String renderReplaceLoop() {
+        return replaceLoop(body, data);
+    }
+
+    @Benchmark
+    public String renderEscapedCompiled() {
+        return compiled.renderEscaped(data);
+    }
+
+    @Benchmark
+    public CompiledTemplate compile() {
+        return CompiledTemplate.compile(body);
+    }
+
+    // The String.replace loop TemplateRenderer used before templates were compiled, as the baseline
+    private static String replaceLoop(String templateBody, Map<String, Object> variables) {
+        String rendered = templateBody;
+        for (Map.Entry<String, Object> e : variables.entrySet()) {
+            String placeholder = "{{" + e.getKey() + "}}";
+            String value = e.getValue() == null ? "" : e.getValue().toString();
+            rendered = rendered.replace(placeholder, value);
+        }
+        return rendered;
+    }
+}
@@ -1,14 +1,27 @@
 package com.hng.EmailService.config;
 
+import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.service.IntakeThrottle;
+import com.hng.EmailService.util.CodecMessageConverter;
+import com.hng.EmailService.util.JacksonBinaryMessageConverter;
+import com.hng.EmailService.util.RawMessageConverter;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @Configuration
 public class RabbitConfig {
     public static final String EMAIL_EXCHANGE = "notifications.direct";
@@ -18,9 +31,52 @@ public class RabbitConfig {
     public static final String FAILED_QUEUE = "failed.queue";
     public static final String FAILED_ROUTING_KEY = "failed.routing.key";
 
+    public static final String STATUS_ROUTING_KEY = "status.routing.key";
+
+    // Delay tiers for failed send attempts: attempt n waits in tier n, then dead-letters back to email.queue
+    public static final int[] RETRY_DELAYS_MS = {2000, 4000, 8000};
+
+    public static String retryRoutingKey(int tier) {
+        return "email.retry." + (RETRY_DELAYS_MS[tier] / 1000) + "s";
+    }
+
+    // Priority lanes, used when email.lanes.enabled=true: email.queue is drained into one queue per lane
+    public static final String LANE_TRANSACTIONAL = "transactional";
+    public static final String LANE_STANDARD = "standard";
+    public static final String LANE_BULK = "bulk";
+    public static final String[] LANES = {LANE_TRANSACTIONAL, LANE_STANDARD, LANE_BULK};
+    public static final String EMAIL_TRANSACTIONAL_QUEUE = EMAIL_QUEUE + "." + LANE_TRANSACTIONAL;
+    public static final String EMAIL_STANDARD_QUEUE = EMAIL_QUEUE + "." + LANE_STANDARD;
+    public static final String EMAIL_BULK_QUEUE = EMAIL_QUEUE + "." + LANE_BULK;
+
+    public static String laneRoutingKey(String lane) {
+        return "email.lane." + lane;
+    }
+
+    // Sharded topology, used when email.shards.enabled=true: a consistent-hash exchange spreads requests
+    // over email.queue.shard.<n> by their user_id header, so every request of a user lands on one shard
+    public static final String EMAIL_SHARD_EXCHANGE = "email.sharded";
+    public static final String SHARD_HASH_HEADER = "user_id";
+
+    public static String shardQueue(int shard) {
+        return EMAIL_QUEUE + ".shard." + shard;
+    }
+
+    // JSON plus the binary codecs, chosen per delivery by content_type; outbound picks the encoding
+    // for messages this service publishes (retry tiers, dead letters)
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${rabbitmq.codec.outbound:application/json}") String outbound) {
+        String trusted = EmailRequestDto.class.getPackageName();
+        return new CodecMessageConverter(new Jackson2JsonMessageConverter(), Map.of(
+                JacksonBinaryMessageConverter.CBOR, JacksonBinaryMessageConverter.cbor(trusted),
+                JacksonBinaryMessageConverter.SMILE, JacksonBinaryMessageConverter.smile(trusted)),
+                outbound);
+    }
+
+    // Named by the listeners that take the raw Message; left out of injection by type, which gets the codecs above
+    @Bean(name = RawMessageConverter.BEAN_NAME, autowireCandidate = false)
+    public MessageConverter rawMessageConverter() {
+        return new RawMessageConverter();
     }
 
     @Bean
@@ -40,6 +96,71 @@ public class RabbitConfig {
         return QueueBuilder.durable(FAILED_QUEUE).build();
     }
 
+    // Status events for the gateway and other consumers; declared here so they are routable before anyone consumes them
+    @Bean
+    public Queue statusQueue(@Value("${rabbitmq.queue.status:status.queue}") String name) {
+        return QueueBuilder.durable(name).build();
+    }
+
+    // One TTL queue per retry tier; expired messages are dead-lettered to the main email routing key,
+    // or when sharded back to the shard exchange, which hashes them to the user's shard again
+    @Bean
+    public Declarables emailRetryTiers(DirectExchange emailExchange,
+                                       @Value("${email.shards.enabled:false}") boolean sharded) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int tier = 0; tier < RETRY_DELAYS_MS.length; tier++) {
+            String name = retryRoutingKey(tier);
+            Queue retryQueue = QueueBuilder.durable(name)
+                    .ttl(RETRY_DELAYS_MS[tier])
+                    .deadLetterExchange(sharded ? EMAIL_SHARD_EXCHANGE : EMAIL_EXCHANGE)
+                    .deadLetterRoutingKey(EMAIL_ROUTING_KEY)
+                    .build();
+            declarables.add(retryQueue);
+            declarables.add(BindingBuilder.bind(retryQueue).to(emailExchange).with(name));
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "email.lanes.enabled", havingValue = "true")
+    public Declarables emailLanes(DirectExchange emailExchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (String lane : LANES) {
+            Queue laneQueue = QueueBuilder.durable(EMAIL_QUEUE + "." + lane).build();
+            declarables.add(laneQueue);
+            declarables.add(BindingBuilder.bind(laneQueue).to(emailExchange).with(laneRoutingKey(lane)));
+        }
+        return new Declarables(declarables);
+    }
+
+    // Shard queues take single-active-consumer: every replica subscribes, one of them consumes each shard
+    // in order, and another takes over when it goes away
+    @Bean
+    @ConditionalOnProperty(name = "email.shards.enabled", havingValue = "true")
+    public Declarables emailShards(@Value("${email.shards.count:8}") int shards) {
+        List<Declarable> declarables = new ArrayList<>();
+        Exchange shardExchange = new ExchangeBuilder(EMAIL_SHARD_EXCHANGE, "x-consistent-hash")
+                .durable(true)
+                .withArgument("hash-header", SHARD_HASH_HEADER)
+                .build();
+        declarables.add(shardExchange);
+        for (int shard = 0; shard < shards; shard++) {
+            Queue shardQueue = QueueBuilder.durable(shardQueue(shard)).singleActiveConsumer().build();
+            declarables.add(shardQueue);
+            // binding key is the shard's weight on the hash ring; equal weights give equal shares
+            declarables.add(BindingBuilder.bind(shardQueue).to(shardExchange).with("1").noargs());
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "email.shards.enabled", havingValue = "true")
+    public ShardAssignment emailShardAssignment(@Value("${email.shards.count:8}") int shards,
+                                                @Value("${email.shards.replicas:1}") int replicas,
+                                                @Value("${email.shards.replica-index:0}") int replicaIndex) {
+        return new ShardAssignment(shards, replicas, replicaIndex, RabbitConfig::shardQueue);
+    }
+
     @Bean
     public Binding emailBinding(Queue emailQueue, DirectExchange emailExchange) {
         return BindingBuilder.bind(emailQueue).to(emailExchange).with(EMAIL_ROUTING_KEY);
@@ -50,17 +171,65 @@ public class RabbitConfig {
         return BindingBuilder.bind(failedQueue).to(emailExchange).with(FAILED_ROUTING_KEY);
     }
 
+    @Bean
+    public Binding statusBinding(Queue statusQueue, DirectExchange emailExchange) {
+        return BindingBuilder.bind(statusQueue).to(emailExchange).with(STATUS_ROUTING_KEY);
+    }
+
     // Listener factory (optional: concurrency, prefetch)
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            MessageConverter jsonMessageConverter) {
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle) {
         SimpleRabbitListenerContainerFactory f = new SimpleRabbitListenerContainerFactory();
         f.setConnectionFactory(connectionFactory);
-        f.setMessageConverter(jsonMessageConverter);
+        f.setMessageConverter(messageConverter);
         f.setAcknowledgeMode(AcknowledgeMode.MANUAL);  // Changed to MANUAL for explicit control
         f.setPrefetchCount(10);
         f.setDefaultRequeueRejected(false);  // Don't requeue failed messages (send to DLQ instead)
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
+        return f;
+    }
+
+    // Shard listener factory, used when email.shards.enabled=true: one consumer per shard queue, so
+    // each shard is processed in order while the shards run in parallel
+    @Bean
+    public DirectRabbitListenerContainerFactory shardRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle) {
+        DirectRabbitListenerContainerFactory f = new DirectRabbitListenerContainerFactory();
+        f.setConnectionFactory(connectionFactory);
+        f.setMessageConverter(messageConverter);
+        f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        f.setConsumersPerQueue(1);
+        f.setPrefetchCount(10);
+        f.setDefaultRequeueRejected(false);
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
+        return f;
+    }
+
+    // Batch listener factory, used when email.batch.enabled=true.
+    // A batch is handed over once batch-size messages arrived or no message arrived for window-ms.
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle,
+            @Value("${email.batch.size:100}") int batchSize,
+            @Value("${email.batch.window-ms:200}") long windowMs) {
+        SimpleRabbitListenerContainerFactory f = new SimpleRabbitListenerContainerFactory();
+        f.setConnectionFactory(connectionFactory);
+        f.setMessageConverter(messageConverter);
+        f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        f.setBatchListener(true);
+        f.setConsumerBatchEnabled(true);
+        f.setBatchSize(batchSize);
+        f.setReceiveTimeout(windowMs);
+        f.setPrefetchCount(Math.max(10, batchSize));  // prefetch must cover a full batch
+        f.setDefaultRequeueRejected(false);
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
         return f;
     }
 }
@@ -0,0 +1,58 @@
+package com.hng.EmailService.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Splits the shard queues between replicas. Replica i of n owns the shards s with s % n == i and
+ * subscribes to them at startup; it subscribes to every other shard as a standby a little later.
+ * Shard queues are single-active-consumer, so when all replicas are up each consumes its own shards,
+ * and a shard whose replica goes away moves to one of the standbys. Indices are not coordinated
+ * here: ShardReplicaLease checks that each is run by exactly one replica.
+ *
+ * Order holds per shard as published, not across retries: a failed attempt goes through the delay
+ * queues and comes back to the end of its shard queue, behind the user's later requests that
+ * already went out.
+ */
+public class ShardAssignment {
+
+    private final int shards;
+    private final int replicas;
+    private final int replicaIndex;
+    private final List<String> owned = new ArrayList<>();
+    private final List<String> standby = new ArrayList<>();
+
+    public ShardAssignment(int shards, int replicas, int replicaIndex, IntFunction<String> queueName) {
+        if (replicas < 1 || replicas > shards || replicaIndex < 0 || replicaIndex >= replicas) {
+            throw new IllegalArgumentException("Invalid shard assignment: replica " + replicaIndex
+                    + " of " + replicas + " over " + shards + " shards");
+        }
+        this.shards = shards;
+        this.replicas = replicas;
+        this.replicaIndex = replicaIndex;
+        for (int shard = 0; shard < shards; shard++) {
+            (shard % replicas == replicaIndex ? owned : standby).add(queueName.apply(shard));
+        }
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public int replicas() {
+        return replicas;
+    }
+
+    public int replicaIndex() {
+        return replicaIndex;
+    }
+
+    public String[] ownedQueues() {
+        return owned.toArray(String[]::new);
+    }
+
+    public String[] standbyQueues() {
+        return standby.toArray(String[]::new);
+    }
+}
@@ -0,0 +1,58 @@
+package com.hng.EmailService.controller;
+
+import com.hng.EmailService.util.CorrelationLogFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * /actuator/correlationlogging: switch full (DEBUG, unsampled) logging on for one correlation_id.
+ *
+ *   GET    /actuator/correlationlogging                    ids currently traced
+ *   POST   /actuator/correlationlogging/{id}  {"ttlSeconds": 600}
+ *   DELETE /actuator/correlationlogging/{id}
+ *
+ * The switch is per instance and expires on its own.
+ */
+@Component
+@Endpoint(id = "correlationlogging")
+public class CorrelationLoggingEndpoint {
+
+    private final long defaultTtlSeconds;
+    private final long maxTtlSeconds;
+
+    public CorrelationLoggingEndpoint(@Value("${logging.correlation.default-ttl-seconds:900}") long defaultTtlSeconds,
+                                      @Value("${logging.correlation.max-ttl-seconds:3600}") long maxTtlSeconds) {
+        this.defaultTtlSeconds = defaultTtlSeconds;
+        this.maxTtlSeconds = maxTtlSeconds;
+    }
+
+    @ReadOperation
+    public Map<String, Object> enabled() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        CorrelationLogFilter.enabled().forEach((id, until) -> body.put(id, Instant.ofEpochMilli(until).toString()));
+        return body;
+    }
+
+    @WriteOperation
+    public Map<String, Object> enable(@Selector String correlationId, @Nullable Long ttlSeconds) {
+        long ttl = Math.min(ttlSeconds == null || ttlSeconds <= 0 ? defaultTtlSeconds : ttlSeconds, maxTtlSeconds);
+        CorrelationLogFilter.enable(correlationId, Duration.ofSeconds(ttl));
+        return Map.of("correlation_id", correlationId, "ttl_seconds", ttl);
+    }
+
+    @DeleteOperation
+    public Map<String, Object> disable(@Selector String correlationId) {
+        return Map.of("correlation_id", correlationId, "disabled", CorrelationLogFilter.disable(correlationId));
+    }
+}
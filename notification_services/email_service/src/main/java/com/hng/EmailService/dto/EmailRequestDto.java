@@ -15,5 +15,11 @@ public record EmailRequestDto(
         int attempts,
         String email,
         String push_token
-) {}
+) {
+
+    public EmailRequestDto withAttempts(int attempts) {
+        return new EmailRequestDto(channel, request_id, user_id, template_code, subject, body,
+                timestamp, data, correlation_id, attempts, email, push_token);
+    }
+}
 
@@ -0,0 +1,17 @@
+package com.hng.EmailService.dto;
+
+/**
+ * Identity and routing fields of a queued request, read before the rest of the payload so
+ * duplicate or stale deliveries can be dropped without decoding the body and data.
+ */
+public record RequestHead(
+        String request_id,
+        String channel,
+        String timestamp,
+        String template_code
+) {
+
+    public static RequestHead of(EmailRequestDto request) {
+        return new RequestHead(request.request_id(), request.channel(), request.timestamp(), request.template_code());
+    }
+}
@@ -0,0 +1,36 @@
+package com.hng.EmailService.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+
+/**
+ * Outcome of a request as published to status.queue. Carries only what the gateway needs to
+ * update its record; the request body, data and recipient stay out of the status pipeline.
+ * Null fields are left out of the JSON.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record StatusEvent(
+        String request_id,
+        String channel,
+        String status,
+        String created_at,
+        String updated_at,
+        String provider_message_id,
+        String error_code
+) {
+
+    public static final String CHANNEL = "email";
+
+    public static final String RETRIES_EXHAUSTED = "retries_exhausted";
+
+    public static StatusEvent delivered(EmailRequestDto request, String providerMessageId) {
+        return new StatusEvent(request.request_id(), CHANNEL, "delivered", request.timestamp(),
+                Instant.now().toString(), providerMessageId, null);
+    }
+
+    public static StatusEvent failed(EmailRequestDto request, String errorCode) {
+        return new StatusEvent(request.request_id(), CHANNEL, "failed", request.timestamp(),
+                Instant.now().toString(), null, errorCode);
+    }
+}
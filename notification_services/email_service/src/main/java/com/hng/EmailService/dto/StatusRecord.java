@@ -0,0 +1,31 @@
+package com.hng.EmailService.dto;
+
+import java.util.Map;
+
+/**
+ * Typed view of a status:<request_id> record, read from either the hash layout
+ * or the legacy {"value": {...}, "expires": ...} JSON blob.
+ */
+public record StatusRecord(
+        String status,
+        String updated_at,
+        String error_message
+) {
+
+    // Hash layout: one field per attribute
+    public static StatusRecord fromHash(Map<?, ?> fields) {
+        return new StatusRecord(text(fields.get("status")), text(fields.get("updated_at")), text(fields.get("error_message")));
+    }
+
+    // Legacy layout as deserialized by Jackson; returns null when the blob has no value map
+    public static StatusRecord fromLegacy(Object raw) {
+        if (!(raw instanceof Map<?, ?> record) || !(record.get("value") instanceof Map<?, ?> value)) {
+            return null;
+        }
+        return fromHash(value);
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+}
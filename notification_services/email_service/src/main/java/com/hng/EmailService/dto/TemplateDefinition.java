@@ -0,0 +1,9 @@
+package com.hng.EmailService.dto;
+
+// Latest version of a template as returned by GET /api/v1/templates/{code}
+public record TemplateDefinition(
+        String code,
+        Integer version_number,
+        String subject,
+        String body
+) {}
@@ -0,0 +1,78 @@
+package com.hng.EmailService.listener;
+
+import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.service.ConfirmedPublisher;
+import com.hng.EmailService.service.EmailBatchProcessingService;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@Component
+// priority lanes and shards take over email.queue when enabled, and consume per message
+@ConditionalOnExpression("${email.batch.enabled:false} and !${email.lanes.enabled:false} and !${email.shards.enabled:false}")
+public class EmailBatchListener {
+
+    private final EmailBatchProcessingService batchProcessingService;
+    private final ConfirmedPublisher publisher;
+
+    public EmailBatchListener(EmailBatchProcessingService batchProcessingService, ConfirmedPublisher publisher) {
+        this.batchProcessingService = batchProcessingService;
+        this.publisher = publisher;
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.email}", containerFactory = "batchRabbitListenerContainerFactory")
+    public void onBatch(List<Message<EmailRequestDto>> messages, Channel channel) {
+        List<EmailRequestDto> requests = new ArrayList<>(messages.size());
+        List<String> correlationIds = new ArrayList<>(messages.size());
+        for (Message<EmailRequestDto> message : messages) {
+            EmailRequestDto request = message.getPayload();
+            // correlation id can be header "correlation_id", or AMQP correlation id
+            String correlationId = message.getHeaders().get("correlation_id", String.class);
+            if (correlationId == null) {
+                correlationId = message.getHeaders().get(AmqpHeaders.CORRELATION_ID, String.class);
+            }
+            if (correlationId == null) {
+                correlationId = request.request_id();
+            }
+            requests.add(request);
+            correlationIds.add(correlationId);
+        }
+
+        List<EmailBatchProcessingService.Outcome> outcomes;
+        try {
+            outcomes = batchProcessingService.processBatch(requests, correlationIds);
+        } catch (Exception e) {
+            log.error("Failed to process batch of {} messages", messages.size(), e);
+            outcomes = Collections.nCopies(messages.size(),
+                    new EmailBatchProcessingService.Outcome(false, CompletableFuture.completedFuture(null)));
+        }
+
+        // Each message is acknowledged on its own, once that message's status and dead-letter publishes are confirmed
+        for (int i = 0; i < messages.size(); i++) {
+            Long deliveryTag = messages.get(i).getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+            String requestId = requests.get(i).request_id();
+            if (outcomes.get(i).processed()) {
+                publisher.ackWhenConfirmed(outcomes.get(i).confirmed(), channel, deliveryTag, requestId);
+                continue;
+            }
+            try {
+                // Reject the message and don't requeue (will go to DLQ if configured)
+                channel.basicNack(deliveryTag, false, false);
+                log.warn("Message rejected for request: {}", requestId);
+            } catch (Exception e) {
+                log.error("Failed to reject message for request: {}", requestId, e);
+            }
+        }
+        log.info("Finished batch of {} messages", messages.size());
+    }
+}
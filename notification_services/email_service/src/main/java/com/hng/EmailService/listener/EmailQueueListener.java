@@ -1,50 +1,81 @@
 package com.hng.EmailService.listener;
 
 import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.dto.RequestHead;
+import com.hng.EmailService.service.ConfirmedPublisher;
 import com.hng.EmailService.service.EmailProcessingService;
+import com.hng.EmailService.util.RawMessageConverter;
+import com.hng.EmailService.util.RequestHeadReader;
 import com.rabbitmq.client.Channel;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Takes the raw message and reads only its head (request id, channel, timestamp, template code)
+ * up front; the full request is decoded once the delivery has been claimed, so redeliveries of
+ * requests that are already delivered or in flight are acked without parsing body and data.
+ */
 @Slf4j
 @Component
+@ConditionalOnProperty(name = {"email.batch.enabled", "email.lanes.enabled", "email.shards.enabled"}, havingValue = "false", matchIfMissing = true)
 public class EmailQueueListener {
 
     private final EmailProcessingService processingService;
+    private final ConfirmedPublisher publisher;
+    private final MessageConverter messageConverter;
 
-    public EmailQueueListener(EmailProcessingService service) {
+    public EmailQueueListener(EmailProcessingService service, ConfirmedPublisher publisher,
+                              MessageConverter messageConverter) {
         this.processingService = service;
+        this.publisher = publisher;
+        this.messageConverter = messageConverter;
     }
 
-    @RabbitListener(queues = "${rabbitmq.queue.email}")
-    public void onMessage(@Payload EmailRequestDto request, 
-                         Message message,
+    @RabbitListener(queues = "${rabbitmq.queue.email}", messageConverter = RawMessageConverter.BEAN_NAME)
+    public void onMessage(Message message,
                          Channel channel,
                          @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        RequestHead head = null;
         try {
+            head = RequestHeadReader.read(message);
+            Supplier<EmailRequestDto> decode = () -> decode(message);
+            if (head == null) {
+                // head not readable on its own; decode everything up front as before
+                EmailRequestDto request = decode(message);
+                head = RequestHead.of(request);
+                decode = () -> request;
+            }
+
             // correlation id can be header "correlation_id", or AMQP correlation id
             String correlationId = message.getMessageProperties().getHeader("correlation_id");
             if (correlationId == null) {
                 correlationId = message.getMessageProperties().getCorrelationId();
             }
             if (correlationId == null) {
-                correlationId = request.request_id();
+                correlationId = head.request_id();
             }
             
             // Process the message
-            processingService.process(request, correlationId);
-            
-            // Only acknowledge if processing was successful
-            channel.basicAck(deliveryTag, false);
-            log.info("Message acknowledged successfully for request: {}", request.request_id());
-            
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                processingService.process(head, decode, correlationId);
+                confirmed = scope.confirmed();
+            }
+
+            // Only acknowledge if processing was successful and its outbound publishes are confirmed
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head.request_id());
+
         } catch (Exception e) {
-            log.error("Failed to process message for request: {}", request.request_id(), e);
+            log.error("Failed to process message for request: {}", head == null ? null : head.request_id(), e);
             try {
                 // Reject the message and don't requeue (will go to DLQ if configured)
                 channel.basicNack(deliveryTag, false, false);
@@ -53,4 +84,9 @@ public class EmailQueueListener {
             }
         }
     }
+
+    private EmailRequestDto decode(Message message) {
+        message.getMessageProperties().setInferredArgumentType(EmailRequestDto.class);
+        return (EmailRequestDto) messageConverter.fromMessage(message);
+    }
 }
@@ -0,0 +1,127 @@
+package com.hng.EmailService.listener;
+
+import com.hng.EmailService.config.ShardAssignment;
+import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.dto.RequestHead;
+import com.hng.EmailService.service.ConfirmedPublisher;
+import com.hng.EmailService.service.EmailProcessingService;
+import com.hng.EmailService.util.RawMessageConverter;
+import com.hng.EmailService.util.RequestHeadReader;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sharded consumption, enabled with email.shards.enabled. Requests arrive on email.queue.shard.*
+ * through the consistent-hash exchange instead of email.queue. This replica starts on the shards
+ * it owns (see {@link ShardAssignment}) and subscribes to the rest as a standby after
+ * email.shards.standby-delay-ms. Each shard has one consumer, so one user's requests are processed
+ * in the order they were published. A request that is retried rejoins its shard behind the ones
+ * published after it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "email.shards.enabled", havingValue = "true")
+public class EmailShardListener {
+
+    static final String LISTENER_ID = "email-shards";
+
+    private final EmailProcessingService processingService;
+    private final ConfirmedPublisher publisher;
+    private final MessageConverter messageConverter;
+    private final ShardAssignment assignment;
+    private final RabbitListenerEndpointRegistry registry;
+    private final long standbyDelayMs;
+
+    public EmailShardListener(EmailProcessingService processingService,
+                              ConfirmedPublisher publisher,
+                              MessageConverter messageConverter,
+                              ShardAssignment assignment,
+                              RabbitListenerEndpointRegistry registry,
+                              @Value("${email.shards.standby-delay-ms:10000}") long standbyDelayMs) {
+        this.processingService = processingService;
+        this.publisher = publisher;
+        this.messageConverter = messageConverter;
+        this.assignment = assignment;
+        this.registry = registry;
+        this.standbyDelayMs = standbyDelayMs;
+        log.info("Sharded consumption enabled, owned shards {}", Arrays.toString(assignment.ownedQueues()));
+    }
+
+    @RabbitListener(id = LISTENER_ID, containerFactory = "shardRabbitListenerContainerFactory",
+            queues = "#{@emailShardAssignment.ownedQueues()}", messageConverter = RawMessageConverter.BEAN_NAME)
+    public void onMessage(Message message,
+                          Channel channel,
+                          @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        RequestHead head = null;
+        try {
+            head = RequestHeadReader.read(message);
+            Supplier<EmailRequestDto> decode = () -> decode(message);
+            if (head == null) {
+                EmailRequestDto request = decode(message);
+                head = RequestHead.of(request);
+                decode = () -> request;
+            }
+
+            // correlation id can be header "correlation_id", or AMQP correlation id
+            String correlationId = message.getMessageProperties().getHeader("correlation_id");
+            if (correlationId == null) {
+                correlationId = message.getMessageProperties().getCorrelationId();
+            }
+            if (correlationId == null) {
+                correlationId = head.request_id();
+            }
+
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                processingService.process(head, decode, correlationId);
+                confirmed = scope.confirmed();
+            }
+
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head.request_id());
+
+        } catch (Exception e) {
+            log.error("Failed to process message for request: {}", head == null ? null : head.request_id(), e);
+            try {
+                // Reject the message and don't requeue (will go to DLQ if configured)
+                channel.basicNack(deliveryTag, false, false);
+            } catch (Exception ex) {
+                log.error("Failed to reject message", ex);
+            }
+        }
+    }
+
+    // The owners of the other shards have had standby-delay-ms to subscribe first
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeStandby() {
+        String[] standby = assignment.standbyQueues();
+        if (standby.length == 0) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(standbyDelayMs, TimeUnit.MILLISECONDS).execute(() -> {
+            ((DirectMessageListenerContainer) registry.getListenerContainer(LISTENER_ID)).addQueueNames(standby);
+            log.info("Subscribed as standby to shards {}", Arrays.toString(standby));
+        });
+    }
+
+    private EmailRequestDto decode(Message message) {
+        message.getMessageProperties().setInferredArgumentType(EmailRequestDto.class);
+        return (EmailRequestDto) messageConverter.fromMessage(message);
+    }
+}
@@ -0,0 +1,134 @@
+package com.hng.EmailService.listener;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hng.EmailService.config.RabbitConfig.EMAIL_QUEUE;
+import static com.hng.EmailService.config.RabbitConfig.LANES;
+import static com.hng.EmailService.config.RabbitConfig.LANE_BULK;
+import static com.hng.EmailService.config.RabbitConfig.LANE_STANDARD;
+import static com.hng.EmailService.config.RabbitConfig.LANE_TRANSACTIONAL;
+
+/**
+ * Lends the consumers of idle lanes to busier lower-priority lanes, enabled with
+ * email.lanes.borrow-idle. Every borrow-interval-ms the lanes are checked in priority order: a
+ * lane with nothing ready and no delivery started since the last check keeps one consumer and
+ * passes the rest down, and the first backlogged lane below it runs with them on top of its own.
+ * Work arriving on a lending lane still starts right away on the consumer it kept, and the lent
+ * consumers come back at the next check. The total never exceeds email.lanes.consumers.*, and
+ * with every lane busy the split is the configured one.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("${email.lanes.enabled:false} and !${email.shards.enabled:false} and ${email.lanes.borrow-idle:false}")
+public class LaneBalancer {
+
+    private final PriorityLaneListener lanes;
+    private final AmqpAdmin amqpAdmin;
+    private final RabbitListenerEndpointRegistry registry;
+    private final Map<String, Integer> configured = new HashMap<>();
+    private final Map<String, Integer> current = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastStarted = new HashMap<>();
+    private final ScheduledExecutorService balancer;
+
+    public LaneBalancer(PriorityLaneListener lanes,
+                        AmqpAdmin amqpAdmin,
+                        RabbitListenerEndpointRegistry registry,
+                        MeterRegistry meterRegistry,
+                        @Value("${email.lanes.consumers.transactional:4}") int transactionalConsumers,
+                        @Value("${email.lanes.consumers.standard:2}") int standardConsumers,
+                        @Value("${email.lanes.consumers.bulk:1}") int bulkConsumers,
+                        @Value("${email.lanes.borrow-interval-ms:1000}") long intervalMs) {
+        this.lanes = lanes;
+        this.amqpAdmin = amqpAdmin;
+        this.registry = registry;
+        configured.put(LANE_TRANSACTIONAL, transactionalConsumers);
+        configured.put(LANE_STANDARD, standardConsumers);
+        configured.put(LANE_BULK, bulkConsumers);
+        for (String lane : LANES) {
+            current.put(lane, configured.get(lane));
+            lastStarted.put(lane, 0L);
+            Gauge.builder("notification.lane.consumers", current, c -> c.get(lane))
+                    .tag("lane", lane)
+                    .description("Consumers a lane currently runs with, including borrowed ones")
+                    .register(meterRegistry);
+        }
+
+        this.balancer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lane-balancer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.balancer.scheduleWithFixedDelay(this::rebalanceQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("Idle lanes lend their consumers to busier ones (checked every {}ms)", intervalMs);
+    }
+
+    void rebalance() {
+        int spare = 0;
+        for (String lane : LANES) {
+            int own = configured.get(lane);
+            int target;
+            if (idle(lane)) {
+                target = Math.min(own, 1);
+                spare += own - target;
+            } else {
+                target = own + spare;
+                spare = 0;
+            }
+            apply(lane, target);
+        }
+    }
+
+    private boolean idle(String lane) {
+        long started = lanes.started(lane);
+        boolean startedAny = started != lastStarted.put(lane, started);
+        if (startedAny) {
+            return false;
+        }
+        QueueInformation info = amqpAdmin.getQueueInfo(EMAIL_QUEUE + "." + lane);
+        return info == null || info.getMessageCount() == 0;
+    }
+
+    private void apply(String lane, int consumers) {
+        if (current.get(lane) == consumers) {
+            return;
+        }
+        SimpleMessageListenerContainer container = (SimpleMessageListenerContainer)
+                registry.getListenerContainer(PriorityLaneListener.LISTENER_ID_PREFIX + lane);
+        if (container == null || !container.isRunning()) {
+            return;
+        }
+        container.setConcurrentConsumers(consumers);
+        log.debug("Lane {} now runs {} consumers ({} configured)", lane, consumers, configured.get(lane));
+        current.put(lane, consumers);
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            rebalance();
+        } catch (Exception e) {
+            log.warn("Lane rebalance failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        balancer.shutdownNow();
+    }
+}
@@ -0,0 +1,212 @@
+package com.hng.EmailService.listener;
+
+import com.hng.EmailService.config.RabbitConfig;
+import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.dto.RequestHead;
+import com.hng.EmailService.service.ConfirmedPublisher;
+import com.hng.EmailService.service.EmailProcessingService;
+import com.hng.EmailService.util.RawMessageConverter;
+import com.hng.EmailService.util.RequestHeadReader;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hng.EmailService.config.RabbitConfig.EMAIL_EXCHANGE;
+import static com.hng.EmailService.config.RabbitConfig.LANES;
+import static com.hng.EmailService.config.RabbitConfig.LANE_BULK;
+import static com.hng.EmailService.config.RabbitConfig.LANE_STANDARD;
+import static com.hng.EmailService.config.RabbitConfig.LANE_TRANSACTIONAL;
+import static com.hng.EmailService.config.RabbitConfig.laneRoutingKey;
+
+/**
+ * Priority lanes, enabled with email.lanes.enabled. email.queue is drained by a light router that
+ * only moves each message to its lane queue, without decoding it: the lane is taken from the
+ * x-lane header when the publisher set one, otherwise from the template_code AMQP header or a
+ * streaming read of the body's top-level fields (see RequestHeadReader). Publishers that know the
+ * lane, like the gateway with RABBITMQ_LANES=true, can skip the router and publish to the lane
+ * routing keys directly. Every lane has its own consumers, sized by email.lanes.consumers.*, so
+ * a bulk backlog only ever occupies the bulk consumers and cannot delay transactional mail;
+ * {@link LaneBalancer} can lend the consumers of idle lanes to the busy ones.
+ */
+@Slf4j
+@Component
+// sharding replaces email.queue
+@ConditionalOnExpression("${email.lanes.enabled:false} and !${email.shards.enabled:false}")
+public class PriorityLaneListener {
+
+    static final String LANE_HEADER = "x-lane";
+    static final String ROUTED_AT_HEADER = "x-lane-routed-at";
+    static final String LISTENER_ID_PREFIX = "email-lane-";
+
+    private final EmailProcessingService processingService;
+    private final ConfirmedPublisher publisher;
+    private final Set<String> transactionalTemplates;
+    private final Set<String> bulkTemplates;
+    private final Map<String, Counter> routed = new HashMap<>();
+    private final Map<String, Timer> lag = new HashMap<>();
+    private final Map<String, LongAdder> started = new HashMap<>();
+
+    public PriorityLaneListener(EmailProcessingService processingService,
+                                ConfirmedPublisher publisher,
+                                MeterRegistry meterRegistry,
+                                @Value("${email.lanes.transactional-templates:}") String transactionalTemplates,
+                                @Value("${email.lanes.bulk-templates:}") String bulkTemplates) {
+        this.processingService = processingService;
+        this.publisher = publisher;
+        this.transactionalTemplates = templateSet(transactionalTemplates);
+        this.bulkTemplates = templateSet(bulkTemplates);
+        for (String lane : LANES) {
+            routed.put(lane, Counter.builder("notification.lane.routed")
+                    .tag("lane", lane)
+                    .description("Messages routed from the ingress queue to a lane")
+                    .register(meterRegistry));
+            started.put(lane, new LongAdder());
+            lag.put(lane, Timer.builder("notification.lane.lag")
+                    .tag("lane", lane)
+                    .description("Time a message waited in its lane queue before processing started")
+                    .register(meterRegistry));
+        }
+        log.info("Priority lanes enabled (transactional templates {}, bulk templates {})",
+                this.transactionalTemplates, this.bulkTemplates);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.email}", concurrency = "${email.lanes.router-consumers:2}",
+            messageConverter = RawMessageConverter.BEAN_NAME)
+    public void route(Message message,
+                      Channel channel,
+                      @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        // the body is never decoded here; a head that can't be read goes to the standard lane, whose consumer decodes it
+        RequestHead head = null;
+        Object laneHeader = message.getMessageProperties().getHeader(LANE_HEADER);
+        if (!isLane(laneHeader)) {
+            head = RequestHeadReader.read(message);
+        }
+        String lane = laneFor(laneHeader, head);
+        try {
+            // forward the original bytes; only the lane headers are added
+            message.getMessageProperties().setHeader(LANE_HEADER, lane);
+            message.getMessageProperties().setHeader(ROUTED_AT_HEADER, System.currentTimeMillis());
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                publisher.send(EMAIL_EXCHANGE, laneRoutingKey(lane), message);
+                confirmed = scope.confirmed();
+            }
+            routed.get(lane).increment();
+            // an unconfirmed forward is requeued on the ingress queue, like a failed one
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head == null ? null : head.request_id());
+        } catch (Exception e) {
+            log.error("Failed to route request {} to lane {}", head == null ? null : head.request_id(), lane, e);
+            try {
+                // routing failures are transient, keep the message on the ingress queue
+                channel.basicNack(deliveryTag, false, true);
+            } catch (Exception ex) {
+                log.error("Failed to reject message", ex);
+            }
+        }
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_TRANSACTIONAL, queues = RabbitConfig.EMAIL_TRANSACTIONAL_QUEUE,
+            concurrency = "${email.lanes.consumers.transactional:4}")
+    public void onTransactional(@Payload EmailRequestDto request, Message message, Channel channel,
+                                @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        handle(LANE_TRANSACTIONAL, request, message, channel, deliveryTag);
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_STANDARD, queues = RabbitConfig.EMAIL_STANDARD_QUEUE,
+            concurrency = "${email.lanes.consumers.standard:2}")
+    public void onStandard(@Payload EmailRequestDto request, Message message, Channel channel,
+                           @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        handle(LANE_STANDARD, request, message, channel, deliveryTag);
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_BULK, queues = RabbitConfig.EMAIL_BULK_QUEUE,
+            concurrency = "${email.lanes.consumers.bulk:1}")
+    public void onBulk(@Payload EmailRequestDto request, Message message, Channel channel,
+                       @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        handle(LANE_BULK, request, message, channel, deliveryTag);
+    }
+
+    private void handle(String lane, EmailRequestDto request, Message message, Channel channel, long deliveryTag) {
+        started.get(lane).increment();
+        Object routedAt = message.getMessageProperties().getHeader(ROUTED_AT_HEADER);
+        if (routedAt instanceof Number millis) {
+            lag.get(lane).record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - millis.longValue())));
+        }
+        try {
+            // correlation id can be header "correlation_id", or AMQP correlation id
+            String correlationId = message.getMessageProperties().getHeader("correlation_id");
+            if (correlationId == null) {
+                correlationId = message.getMessageProperties().getCorrelationId();
+            }
+            if (correlationId == null) {
+                correlationId = request.request_id();
+            }
+
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                processingService.process(request, correlationId);
+                confirmed = scope.confirmed();
+            }
+
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, request.request_id());
+
+        } catch (Exception e) {
+            log.error("Failed to process message for request: {}", request.request_id(), e);
+            try {
+                // Reject the message and don't requeue (will go to DLQ if configured)
+                channel.basicNack(deliveryTag, false, false);
+            } catch (Exception ex) {
+                log.error("Failed to reject message", ex);
+            }
+        }
+    }
+
+    // deliveries a lane has started so far, so LaneBalancer can tell a drained lane from an idle one
+    long started(String lane) {
+        return started.get(lane).sum();
+    }
+
+    private String laneFor(Object laneHeader, RequestHead head) {
+        if (isLane(laneHeader)) {
+            return laneHeader.toString();
+        }
+        String templateCode = head == null ? null : head.template_code();
+        if (templateCode != null && transactionalTemplates.contains(templateCode)) {
+            return LANE_TRANSACTIONAL;
+        }
+        if (templateCode != null && bulkTemplates.contains(templateCode)) {
+            return LANE_BULK;
+        }
+        return LANE_STANDARD;
+    }
+
+    private static boolean isLane(Object laneHeader) {
+        return laneHeader != null && Arrays.asList(LANES).contains(laneHeader.toString());
+    }
+
+    private static Set<String> templateSet(String codes) {
+        return Arrays.stream(codes.split(","))
+                .map(String::trim)
+                .filter(code -> !code.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
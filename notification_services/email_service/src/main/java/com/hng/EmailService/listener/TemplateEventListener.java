@@ -0,0 +1,56 @@
+package com.hng.EmailService.listener;
+
+import com.hng.EmailService.service.TemplateCache;
+import com.hng.EmailService.util.LogRedaction;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.ExchangeTypes;
+import org.springframework.amqp.rabbit.annotation.Exchange;
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.QueueBinding;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Invalidates the local template cache on template change events.
+ * Every instance binds its own exclusive queue to the fanout exchange, so each one sees every event.
+ */
+@Slf4j
+@Component
+public class TemplateEventListener {
+
+    private final TemplateCache templateCache;
+
+    public TemplateEventListener(TemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    @RabbitListener(bindings = @QueueBinding(
+            value = @Queue(exclusive = "true", autoDelete = "true"),
+            exchange = @Exchange(value = "${template-service.cache.events-exchange:templates.events}", type = ExchangeTypes.FANOUT)))
+    public void onTemplateEvent(@Payload Map<String, Object> event,
+                                Channel channel,
+                                @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+        try {
+            Object templateCode = event.get("template_code");
+            if (templateCode == null) {
+                templateCache.clear();
+            } else {
+                templateCache.evict(templateCode.toString());
+            }
+        } catch (Exception e) {
+            log.error("Failed to apply template event {}", LogRedaction.truncate(event), e);
+        } finally {
+            try {
+                channel.basicAck(deliveryTag, false);
+            } catch (Exception ex) {
+                log.error("Failed to ack template event", ex);
+            }
+        }
+    }
+}
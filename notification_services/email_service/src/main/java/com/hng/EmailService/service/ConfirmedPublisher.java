@@ -0,0 +1,268 @@
+package com.hng.EmailService.service;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbound publishes (status events, retry tiers, dead letters) with asynchronous publisher confirms.
+ *
+ * With rabbitmq.confirms.enabled, publishes go over a dedicated connection whose channels are
+ * pooled (pool-size channels, checkout waits up to the confirm timeout) and run in correlated
+ * confirm mode with mandatory routing. {@link #send} returns right after the publish; its future
+ * completes when the broker confirms it. A nack, an unroutable return or a missing confirm is
+ * republished up to max-attempts times before the future fails.
+ *
+ * Listeners open a {@link Scope} around processing a delivery; every publish made on that thread
+ * while the scope is open is collected, so the delivery can be acked once they are all confirmed
+ * without the consumer thread waiting for it. Without confirms, {@link #send} publishes through
+ * the shared RabbitTemplate as before and returns a completed future.
+ */
+@Service
+public class ConfirmedPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConfirmedPublisher.class);
+
+    private static final ThreadLocal<Scope> currentScope = new ThreadLocal<>();
+
+    private final RabbitTemplate rabbitTemplate;
+    private final boolean enabled;
+    private final long confirmTimeoutMs;
+    private final int maxAttempts;
+    private final CachingConnectionFactory confirmConnectionFactory;
+    private final RabbitTemplate confirmTemplate;
+    // confirm callbacks arrive on the AMQP connection thread; republishes and acks run here instead
+    private final ExecutorService callbackExecutor;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Timer confirmLatency;
+    private final Map<String, Counter> results;
+
+    public ConfirmedPublisher(RabbitTemplate rabbitTemplate,
+                              ConnectionFactory connectionFactory,
+                              MessageConverter messageConverter,
+                              MeterRegistry meterRegistry,
+                              @Value("${rabbitmq.confirms.enabled:false}") boolean enabled,
+                              @Value("${rabbitmq.confirms.pool-size:8}") int poolSize,
+                              @Value("${rabbitmq.confirms.timeout-ms:5000}") long confirmTimeoutMs,
+                              @Value("${rabbitmq.confirms.max-attempts:3}") int maxAttempts) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.enabled = enabled;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        this.confirmLatency = Timer.builder("rabbitmq.publish.confirm.latency")
+                .description("Time from publish to broker confirm")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.results = Map.of(
+                "ack", resultCounter(meterRegistry, "ack"),
+                "nack", resultCounter(meterRegistry, "nack"),
+                "returned", resultCounter(meterRegistry, "returned"),
+                "timeout", resultCounter(meterRegistry, "timeout"),
+                "error", resultCounter(meterRegistry, "error"));
+        Gauge.builder("rabbitmq.publish.confirm.pending", pending, AtomicInteger::get)
+                .description("Publishes waiting for a broker confirm")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.confirmConnectionFactory = null;
+            this.confirmTemplate = null;
+            this.callbackExecutor = null;
+            return;
+        }
+
+        // same broker and credentials as the listeners, on a connection of its own
+        CachingConnectionFactory cf = new CachingConnectionFactory(
+                ((AbstractConnectionFactory) connectionFactory).getRabbitConnectionFactory());
+        cf.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.CORRELATED);
+        cf.setPublisherReturns(true);
+        cf.setChannelCacheSize(poolSize);
+        cf.setChannelCheckoutTimeout(confirmTimeoutMs);
+        cf.setConnectionNameStrategy(f -> "email-service-confirms");
+        this.confirmConnectionFactory = cf;
+
+        RabbitTemplate template = new RabbitTemplate(cf);
+        template.setMessageConverter(messageConverter);
+        template.setMandatory(true);
+        this.confirmTemplate = template;
+        this.callbackExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+        log.info("Publisher confirms enabled (pool {}, timeout {}ms, max attempts {})", poolSize, confirmTimeoutMs, maxAttempts);
+    }
+
+    private static Counter resultCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("rabbitmq.publish.confirms")
+                .description("Publisher confirm results")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public CompletableFuture<Void> send(String routingKey, Object payload) {
+        return send("", routingKey, payload, m -> m);
+    }
+
+    public CompletableFuture<Void> send(String exchange, String routingKey, Object payload) {
+        return send(exchange, routingKey, payload, m -> m);
+    }
+
+    public CompletableFuture<Void> send(String exchange, String routingKey, Object payload, MessagePostProcessor postProcessor) {
+        CompletableFuture<Void> confirmed;
+        if (!enabled) {
+            rabbitTemplate.convertAndSend(exchange, routingKey, payload, postProcessor);
+            confirmed = CompletableFuture.completedFuture(null);
+        } else {
+            confirmed = attempt(exchange, routingKey, payload, postProcessor, 1);
+        }
+        return track(confirmed);
+    }
+
+    /**
+     * Add a publish made elsewhere, such as a buffered one that goes out later from another thread,
+     * to this thread's open scope.
+     */
+    public CompletableFuture<Void> track(CompletableFuture<Void> confirmed) {
+        Scope scope = currentScope.get();
+        if (scope != null) {
+            scope.pending.add(confirmed);
+        }
+        return confirmed;
+    }
+
+    private CompletableFuture<Void> attempt(String exchange, String routingKey, Object payload,
+                                            MessagePostProcessor postProcessor, int attempt) {
+        CorrelationData correlation = new CorrelationData();
+        long start = System.nanoTime();
+        pending.incrementAndGet();
+        try {
+            confirmTemplate.convertAndSend(exchange, routingKey, payload, postProcessor, correlation);
+        } catch (AmqpException e) {
+            pending.decrementAndGet();
+            results.get("error").increment();
+            return retryOrFail(exchange, routingKey, payload, postProcessor, attempt, "error: " + e.getMessage());
+        }
+
+        return correlation.getFuture()
+                .orTimeout(confirmTimeoutMs, TimeUnit.MILLISECONDS)
+                .handleAsync((confirm, error) -> {
+                    pending.decrementAndGet();
+                    confirmLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    String result;
+                    if (error != null) {
+                        result = error instanceof TimeoutException ? "timeout" : "error";
+                    } else if (!confirm.ack()) {
+                        result = "nack";
+                    } else if (correlation.getReturned() != null) {
+                        result = "returned";
+                    } else {
+                        result = "ack";
+                    }
+                    results.get(result).increment();
+                    if ("ack".equals(result)) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    String reason = "nack".equals(result) && confirm.reason() != null ? "nack: " + confirm.reason() : result;
+                    return retryOrFail(exchange, routingKey, payload, postProcessor, attempt, reason);
+                }, callbackExecutor)
+                .thenCompose(next -> next);
+    }
+
+    private CompletableFuture<Void> retryOrFail(String exchange, String routingKey, Object payload,
+                                                MessagePostProcessor postProcessor, int attempt, String reason) {
+        if (attempt < maxAttempts) {
+            log.warn("Publish to {}/{} not confirmed ({}), attempt {} of {}", exchange, routingKey, reason, attempt, maxAttempts);
+            return attempt(exchange, routingKey, payload, postProcessor, attempt + 1);
+        }
+        log.error("Publish to {}/{} not confirmed after {} attempts ({})", exchange, routingKey, maxAttempts, reason);
+        return CompletableFuture.failedFuture(
+                new AmqpException("Publish to " + exchange + "/" + routingKey + " not confirmed: " + reason));
+    }
+
+    /**
+     * Start collecting this thread's publishes. Close the scope on the same thread.
+     */
+    public Scope open() {
+        Scope scope = new Scope(currentScope.get());
+        currentScope.set(scope);
+        return scope;
+    }
+
+    /**
+     * Ack a delivery once its publishes are confirmed, on whichever thread completes them. If they
+     * could not be confirmed the delivery is requeued, so it is processed again instead of its
+     * status event or dead letter being lost.
+     */
+    public void ackWhenConfirmed(CompletableFuture<Void> confirmed, Channel channel, long deliveryTag, String requestId) {
+        confirmed.whenComplete((v, error) -> {
+            try {
+                if (error == null) {
+                    channel.basicAck(deliveryTag, false);
+                    log.debug("Message acknowledged successfully for request: {}", requestId);
+                } else {
+                    log.error("Outbound publish for request {} not confirmed, requeueing: {}", requestId, error.getMessage());
+                    channel.basicNack(deliveryTag, false, true);
+                }
+            } catch (Exception e) {
+                log.error("Failed to ack/nack message for request: {}", requestId, e);
+            }
+        });
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final Scope previous;
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>(2);
+
+        private Scope(Scope previous) {
+            this.previous = previous;
+        }
+
+        /** Completes when every publish made in this scope is confirmed, or fails with the first failure. */
+        public CompletableFuture<Void> confirmed() {
+            return pending.isEmpty() ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new));
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                currentScope.remove();
+            } else {
+                currentScope.set(previous);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (confirmConnectionFactory == null) {
+            return;
+        }
+        callbackExecutor.shutdown();
+        confirmConnectionFactory.destroy();
+    }
+}
@@ -0,0 +1,157 @@
+package com.hng.EmailService.service;
+
+import com.hng.EmailService.dto.EmailRequestDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batched variant of {@link EmailProcessingService}: messages whose subject and rendered body
+ * are identical are sent as a single SendGrid mail/send call with one personalization per recipient.
+ * When SendGrid refuses such a call outright (a 4xx other than 429), its members are sent one by one,
+ * so a malformed address fails only its own message.
+ * Every message still gets its own Redis status update based on the result of the call it was part of,
+ * and its publishes are collected in a confirm scope of their own, so one status event or dead
+ * letter that can't be confirmed only requeues the message it belongs to.
+ */
+@Service
+public class EmailBatchProcessingService {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailBatchProcessingService.class);
+
+    private final EmailProcessingService processingService;
+    private final SendGridClient sendGridClient;
+    private final RedisService redisService;
+    private final ConfirmedPublisher publisher;
+    private final PipelineMetrics metrics;
+
+    public EmailBatchProcessingService(EmailProcessingService processingService,
+                                       SendGridClient sendGridClient,
+                                       RedisService redisService,
+                                       ConfirmedPublisher publisher,
+                                       PipelineMetrics metrics) {
+        this.processingService = processingService;
+        this.sendGridClient = sendGridClient;
+        this.redisService = redisService;
+        this.publisher = publisher;
+        this.metrics = metrics;
+    }
+
+    private record GroupKey(String subject, String body) {}
+
+    /**
+     * Result for one message of a batch. A processed message is acked once confirmed completes,
+     * which covers only that message's own publishes; any other message is rejected.
+     */
+    public record Outcome(boolean processed, CompletableFuture<Void> confirmed) {}
+
+    /**
+     * Process a batch of requests. The returned outcomes are parallel to the input.
+     */
+    public List<Outcome> processBatch(List<EmailRequestDto> requests, List<String> correlationIds) {
+        int size = requests.size();
+        Boolean[] outcomes = new Boolean[size];
+        List<CompletableFuture<Void>> confirmed = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            confirmed.add(CompletableFuture.completedFuture(null));
+        }
+        Map<GroupKey, List<Integer>> groups = new LinkedHashMap<>();
+
+        // 1. Claim and render each message, grouping identical content
+        for (int i = 0; i < size; i++) {
+            EmailRequestDto request = requests.get(i);
+            MDC.put("correlation_id", correlationIds.get(i));
+            try {
+                if (!processingService.claim(request)) {
+                    try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                        processingService.republishPending(request.request_id(), () -> request);
+                        confirmed.set(i, scope.confirmed());
+                    }
+                    outcomes[i] = true;  // Already processed, can safely acknowledge
+                    continue;
+                }
+                String renderedBody = metrics.time(PipelineMetrics.RENDER, () -> processingService.render(request));
+                groups.computeIfAbsent(new GroupKey(request.subject(), renderedBody), k -> new ArrayList<>()).add(i);
+            } catch (Exception e) {
+                log.error("Failed to prepare email {} for batch: {}", request.request_id(), e.getMessage(), e);
+                metrics.time(PipelineMetrics.STATUS_UPDATE,
+                        () -> redisService.updateStatusWithError(request.request_id(), "failed", e.getMessage()));
+                metrics.processed(request.template_code(), PipelineMetrics.FAILED);
+                outcomes[i] = false;
+            } finally {
+                MDC.remove("correlation_id");
+            }
+        }
+
+        log.info("Batch of {} messages grouped into {} SendGrid requests", size, groups.size());
+
+        // 2. One mail/send per group, chunked to SendGrid's personalization limit
+        for (Map.Entry<GroupKey, List<Integer>> group : groups.entrySet()) {
+            List<Integer> members = group.getValue();
+            for (int from = 0; from < members.size(); from += SendGridClient.MAX_PERSONALIZATIONS) {
+                List<Integer> chunk = members.subList(from, Math.min(from + SendGridClient.MAX_PERSONALIZATIONS, members.size()));
+                sendChunk(group.getKey(), chunk, requests, correlationIds, outcomes, confirmed);
+            }
+        }
+
+        List<Outcome> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new Outcome(Boolean.TRUE.equals(outcomes[i]), confirmed.get(i)));
+        }
+        return result;
+    }
+
+    private void sendChunk(GroupKey key, List<Integer> chunk, List<EmailRequestDto> requests,
+                           List<String> correlationIds, Boolean[] outcomes, List<CompletableFuture<Void>> confirmed) {
+        List<String> recipients = new ArrayList<>(chunk.size());
+        for (int i : chunk) {
+            recipients.add(requests.get(i).email());
+        }
+
+        SendGridClient.SendResult batchResult = processingService.attemptSend(PipelineMetrics.BATCH_ATTEMPT, "batch of " + recipients.size(),
+                () -> sendGridClient.sendBatch(recipients, key.subject(), key.body()));
+        // A refused batch may be down to a single bad recipient. Retried together, the same members would
+        // be regrouped and refused again until all of them are dead-lettered, so each is sent on its own.
+        boolean sendSingly = batchResult.rejected() && chunk.size() > 1;
+        if (sendSingly) {
+            log.warn("SendGrid refused a batch of {} recipients with status {}, sending them one by one",
+                    chunk.size(), batchResult.status());
+        }
+
+        for (int i : chunk) {
+            EmailRequestDto request = requests.get(i);
+            MDC.put("correlation_id", correlationIds.get(i));
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                SendGridClient.SendResult result = sendSingly
+                        ? processingService.attemptSend(PipelineMetrics.attempt(request.attempts()),
+                                "request " + request.request_id() + " attempt " + request.attempts(),
+                                () -> sendGridClient.sendEmail(request.email(), key.subject(), key.body()))
+                        : batchResult;
+                if (result.sent()) {
+                    processingService.markDelivered(request, result.messageId());
+                } else {
+                    // Each member is retried on its own tier and may be regrouped with other messages
+                    processingService.retryOrFail(request, correlationIds.get(i),
+                            sendSingly ? "SendGrid send failed" : "SendGrid batch send failed");
+                }
+                confirmed.set(i, scope.confirmed());
+                outcomes[i] = true;
+            } catch (Exception e) {
+                log.error("Failed to record batch result for email {}: {}", request.request_id(), e.getMessage(), e);
+                metrics.time(PipelineMetrics.STATUS_UPDATE,
+                        () -> redisService.updateStatusWithError(request.request_id(), "failed", e.getMessage()));
+                metrics.processed(request.template_code(), PipelineMetrics.FAILED);
+                outcomes[i] = false;
+            } finally {
+                MDC.remove("correlation_id");
+            }
+        }
+    }
+}
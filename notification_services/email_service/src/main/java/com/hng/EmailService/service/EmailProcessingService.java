@@ -1,17 +1,25 @@
 package com.hng.EmailService.service;
 
 import com.hng.EmailService.dto.EmailRequestDto;
+import com.hng.EmailService.dto.RequestHead;
+import com.hng.EmailService.dto.StatusEvent;
+import com.hng.EmailService.dto.StatusRecord;
+import com.hng.EmailService.util.CorrelationLogFilter;
 import com.hng.EmailService.util.TemplateRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static com.hng.EmailService.config.RabbitConfig.EMAIL_EXCHANGE;
 import static com.hng.EmailService.config.RabbitConfig.FAILED_ROUTING_KEY;
+import static com.hng.EmailService.config.RabbitConfig.RETRY_DELAYS_MS;
+import static com.hng.EmailService.config.RabbitConfig.SHARD_HASH_HEADER;
+import static com.hng.EmailService.config.RabbitConfig.retryRoutingKey;
 
 @Service
 public class EmailProcessingService {
@@ -19,136 +27,237 @@ public class EmailProcessingService {
     private static final Logger log = LoggerFactory.getLogger(EmailProcessingService.class);
 
     private final SendGridClient sendGridClient;
-    private final RabbitTemplate rabbitTemplate;
+    private final ConfirmedPublisher publisher;
+    private final StatusEventPublisher statusEvents;
     private final RedisService redisService;
     private final TemplateServiceClient templateServiceClient;
+    private final TemplateCache templateCache;
+    private final PipelineMetrics metrics;
 
     public EmailProcessingService(
                                   SendGridClient sendGridClient,
-                                  RabbitTemplate rabbitTemplate,
+                                  ConfirmedPublisher publisher,
+                                  StatusEventPublisher statusEvents,
                                   RedisService redisService,
-                                  TemplateServiceClient templateServiceClient) {
+                                  TemplateServiceClient templateServiceClient,
+                                  TemplateCache templateCache,
+                                  PipelineMetrics metrics) {
         this.sendGridClient = sendGridClient;
-        this.rabbitTemplate = rabbitTemplate;
+        this.publisher = publisher;
+        this.statusEvents = statusEvents;
         this.redisService = redisService;
         this.templateServiceClient = templateServiceClient;
+        this.templateCache = templateCache;
+        this.metrics = metrics;
     }
 
     public void process(EmailRequestDto request, String correlationId) {
+        process(RequestHead.of(request), () -> request, correlationId);
+    }
+
+    /**
+     * Claim the request by its head and only then decode the full payload, so a duplicate or
+     * stale delivery costs a Redis round trip but no body or data parsing.
+     */
+    public void process(RequestHead head, Supplier<EmailRequestDto> decode, String correlationId) {
         MDC.put("correlation_id", correlationId);
-        log.info("Processing email request {}", request.request_id());
+        log.debug("Processing email request {}", head.request_id());
+
+        try {
+            if (!claim(head.request_id(), head.template_code())) {
+                republishPending(head.request_id(), decode);
+                return;  // Already processed, can safely acknowledge
+            }
+
+            try {
+                EmailRequestDto request = metrics.time(PipelineMetrics.DECODE, decode);
+                String renderedBody = metrics.time(PipelineMetrics.RENDER, () -> render(request));
+                SendGridClient.SendResult result = attemptSend(PipelineMetrics.attempt(request.attempts()),
+                        "request " + request.request_id() + " attempt " + request.attempts(),
+                        () -> sendGridClient.sendEmail(request.email(), request.subject(), renderedBody));
+
+                if (result.sent()) {
+                    markDelivered(request, result.messageId());
+                } else {
+                    // an exhausted request is marked failed and dead-lettered there, so it can be acked too
+                    retryOrFail(request, correlationId, "SendGrid send failed");
+                }
+            } catch (Exception e) {
+                // Update status to failed in Redis with error message
+                metrics.time(PipelineMetrics.STATUS_UPDATE,
+                        () -> redisService.updateStatusWithError(head.request_id(), "failed", e.getMessage()));
+                metrics.processed(head.template_code(), PipelineMetrics.FAILED);
+                log.error("Unhandled exception processing email {}: {}", head.request_id(), e.getMessage(), e);
+                // Throw exception so message is not acknowledged and can be retried or sent to DLQ
+                throw new RuntimeException("Failed to process email: " + e.getMessage(), e);
+            }
+        } finally {
+            MDC.remove("correlation_id");
+        }
+    }
+
+    /**
+     * Confirm that the request still has a status record in the "queued" state and move it to "processing".
+     * Returns false when the request was already picked up.
+     */
+    public boolean claim(EmailRequestDto request) {
+        return claim(request.request_id(), request.template_code());
+    }
 
-        // Use the correct Redis key with status: prefix
-        String redisKey = "status:" + request.request_id();
-        Object redisValue = redisService.fetch(redisKey);
-        log.info("Fetched Redis value for {}: {}", request.request_id(), redisValue);
+    public boolean claim(String requestId, String templateCode) {
+        // Scripted compare-and-set on status:<request_id>: queued -> processing in one round trip
+        RedisService.StatusTransition transition = metrics.time(PipelineMetrics.REDIS_FETCH,
+                () -> redisService.transition(requestId, "queued", "processing", null));
 
-//        confirm that the request is still valid, hasn't expired, or is still in the "queued" state — before proceeding to send the email.
-        if (redisValue == null) {
-            log.warn("No Redis record found for request_id {}. Skipping email.", request.request_id());
-            throw new RuntimeException("No Redis record found for request_id: " + request.request_id());
+        switch (transition.outcome()) {
+            case APPLIED -> {
+                log.debug("Updated status to 'processing' for request {}", requestId);
+                return true;
+            }
+            case CONFLICT -> {
+                log.info("Skipping email for request_id {} since status is {}", requestId, transition.status());
+                metrics.processed(templateCode, PipelineMetrics.SKIPPED);
+                return false;
+            }
+            case NOT_FOUND -> {
+                log.warn("No Redis record found for request_id {}. Skipping email.", requestId);
+                throw new RuntimeException("No Redis record found for request_id: " + requestId);
+            }
+            default -> {
+                log.error("Invalid Redis structure: 'value.status' is missing for request_id {} (record: {})",
+                        requestId, describeStatus(requestId));
+                throw new RuntimeException("Invalid Redis structure for request_id: " + requestId);
+            }
         }
+    }
 
-        // Parse the Redis structure: { "value": { "status": "queued", ... }, "expires": ... }
-        Map<String, Object> redisMap = (Map<String, Object>) redisValue;
-        Map<String, Object> value = (Map<String, Object>) redisMap.get("value");
-        
-        if (value == null) {
-            log.error("Invalid Redis structure: 'value' field is missing for request_id {}", request.request_id());
-            throw new RuntimeException("Invalid Redis structure for request_id: " + request.request_id());
+    // What status:<requestId> holds, for logging a record the transition script could not use
+    private String describeStatus(String requestId) {
+        try {
+            return redisService.readStatus(requestId).map(StatusRecord::toString).orElse("unreadable");
+        } catch (Exception e) {
+            return "unreadable: " + e.getMessage();
         }
-        
-        String status = (String) value.get("status");
-        
-        if (status == null) {
-            log.warn("Status field is missing in Redis for request_id {}", request.request_id());
-            throw new RuntimeException("Status field missing for request_id: " + request.request_id());
+    }
+
+    // Render from the local template cache, then the template service, then the local replace renderer
+    public String render(EmailRequestDto request) {
+        TemplateCache.CachedTemplate cached = templateCache.get(request.template_code());
+        if (cached != null && cached.body().isPlain()) {
+            try {
+                String renderedBody = cached.body().renderEscaped(request.data());
+                log.debug("Rendered template {} v{} from local cache for request {}",
+                        request.template_code(), cached.definition().version_number(), request.request_id());
+                return renderedBody;
+            } catch (IllegalArgumentException e) {
+                log.warn("Local render of template {} failed ({}), using template service", request.template_code(), e.getMessage());
+            }
         }
 
-        if (!"queued".equalsIgnoreCase(status)) {
-            log.info("Skipping email for request_id {} since status is {}", request.request_id(), status);
-            return;  // Already processed, can safely acknowledge
+        try {
+            log.debug("Rendering template {} with {} variables", request.template_code(),
+                    request.data() == null ? 0 : request.data().size());
+            String renderedBody = templateServiceClient.renderInlineTemplate(request.body(), request.data());
+            log.debug("Successfully rendered template for request {}", request.request_id());
+            return renderedBody;
+        } catch (Exception e) {
+            log.error("Failed to render template via template service, falling back to local renderer: {}", e.getMessage());
+            // Fallback to local rendering if template service is unavailable
+            return TemplateRenderer.render(request.body(), request.data());
         }
+    }
 
+    // Single provider call within the SendGrid rate and concurrency limits; failed or rejected attempts are
+    // retried through the delay queues instead of sleeping here. attempt is the metrics tag for the call.
+    public SendGridClient.SendResult attemptSend(String attempt, String label, Callable<SendGridClient.SendResult> send) {
         try {
-            // Update status to processing
-            redisService.updateStatus(request.request_id(), "processing");
-            log.info("Updated status to 'processing' for request {}", request.request_id());
-
-            // 1. Render template using template service
-            String renderedBody;
-            String subject = request.subject();
-            
-            try {
-                log.info("Rendering template {} with data: {}", request.template_code(), request.data());
-                renderedBody = templateServiceClient.renderInlineTemplate(request.body(), request.data());
-                log.info("Successfully rendered template for request {}", request.request_id());
-            } catch (Exception e) {
-                log.error("Failed to render template via template service, falling back to local renderer: {}", e.getMessage());
-                // Fallback to local rendering if template service is unavailable
-                renderedBody = TemplateRenderer.render(request.body(), request.data());
+            SendGridClient.SendResult result = metrics.timeSend(attempt, () -> sendGridClient.callWithinLimits(
+                    send, SendGridClient.SendResult::congested, SendGridClient.SendResult.FAILED), SendGridClient.SendResult::sent);
+            if (!result.sent()) {
+                log.warn("SendGrid returned an error for {}", label);
             }
+            return result;
+        } catch (Exception ex) {
+            log.error("Error sending email for {}: {}", label, ex.getMessage());
+        }
+        return SendGridClient.SendResult.FAILED;
+    }
 
-            // 2. Send with exponential backoff attempts: 1st: immediate; retries: 2s,4s,8s
-            int[] backoffs = {0, 2000, 4000, 8000}; // ms
-            boolean sent = false;
-            for (int attempt = 0; attempt < backoffs.length; attempt++) {
-                if (attempt > 0) {
-                    log.info("Retry attempt {} for request {}", attempt, request.request_id());
-                    Thread.sleep(backoffs[attempt]);
-                }
-                try {
-                    boolean ok = sendGridClient.sendEmail(request.email(), subject, renderedBody);
-                    if (ok) {
-                        sent = true;
-                        break;
-                    } else {
-                        log.warn("SendGrid returned an error, will retry if attempts remain.");
+    /**
+     * Handle a failed send attempt. While retry tiers remain, the request is republished with attempts + 1
+     * to the next delay queue. Once the tiers are exhausted the request is marked failed and dead-lettered
+     * to failed.queue. Either way the current delivery can be acknowledged.
+     */
+    public void retryOrFail(EmailRequestDto request, String correlationId, String reason) {
+        int tier = request.attempts();
+        if (tier >= RETRY_DELAYS_MS.length) {
+            markFailed(request, StatusEvent.RETRIES_EXHAUSTED, "Failed to deliver email after all retry attempts");
+            return;
+        }
+
+        // Back to "queued" so the redelivered message passes the status check in claim()
+        metrics.time(PipelineMetrics.STATUS_UPDATE, () -> redisService.updateStatusWithError(request.request_id(), "queued",
+                "Attempt " + (tier + 1) + " failed: " + reason));
+        metrics.time(PipelineMetrics.PUBLISH, () ->
+                publisher.send(EMAIL_EXCHANGE, retryRoutingKey(tier), request.withAttempts(tier + 1), m -> {
+                    m.getMessageProperties().setHeader("correlation_id", correlationId);
+                    if (request.user_id() != null) {
+                        // keeps the retry on the user's shard when sharded
+                        m.getMessageProperties().setHeader(SHARD_HASH_HEADER, request.user_id());
                     }
-                } catch (Exception ex) {
-                    log.error("Error sending email on attempt {}: {}", attempt, ex.getMessage());
-                }
-            }
+                    return m;
+                }));
+        metrics.processed(request.template_code(), PipelineMetrics.RETRIED);
+        log.info("Scheduled retry {} for request {} in {}ms", tier + 1, request.request_id(), RETRY_DELAYS_MS[tier]);
+    }
 
-            if (sent) {
-                // Update status to delivered in Redis
-                redisService.updateStatus(request.request_id(), "delivered");
-                log.info("Email delivered for request {}", request.request_id());
-
-                // Send to status.queue after success
-                rabbitTemplate.convertAndSend(
-                        "status.queue",
-                        new EmailRequestDto(
-                                request.channel(),
-                                request.request_id(),
-                                request.user_id(),
-                                request.template_code(),
-                                request.subject(),
-                                request.body(),
-                                request.timestamp(),
-                                request.data(),
-                                request.correlation_id(),
-                                request.attempts(),
-                                request.email(),
-                                request.push_token()
-                        )
-                );
-            } else {
-                // Update status to failed in Redis
-                redisService.updateStatusWithError(request.request_id(), "failed", "Failed to deliver email after all retry attempts");
-                log.error("Failed to deliver email for request {}. Sending to dead-letter queue", request.request_id());
-                // push original message to failed.queue
-                rabbitTemplate.convertAndSend(EMAIL_EXCHANGE, FAILED_ROUTING_KEY, request);
-                throw new RuntimeException("Failed to deliver email after all retry attempts");
-            }
-        } catch (Exception e) {
-            // Update status to failed in Redis with error message
-            redisService.updateStatusWithError(request.request_id(), "failed", e.getMessage());
-            log.error("Unhandled exception processing email {}: {}", request.request_id(), e.getMessage(), e);
-            // Throw exception so message is not acknowledged and can be retried or sent to DLQ
-            throw new RuntimeException("Failed to process email: " + e.getMessage(), e);
-        } finally {
-            MDC.remove("correlation_id");
+    public void markDelivered(EmailRequestDto request, String providerMessageId) {
+        String event = StatusEventPublisher.toJson(StatusEvent.delivered(request, providerMessageId));
+        // the event is kept before the status turns terminal, see republishPending
+        redisService.savePendingEvent(request.request_id(), event);
+        // Update status to delivered in Redis
+        metrics.time(PipelineMetrics.STATUS_UPDATE, () -> redisService.updateStatus(request.request_id(), "delivered"));
+        log.info(CorrelationLogFilter.SAMPLED, "Email delivered for request {}", request.request_id());
+        metrics.processed(request.template_code(), PipelineMetrics.DELIVERED);
+
+        // Send to status.queue after success
+        metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(request, event, false));
+    }
+
+    public void markFailed(EmailRequestDto request, String errorCode, String reason) {
+        String event = StatusEventPublisher.toJson(StatusEvent.failed(request, errorCode));
+        redisService.savePendingEvent(request.request_id(), event);
+        // Update status to failed in Redis
+        metrics.time(PipelineMetrics.STATUS_UPDATE,
+                () -> redisService.updateStatusWithError(request.request_id(), "failed", reason));
+        log.error("Failed to deliver email for request {}. Sending to dead-letter queue", request.request_id());
+        metrics.processed(request.template_code(), PipelineMetrics.FAILED);
+        // push original message to failed.queue
+        metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(request, event, true));
+    }
+
+    /**
+     * Publish what a request that already reached a terminal status still owes: the delivery before
+     * this one was requeued because its status event (and, for a failed request, its dead letter)
+     * was not confirmed, and the claim now turns the redelivery away. Nothing is sent to SendGrid
+     * again. Two deliveries of the same request racing here may both publish; status.queue is
+     * at-least-once either way.
+     */
+    public void republishPending(String requestId, Supplier<EmailRequestDto> decode) {
+        redisService.findPendingEvent(requestId).ifPresent(event -> {
+            log.info("Republishing unconfirmed status event for request {}", requestId);
+            boolean failed = "failed".equals(StatusEventPublisher.fromJson(event).status());
+            metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(decode.get(), event, failed));
+        });
+    }
+
+    // the pending event is only dropped once the broker has everything the terminal status publishes
+    private void publishTerminal(EmailRequestDto request, String event, boolean deadLetter) {
+        CompletableFuture<Void> published = statusEvents.publish(event);
+        if (deadLetter) {
+            published = CompletableFuture.allOf(published,
+                    publisher.send(EMAIL_EXCHANGE, FAILED_ROUTING_KEY, request));
         }
+        published.thenRun(() -> redisService.clearPendingEvent(request.request_id()));
     }
 }
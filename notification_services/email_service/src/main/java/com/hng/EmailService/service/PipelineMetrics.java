@@ -0,0 +1,157 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.hng.EmailService.config.RabbitConfig.RETRY_DELAYS_MS;
+
+/**
+ * Timers and counters for the stages of the email pipeline.
+ *
+ *   notification.stage.duration{stage, outcome}      decode, redis_fetch, status_update, render, publish
+ *   notification.provider.send{attempt, outcome}     one SendGrid call; attempt is the retry tier or "batch"
+ *   notification.processed{template_code, outcome}   delivered, retried, failed or skipped per message
+ *
+ * Timers publish histogram buckets for Prometheus. Tag values come from fixed sets, except
+ * template_code, which is limited to the allow-list in metrics.template-codes.allowed or, without
+ * one, to the first metrics.template-codes.max-values codes seen; anything else is "other".
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String DECODE = "decode";
+    public static final String REDIS_FETCH = "redis_fetch";
+    public static final String STATUS_UPDATE = "status_update";
+    public static final String RENDER = "render";
+    public static final String PUBLISH = "publish";
+
+    public static final String DELIVERED = "delivered";
+    public static final String RETRIED = "retried";
+    public static final String FAILED = "failed";
+    public static final String SKIPPED = "skipped";
+
+    public static final String BATCH_ATTEMPT = "batch";
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+    private static final String OTHER = "other";
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final Set<String> allowedTemplateCodes;
+    private final int maxTemplateCodes;
+    private final Set<String> seenTemplateCodes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(MeterRegistry meterRegistry,
+                           @Value("${metrics.template-codes.allowed:}") String allowedTemplateCodes,
+                           @Value("${metrics.template-codes.max-values:50}") int maxTemplateCodes) {
+        this.meterRegistry = meterRegistry;
+        this.allowedTemplateCodes = Arrays.stream(allowedTemplateCodes.split(","))
+                .map(String::trim)
+                .filter(code -> !code.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.maxTemplateCodes = maxTemplateCodes;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        Timer.Sample sample = start();
+        try {
+            T result = work.get();
+            sample.stop(stageTimer(stage, SUCCESS));
+            return result;
+        } catch (RuntimeException e) {
+            sample.stop(stageTimer(stage, ERROR));
+            throw e;
+        }
+    }
+
+    public void time(String stage, Runnable work) {
+        time(stage, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Time one provider call; isSent decides the outcome tag, and a call that throws counts as "error".
+     */
+    public <T> T timeSend(String attempt, Callable<T> send, Predicate<T> isSent) throws Exception {
+        Timer.Sample sample = start();
+        String outcome = ERROR;
+        try {
+            T result = send.call();
+            outcome = isSent.test(result) ? "sent" : "failed";
+            return result;
+        } finally {
+            sample.stop(timer("notification.provider.send", "Provider send latency per attempt",
+                    "attempt", attempt, "outcome", outcome));
+        }
+    }
+
+    public static String attempt(int attempts) {
+        return Integer.toString(Math.max(0, Math.min(attempts, RETRY_DELAYS_MS.length)));
+    }
+
+    public void processed(String templateCode, String outcome) {
+        String code = templateCodeTag(templateCode);
+        counters.computeIfAbsent(code + '|' + outcome, k -> Counter.builder("notification.processed")
+                .description("Messages by final outcome of this delivery")
+                .tag("template_code", code)
+                .tag("outcome", outcome)
+                .register(meterRegistry)).increment();
+    }
+
+    String templateCodeTag(String templateCode) {
+        if (templateCode == null || templateCode.isBlank()) {
+            return NONE;
+        }
+        if (!allowedTemplateCodes.isEmpty()) {
+            return allowedTemplateCodes.contains(templateCode) ? templateCode : OTHER;
+        }
+        if (seenTemplateCodes.contains(templateCode)) {
+            return templateCode;
+        }
+        synchronized (seenTemplateCodes) {
+            if (seenTemplateCodes.size() < maxTemplateCodes) {
+                seenTemplateCodes.add(templateCode);
+                return templateCode;
+            }
+        }
+        return OTHER;
+    }
+
+    private Timer stageTimer(String stage, String outcome) {
+        return timer("notification.stage.duration", "Time spent in one stage of the email pipeline",
+                "stage", stage, "outcome", outcome);
+    }
+
+    private Timer timer(String name, String description, String key1, String value1, String key2, String value2) {
+        return timers.computeIfAbsent(name + '|' + value1 + '|' + value2, k -> Timer.builder(name)
+                .description(description)
+                .tag(key1, value1)
+                .tag(key2, value2)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,170 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cluster-wide send rate for one provider API key: a token bucket in Redis (scripts/token-bucket.lua)
+ * shared by all replicas. Each replica leases up to LEASE_WINDOW_MS worth of tokens at a time and
+ * hands them out locally, so the hot path only goes to Redis about ten times a second. A new lease
+ * is only requested once the previous one is used up, so no leased token is wasted and a replica
+ * never holds more than one lease ahead.
+ *
+ * Only one caller at a time refreshes the lease; the others wait on a condition for it instead of
+ * calling Redis themselves. While the shared bucket is empty, the refresher asks again at most every
+ * refill pause. A caller still without a token after max-wait is rejected.
+ * If Redis is unavailable the limiter lets calls through rather than stopping all sends.
+ */
+class ProviderRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderRateLimiter.class);
+
+    private static final long LEASE_WINDOW_MS = 100;
+
+    private final String provider;
+    private final boolean enabled;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisScript<Long> bucketScript;
+    private final String bucketKey;
+    private final double ratePerSecond;
+    private final int burst;
+    private final int leaseSize;
+    private final long maxWaitMs;
+
+    private final long refillPauseMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition leaseChanged = lock.newCondition();
+    private int leased;
+    private boolean refreshing;
+    // after the bucket came back empty, when the next lease may be requested
+    private long nextLeaseAt;
+
+    private final Counter leases;
+    private final Counter rejections;
+
+    ProviderRateLimiter(String provider, String apiKey, String keyId, StringRedisTemplate redisTemplate,
+                        MeterRegistry meterRegistry, boolean enabled, double ratePerSecond, int burst, long maxWaitMs) {
+        this.provider = provider;
+        this.enabled = enabled;
+        this.redisTemplate = redisTemplate;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.leaseSize = (int) Math.max(1, Math.min(this.burst, Math.ceil(ratePerSecond * LEASE_WINDOW_MS / 1000.0)));
+        this.maxWaitMs = maxWaitMs;
+        // time for one token to refill, but at least once per lease window while starved
+        this.refillPauseMs = Math.max(1, Math.min(LEASE_WINDOW_MS, (long) Math.ceil(1000.0 / ratePerSecond)));
+        // replicas sharing an API key share a bucket; the key itself never goes to Redis
+        this.bucketKey = "ratelimit:" + provider + ":" + (keyId == null || keyId.isBlank() ? fingerprint(apiKey) : keyId);
+
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/token-bucket.lua")));
+        script.setResultType(Long.class);
+        this.bucketScript = script;
+
+        this.leases = Counter.builder("provider.ratelimit.leases")
+                .tag("provider", provider)
+                .description("Token leases requested from the shared Redis bucket")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("provider.ratelimit.rejections")
+                .tag("provider", provider)
+                .description("Provider calls rejected after waiting max-wait for a token")
+                .register(meterRegistry);
+
+        if (enabled) {
+            log.info("Cluster-wide rate limit for {} enabled: {}/s, burst {}, bucket {}", provider, ratePerSecond, burst, bucketKey);
+        }
+    }
+
+    /**
+     * Take one token, waiting up to max-wait for the shared bucket to refill.
+     * Returns false when no token became available in time.
+     */
+    boolean acquire() {
+        if (!enabled) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        lock.lock();
+        try {
+            while (true) {
+                if (leased > 0) {
+                    leased--;
+                    return true;
+                }
+                long now = System.currentTimeMillis();
+                if (!refreshing && now >= nextLeaseAt) {
+                    refresh();
+                    continue;
+                }
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    rejections.increment();
+                    log.warn("{} rate limit reached, rejecting call", provider);
+                    return false;
+                }
+                // woken when the refresher is done; otherwise wait out the refill pause
+                leaseChanged.await(refreshing ? remaining : Math.min(remaining, nextLeaseAt - now), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lease more tokens with the lock held on entry and exit, but not during the Redis call
+    private void refresh() {
+        refreshing = true;
+        int granted = 0;
+        lock.unlock();
+        try {
+            granted = lease();
+        } finally {
+            lock.lock();
+            refreshing = false;
+            leased += granted;
+            nextLeaseAt = granted > 0 ? 0 : System.currentTimeMillis() + refillPauseMs;
+            leaseChanged.signalAll();
+        }
+    }
+
+    private int lease() {
+        leases.increment();
+        try {
+            Long granted = redisTemplate.execute(bucketScript, List.of(bucketKey),
+                    String.valueOf(ratePerSecond), String.valueOf(burst), String.valueOf(leaseSize));
+            return granted == null ? 0 : granted.intValue();
+        } catch (Exception e) {
+            // fail open: a Redis outage must not stop deliveries
+            log.warn("Could not lease {} tokens from {}: {}", provider, bucketKey, e.getMessage());
+            return leaseSize;
+        }
+    }
+
+    private static String fingerprint(String apiKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(String.valueOf(apiKey).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
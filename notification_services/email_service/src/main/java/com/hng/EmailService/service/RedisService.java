@@ -1,81 +1,210 @@
 package com.hng.EmailService.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import com.hng.EmailService.dto.StatusRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class RedisService {
 
     private static final Logger log = LoggerFactory.getLogger(RedisService.class);
+
+    // Only terminal states go through the write-behind stage. "queued" is read by the next claim,
+    // possibly on another replica as soon as the retry is published, so it is written synchronously.
+    private static final Set<String> WRITE_BEHIND_STATUSES = Set.of("delivered", "failed");
+
+    // Status events written ahead of their publish, see savePendingEvent
+    private static final String PENDING_EVENT_PREFIX = "pending-event:";
+    private static final long PENDING_EVENT_TTL_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final boolean hashFormat;
+    private final RedisScript<List> transitionScript;
+    private final AtomicBoolean transitionScriptLoaded = new AtomicBoolean(false);
+    private final StatusWriteBehind writeBehind;
 
-    public RedisService(RedisTemplate<String, Object> redisTemplate) {
+    public RedisService(RedisTemplate<String, Object> redisTemplate,
+                        StringRedisTemplate stringRedisTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${redis.status-format:json}") String statusFormat,
+                        @Value("${redis.write-behind.enabled:false}") boolean writeBehindEnabled,
+                        @Value("${redis.write-behind.flush-interval-ms:5}") long flushIntervalMs,
+                        @Value("${redis.write-behind.batch-size:256}") int batchSize,
+                        @Value("${redis.write-behind.capacity:10000}") int capacity) {
         this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.hashFormat = "hash".equalsIgnoreCase(statusFormat);
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/status-transition.lua")));
+        script.setResultType(List.class);
+        this.transitionScript = script;
+        this.writeBehind = writeBehindEnabled
+                ? new StatusWriteBehind(this::pipelineTransitions, meterRegistry, flushIntervalMs, batchSize, capacity)
+                : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
     }
 
     // Save value with optional expiry
     public void save(String key, Object value, long ttlSeconds) {
         redisTemplate.opsForValue().set(key, value, ttlSeconds, TimeUnit.SECONDS);
-        log.info("Saved {} to Redis with TTL {}s", key, ttlSeconds);
+        log.debug("Saved {} to Redis with TTL {}s", key, ttlSeconds);
     }
 
     // Fetch value by key
     public Object fetch(String key) {
         Object value = redisTemplate.opsForValue().get(key);
-        log.info("Fetched {} from Redis -> {}", key, value);
+        log.debug("Fetched {} from Redis ({})", key, value == null ? "missing" : "found");
         return value;
     }
 
     // Delete value
     public void delete(String key) {
         redisTemplate.delete(key);
-        log.info("Deleted {} from Redis", key);
+        log.debug("Deleted {} from Redis", key);
     }
 
-    // Update status in the notification lifecycle
-    public void updateStatus(String requestId, String newStatus) {
+    /**
+     * Read status:<requestId> in either layout. The configured format is tried first and the
+     * other one on WRONGTYPE, so both can coexist while records are migrated.
+     */
+    public Optional<StatusRecord> readStatus(String requestId) {
         String redisKey = "status:" + requestId;
-        Object redisValue = fetch(redisKey);
-        
-        if (redisValue == null) {
-            log.warn("Cannot update status for {}: Record not found in Redis", requestId);
-            return;
+        try {
+            return hashFormat ? readHash(redisKey) : readLegacy(redisKey);
+        } catch (DataAccessException | SerializationException wrongType) {
+            return hashFormat ? readLegacy(redisKey) : readHash(redisKey);
+        }
+    }
+
+    private Optional<StatusRecord> readHash(String redisKey) {
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(redisKey);
+        return fields.isEmpty() ? Optional.empty() : Optional.of(StatusRecord.fromHash(fields));
+    }
+
+    private Optional<StatusRecord> readLegacy(String redisKey) {
+        return Optional.ofNullable(StatusRecord.fromLegacy(redisTemplate.opsForValue().get(redisKey)));
+    }
+
+    public enum TransitionOutcome { APPLIED, CONFLICT, NOT_FOUND, INVALID }
+
+    // Result of a scripted transition; status is the new status if applied, otherwise the current one
+    public record StatusTransition(TransitionOutcome outcome, String status) {}
+
+    /**
+     * Atomically move status:<requestId> to newStatus in one round trip, preserving the key's TTL.
+     * With a non-null expectedStatus the change is only applied if the current status matches it.
+     * A non-null errorMessage is stored; otherwise error_message is cleared unless the new status is "failed".
+     */
+    public StatusTransition transition(String requestId, String expectedStatus, String newStatus, String errorMessage) {
+        // buffered updates for this request must land before we compare against its current status
+        if (writeBehind != null && writeBehind.hasPending(requestId)) {
+            writeBehind.flush();
         }
+        String redisKey = "status:" + requestId;
+        List<Object> result = redisTemplate.execute(
+                transitionScript,
+                StringRedisSerializer.UTF_8,
+                (RedisSerializer) StringRedisSerializer.UTF_8,
+                List.of(redisKey),
+                expectedStatus == null ? "" : expectedStatus,
+                newStatus,
+                Instant.now().toString(),
+                errorMessage == null ? "0" : "1",
+                errorMessage == null ? "" : errorMessage,
+                hashFormat ? "hash" : "json");
+
+        long code = Long.parseLong(String.valueOf(result.get(0)));
+        String status = String.valueOf(result.get(1));
+        TransitionOutcome outcome = switch ((int) code) {
+            case 1 -> TransitionOutcome.APPLIED;
+            case 0 -> TransitionOutcome.CONFLICT;
+            case -1 -> TransitionOutcome.NOT_FOUND;
+            default -> TransitionOutcome.INVALID;
+        };
+        log.debug("Status transition for {} ({} -> {}): {}", requestId, expectedStatus, newStatus, outcome);
+        return new StatusTransition(outcome, status);
+    }
 
+    // Write a batch of unconditional transitions as one pipeline (used by the write-behind stage)
+    private void pipelineTransitions(List<StatusWriteBehind.StatusUpdate> updates) {
+        byte[] sha = transitionScript.getSha1().getBytes(StandardCharsets.UTF_8);
+        if (transitionScriptLoaded.compareAndSet(false, true)) {
+            byte[] body = transitionScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(body));
+        }
+        String updatedAt = Instant.now().toString();
         try {
-            // Parse the Redis structure
-            Map<String, Object> redisMap = (Map<String, Object>) redisValue;
-            Map<String, Object> value = (Map<String, Object>) redisMap.get("value");
-            Long expires = (Long) redisMap.get("expires");
-            
-            if (value != null) {
-                // Update the status and timestamp
-                value.put("status", newStatus);
-                value.put("updated_at", Instant.now().toString());
-                
-                // If there's an error, clear it when status changes
-                if (!"failed".equals(newStatus)) {
-                    value.put("error_message", null);
-                }
-                
-                // Calculate remaining TTL
-                long currentTime = System.currentTimeMillis();
-                long ttlSeconds = expires != null ? (expires - currentTime) / 1000 : 3600;
-                
-                if (ttlSeconds > 0) {
-                    // Save back to Redis
-                    redisMap.put("value", value);
-                    save(redisKey, redisMap, ttlSeconds);
-                    log.info("Updated status for {} to: {}", requestId, newStatus);
-                } else {
-                    log.warn("Status update skipped for {}: Record expired", requestId);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (StatusWriteBehind.StatusUpdate update : updates) {
+                    connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, 1,
+                            bytes("status:" + update.requestId()),
+                            bytes(""),
+                            bytes(update.newStatus()),
+                            bytes(updatedAt),
+                            bytes(update.errorMessage() == null ? "0" : "1"),
+                            bytes(update.errorMessage() == null ? "" : update.errorMessage()),
+                            bytes(hashFormat ? "hash" : "json"));
                 }
+                return null;
+            }, StringRedisSerializer.UTF_8);
+        } catch (RuntimeException e) {
+            // e.g. NOSCRIPT after a Redis restart: load the script again on the next flush
+            transitionScriptLoaded.set(false);
+            throw e;
+        }
+        log.debug("Flushed {} status updates in one pipeline", updates.size());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Buffer a terminal status update; false means the caller writes it synchronously
+    private boolean writeBehind(StatusWriteBehind.StatusUpdate update) {
+        return writeBehind != null && WRITE_BEHIND_STATUSES.contains(update.newStatus()) && writeBehind.submit(update);
+    }
+
+    // Update status in the notification lifecycle
+    public void updateStatus(String requestId, String newStatus) {
+        if (writeBehind(new StatusWriteBehind.StatusUpdate(requestId, newStatus, null))) {
+            return;
+        }
+        try {
+            StatusTransition result = transition(requestId, null, newStatus, null);
+            if (result.outcome() == TransitionOutcome.NOT_FOUND) {
+                log.warn("Cannot update status for {}: Record not found in Redis", requestId);
             }
         } catch (Exception e) {
             log.error("Failed to update status for {}: {}", requestId, e.getMessage(), e);
@@ -84,35 +213,40 @@ public class RedisService {
 
     // Update status with error message
     public void updateStatusWithError(String requestId, String newStatus, String errorMessage) {
-        String redisKey = "status:" + requestId;
-        Object redisValue = fetch(redisKey);
-        
-        if (redisValue == null) {
-            log.warn("Cannot update status for {}: Record not found in Redis", requestId);
+        String message = errorMessage == null ? "" : errorMessage;
+        if (writeBehind(new StatusWriteBehind.StatusUpdate(requestId, newStatus, message))) {
             return;
         }
-
         try {
-            Map<String, Object> redisMap = (Map<String, Object>) redisValue;
-            Map<String, Object> value = (Map<String, Object>) redisMap.get("value");
-            Long expires = (Long) redisMap.get("expires");
-            
-            if (value != null) {
-                value.put("status", newStatus);
-                value.put("updated_at", Instant.now().toString());
-                value.put("error_message", errorMessage);
-                
-                long currentTime = System.currentTimeMillis();
-                long ttlSeconds = expires != null ? (expires - currentTime) / 1000 : 3600;
-                
-                if (ttlSeconds > 0) {
-                    redisMap.put("value", value);
-                    save(redisKey, redisMap, ttlSeconds);
-                    log.info("Updated status for {} to: {} with error: {}", requestId, newStatus, errorMessage);
-                }
+            StatusTransition result = transition(requestId, null, newStatus, message);
+            if (result.outcome() == TransitionOutcome.NOT_FOUND) {
+                log.warn("Cannot update status for {}: Record not found in Redis", requestId);
             }
         } catch (Exception e) {
             log.error("Failed to update status with error for {}: {}", requestId, e.getMessage(), e);
         }
     }
+
+    /**
+     * Keep the status event of a request that is about to reach a terminal status until its publish
+     * is confirmed. Once the status is terminal a redelivery no longer passes the claim, so this is
+     * what lets it publish the event again when the first delivery was requeued before the confirm.
+     */
+    public void savePendingEvent(String requestId, String statusEvent) {
+        stringRedisTemplate.opsForValue().set(PENDING_EVENT_PREFIX + requestId, statusEvent,
+                PENDING_EVENT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public Optional<String> findPendingEvent(String requestId) {
+        return Optional.ofNullable(stringRedisTemplate.opsForValue().get(PENDING_EVENT_PREFIX + requestId));
+    }
+
+    public void clearPendingEvent(String requestId) {
+        try {
+            stringRedisTemplate.delete(PENDING_EVENT_PREFIX + requestId);
+        } catch (Exception e) {
+            // left to expire; a later redelivery would only publish the event once more
+            log.warn("Failed to clear pending status event for {}: {}", requestId, e.getMessage());
+        }
+    }
 }
@@ -1,32 +1,110 @@
 package com.hng.EmailService.service;
 
+import com.hng.EmailService.util.LogRedaction;
 import com.sendgrid.*;
 import com.sendgrid.helpers.mail.Mail;
 import com.sendgrid.helpers.mail.objects.Content;
 import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.Personalization;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
 @Component
 public class SendGridClient {
 
     private static final Logger log = LoggerFactory.getLogger(SendGridClient.class);
+
+    // SendGrid accepts at most 1000 personalizations per mail/send request
+    public static final int MAX_PERSONALIZATIONS = 1000;
+
+    /**
+     * Result of a mail/send call. messageId is SendGrid's X-Message-Id, shared by every
+     * recipient of a batched call; it may be null even when sent is true. status is the HTTP
+     * status, or 0 when no response was received (error, open circuit, rejected by a limit).
+     */
+    public record SendResult(boolean sent, String messageId, int status) {
+        public static final SendResult FAILED = new SendResult(false, null, 0);
+
+        /**
+         * SendGrid refused the request itself (a 4xx other than 429), e.g. over a malformed
+         * recipient; sending it again unchanged fails the same way.
+         */
+        public boolean rejected() {
+            return status >= 400 && status < 500 && status != 429;
+        }
+
+        // SendGrid is overloaded or unreachable (no response, 429 or 5xx), as opposed to refusing this one request
+        public boolean congested() {
+            return !sent && (status == 0 || status == 429 || status >= 500);
+        }
+    }
+
     private final SendGrid sendGrid;
     private final String fromEmail;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ProviderRateLimiter rateLimiter;
 
     public SendGridClient(@Value("${sendgrid.api-key}") String apiKey,
-                          @Value("${sendgrid.from-email}") String fromEmail) {
-        this.sendGrid = new SendGrid(apiKey);
+                          @Value("${sendgrid.from-email}") String fromEmail,
+                          @Value("${sendgrid.host:}") String host,
+                          @Value("${sendgrid.limiter.enabled:false}") boolean limiterEnabled,
+                          @Value("${sendgrid.limiter.initial-limit:20}") int initialLimit,
+                          @Value("${sendgrid.limiter.min-limit:1}") int minLimit,
+                          @Value("${sendgrid.limiter.max-limit:200}") int maxLimit,
+                          @Value("${sendgrid.limiter.max-wait-ms:2000}") long maxWaitMs,
+                          @Value("${sendgrid.rate-limit.enabled:false}") boolean rateLimitEnabled,
+                          @Value("${sendgrid.rate-limit.key-id:}") String rateLimitKeyId,
+                          @Value("${sendgrid.rate-limit.per-second:10}") double ratePerSecond,
+                          @Value("${sendgrid.rate-limit.burst:20}") int burst,
+                          @Value("${sendgrid.rate-limit.max-wait-ms:1000}") long rateLimitMaxWaitMs,
+                          StringRedisTemplate redisTemplate,
+                          MeterRegistry meterRegistry) {
+        if (host == null || host.isBlank()) {
+            this.sendGrid = new SendGrid(apiKey);
+        } else {
+            // local stand-in such as the load-test stub, reached over plain HTTP
+            this.sendGrid = new SendGrid(apiKey, true);
+            this.sendGrid.setHost(host);
+            log.warn("SendGrid client pointed at {} over plain HTTP", host);
+        }
         this.fromEmail = fromEmail;
+        this.limiter = new AdaptiveConcurrencyLimiter("sendgrid", meterRegistry, limiterEnabled,
+                initialLimit, minLimit, maxLimit, maxWaitMs);
+        this.rateLimiter = new ProviderRateLimiter("sendgrid", apiKey, rateLimitKeyId, redisTemplate, meterRegistry,
+                rateLimitEnabled, ratePerSecond, burst, rateLimitMaxWaitMs);
         log.info("SendGrid client initialized with from email: {}", fromEmail);
     }
 
+    AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * Run a SendGrid call under the cluster-wide rate limit, then inside the concurrency limit. The
+     * rate permit is taken first, so waiting for a token neither holds a concurrency slot nor counts
+     * toward the round trip the limiter measures. A batched call takes one token, as SendGrid's rate
+     * limits count requests. Returns whenRejected when either limit turns the call away.
+     */
+    <T> T callWithinLimits(Callable<T> send, Predicate<T> congested, T whenRejected) throws Exception {
+        if (!rateLimiter.acquire()) {
+            return whenRejected;
+        }
+        return limiter.call(send, congested, whenRejected);
+    }
+
     @CircuitBreaker(name = "sendGridCircuit", fallbackMethod = "sendFallback")
-    public boolean sendEmail(String toEmail, String subject, String bodyHtml) throws Exception {
-        log.info("Attempting to send email to: {} with subject: {}", toEmail, subject);
+    public SendResult sendEmail(String toEmail, String subject, String bodyHtml) throws Exception {
+        log.debug("Attempting to send email to: {} with subject: {}", LogRedaction.email(toEmail), subject);
         
         Email from = new Email(fromEmail);
         Email to = new Email(toEmail);
@@ -41,22 +119,80 @@ public class SendGridClient {
         Response response = sendGrid.api(request);
         int status = response.getStatusCode();
         
-        log.info("SendGrid response - Status: {}, Body: {}", status, response.getBody());
+        log.debug("SendGrid response - Status: {}, Body: {}", status, LogRedaction.truncate(response.getBody()));
         
         if (status >= 200 && status < 300) {
-            log.info("Email sent successfully to: {}", toEmail);
-            return true;
+            log.debug("Email sent successfully to: {}", LogRedaction.email(toEmail));
+            return new SendResult(true, messageId(response), status);
         } else {
             log.error("SendGrid API returned error status: {} for email to: {}. Response body: {}", 
-                     status, toEmail, response.getBody());
-            return false;
+                     status, LogRedaction.email(toEmail), LogRedaction.truncate(response.getBody()));
+            return new SendResult(false, null, status);
         }
     }
 
-    public boolean sendFallback(String toEmail, String subject, String bodyHtml, Throwable t) {
+    public SendResult sendFallback(String toEmail, String subject, String bodyHtml, Throwable t) {
         log.error("Circuit breaker activated or error occurred for email to: {}. Error: {}", 
-                 toEmail, t.getMessage(), t);
-        // Circuit breaker open or fatal; return false to trigger retry/dead-letter logic upstream
-        return false;
+                 LogRedaction.email(toEmail), t.getMessage(), t);
+        // Circuit breaker open or fatal; return a failed result to trigger retry/dead-letter logic upstream
+        return SendResult.FAILED;
+    }
+
+    /**
+     * Send one mail/send request with a personalization per recipient.
+     * All recipients share the subject and body, and the call succeeds or fails as a whole: one
+     * malformed address gets the whole request rejected.
+     */
+    @CircuitBreaker(name = "sendGridCircuit", fallbackMethod = "sendBatchFallback")
+    public SendResult sendBatch(List<String> toEmails, String subject, String bodyHtml) throws Exception {
+        if (toEmails.size() > MAX_PERSONALIZATIONS) {
+            throw new IllegalArgumentException("SendGrid batch exceeds " + MAX_PERSONALIZATIONS + " recipients: " + toEmails.size());
+        }
+        log.info("Attempting to send batched email to {} recipients with subject: {}", toEmails.size(), subject);
+
+        Mail mail = new Mail();
+        mail.setFrom(new Email(fromEmail));
+        mail.setSubject(subject);
+        mail.addContent(new Content("text/html", bodyHtml));
+        for (String toEmail : toEmails) {
+            Personalization personalization = new Personalization();
+            personalization.addTo(new Email(toEmail));
+            mail.addPersonalization(personalization);
+        }
+
+        Request request = new Request();
+        request.setMethod(Method.POST);
+        request.setEndpoint("mail/send");
+        request.setBody(mail.build());
+
+        Response response = sendGrid.api(request);
+        int status = response.getStatusCode();
+
+        if (status >= 200 && status < 300) {
+            log.info("Batched email sent successfully to {} recipients", toEmails.size());
+            return new SendResult(true, messageId(response), status);
+        } else {
+            log.error("SendGrid API returned error status: {} for batch of {} recipients. Response body: {}",
+                     status, toEmails.size(), LogRedaction.truncate(response.getBody()));
+            return new SendResult(false, null, status);
+        }
+    }
+
+    public SendResult sendBatchFallback(List<String> toEmails, String subject, String bodyHtml, Throwable t) {
+        log.error("Circuit breaker activated or error occurred for batch of {} recipients. Error: {}",
+                 toEmails.size(), t.getMessage(), t);
+        return SendResult.FAILED;
+    }
+
+    private static String messageId(Response response) {
+        if (response.getHeaders() == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if ("X-Message-Id".equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
     }
 }
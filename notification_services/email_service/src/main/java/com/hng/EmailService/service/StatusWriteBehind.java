@@ -0,0 +1,200 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind stage for status updates. Updates from all consumer threads are coalesced per
+ * request id (the latest one wins) and flushed by a single thread as one Redis pipeline every
+ * flush interval, or as soon as a batch is full. Flushes never overlap, so updates for the same
+ * key reach Redis in submission order. RedisService only buffers terminal states here.
+ *
+ * The buffer is bounded: when it is full, {@link #submit} returns false and the caller writes
+ * synchronously instead, so a slow or unavailable Redis pushes back on consumers rather than
+ * growing memory. A failed flush is re-queued within the same bound; updates that no longer fit
+ * are dropped and counted in redis.status.writebehind.dropped, as Redis has just refused them.
+ */
+class StatusWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusWriteBehind.class);
+
+    record StatusUpdate(String requestId, String newStatus, String errorMessage) {}
+
+    private final Consumer<List<StatusUpdate>> pipelineWriter;
+    private final int batchSize;
+    private final int capacity;
+    private final Map<String, StatusUpdate> pending = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+
+    private final Timer flushLatency;
+    private final DistributionSummary flushSize;
+    private final Counter coalesced;
+    private final Counter fallbacks;
+    private final Counter flushFailures;
+    private final Counter dropped;
+
+    StatusWriteBehind(Consumer<List<StatusUpdate>> pipelineWriter, MeterRegistry meterRegistry,
+                      long flushIntervalMs, int batchSize, int capacity) {
+        this.pipelineWriter = pipelineWriter;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+
+        this.flushLatency = Timer.builder("redis.status.flush.latency")
+                .description("Time to write one pipelined batch of status updates")
+                .register(meterRegistry);
+        this.flushSize = DistributionSummary.builder("redis.status.flush.size")
+                .description("Status updates per pipelined flush")
+                .register(meterRegistry);
+        Gauge.builder("redis.status.writebehind.depth", this, StatusWriteBehind::depth)
+                .description("Status updates waiting to be flushed")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("redis.status.writebehind.coalesced")
+                .description("Status updates superseded by a later update for the same request")
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("redis.status.writebehind.fallback")
+                .description("Status updates written synchronously because the buffer was full")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("redis.status.writebehind.flush.failures")
+                .description("Pipelined flushes that failed and were re-queued")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("redis.status.writebehind.dropped")
+                .description("Status updates from a failed flush that no longer fit the buffer")
+                .register(meterRegistry);
+
+        log.info("Status write-behind enabled (flush every {}ms or {} ops, capacity {})", flushIntervalMs, batchSize, capacity);
+    }
+
+    /**
+     * Queue an update. Returns false when the buffer is full; the caller must then write it itself.
+     */
+    boolean submit(StatusUpdate update) {
+        int depth;
+        synchronized (pending) {
+            if (pending.containsKey(update.requestId())) {
+                pending.put(update.requestId(), update);
+                coalesced.increment();
+                return true;
+            }
+            if (pending.size() >= capacity) {
+                fallbacks.increment();
+                return false;
+            }
+            pending.put(update.requestId(), update);
+            depth = pending.size();
+        }
+        // one early flush at a time; it takes everything buffered by the time it runs
+        if (depth >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+        return true;
+    }
+
+    boolean hasPending(String requestId) {
+        synchronized (pending) {
+            return pending.containsKey(requestId);
+        }
+    }
+
+    int depth() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Write everything buffered so far. Runs on the flusher thread, or on a caller that needs
+     * its earlier updates to be visible before a synchronous read.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            List<StatusUpdate> drained;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                drained = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+
+            for (int from = 0; from < drained.size(); from += batchSize) {
+                List<StatusUpdate> batch = drained.subList(from, Math.min(from + batchSize, drained.size()));
+                long start = System.nanoTime();
+                try {
+                    pipelineWriter.accept(batch);
+                    flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    flushSize.record(batch.size());
+                } catch (RuntimeException e) {
+                    flushFailures.increment();
+                    requeue(drained.subList(from, drained.size()));
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Put failed updates back unless a newer update for the same request arrived meanwhile,
+    // up to capacity; the rest are dropped
+    private void requeue(List<StatusUpdate> updates) {
+        int lost = 0;
+        synchronized (pending) {
+            for (StatusUpdate update : updates) {
+                if (pending.containsKey(update.requestId())) {
+                    continue;
+                }
+                if (pending.size() >= capacity) {
+                    lost++;
+                    continue;
+                }
+                pending.put(update.requestId(), update);
+            }
+        }
+        if (lost > 0) {
+            dropped.increment(lost);
+            log.error("Dropped {} status updates from a failed flush: write-behind buffer is full", lost);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to flush {} buffered status updates: {}", depth(), e.getMessage());
+        }
+    }
+
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+}
@@ -0,0 +1,128 @@
+package com.hng.EmailService.service;
+
+import com.hng.EmailService.dto.TemplateDefinition;
+import com.hng.EmailService.util.CompiledTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded in-process cache of template definitions keyed by template_code, so emails can be
+ * rendered locally instead of calling the template service for every message.
+ * Entries are dropped on a template change event, and re-validated against the template
+ * service once they are older than the version-check interval. Codes the template service
+ * doesn't know or hasn't published are remembered as misses for miss-ttl-ms, so requests for
+ * them don't each fetch the definition again; the same change events drop them.
+ */
+@Service
+public class TemplateCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateCache.class);
+
+    public record CachedTemplate(TemplateDefinition definition, CompiledTemplate body, long checkedAt) {}
+
+    private final TemplateServiceClient templateServiceClient;
+    private final long versionCheckIntervalMs;
+    private final long missTtlMs;
+    private final Map<String, CachedTemplate> cache;
+    // template_code -> when the template service last had no published version of it
+    private final Map<String, Long> misses;
+
+    public TemplateCache(TemplateServiceClient templateServiceClient,
+                         @Value("${template-service.cache.max-size:500}") int maxSize,
+                         @Value("${template-service.cache.version-check-interval-ms:10000}") long versionCheckIntervalMs,
+                         @Value("${template-service.cache.miss-ttl-ms:5000}") long missTtlMs) {
+        this.templateServiceClient = templateServiceClient;
+        this.versionCheckIntervalMs = versionCheckIntervalMs;
+        this.missTtlMs = missTtlMs;
+        this.cache = new LinkedHashMap<>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedTemplate> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.misses = new LinkedHashMap<>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached template for a code, fetching or re-validating it when needed.
+     * Returns null when the template service cannot provide it, without asking again for
+     * miss-ttl-ms when it has no published version.
+     */
+    public CachedTemplate get(String templateCode) {
+        if (templateCode == null) {
+            return null;
+        }
+
+        CachedTemplate cached;
+        Long missedAt;
+        synchronized (cache) {
+            cached = cache.get(templateCode);
+            missedAt = misses.get(templateCode);
+        }
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.checkedAt() < versionCheckIntervalMs) {
+            return cached;
+        }
+        if (missedAt != null && now - missedAt < missTtlMs) {
+            return null;
+        }
+
+        TemplateDefinition latest;
+        try {
+            latest = templateServiceClient.fetchTemplate(templateCode);
+        } catch (Exception e) {
+            // keep serving the last known version while the template service is unavailable
+            log.warn("Could not refresh template {}: {}", templateCode, e.getMessage());
+            return cached;
+        }
+        if (latest == null) {
+            synchronized (cache) {
+                cache.remove(templateCode);
+                misses.put(templateCode, now);
+            }
+            log.debug("Template {} has no published version, not asking again for {}ms", templateCode, missTtlMs);
+            return null;
+        }
+
+        CachedTemplate refreshed;
+        if (cached != null && Objects.equals(cached.definition().version_number(), latest.version_number())
+                && Objects.equals(cached.definition().body(), latest.body())) {
+            refreshed = new CachedTemplate(cached.definition(), cached.body(), now);
+        } else {
+            refreshed = new CachedTemplate(latest, CompiledTemplate.compile(latest.body()), now);
+            log.info("Cached template {} version {}", templateCode, latest.version_number());
+        }
+        synchronized (cache) {
+            cache.put(templateCode, refreshed);
+            misses.remove(templateCode);
+        }
+        return refreshed;
+    }
+
+    public void evict(String templateCode) {
+        synchronized (cache) {
+            cache.remove(templateCode);
+            misses.remove(templateCode);
+        }
+        log.info("Evicted template {} from local cache", templateCode);
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            misses.clear();
+        }
+        log.info("Cleared local template cache");
+    }
+}
@@ -1,34 +1,89 @@
 package com.hng.EmailService.service;
 
+import com.hng.EmailService.dto.TemplateDefinition;
+import com.hng.EmailService.util.LogRedaction;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @Component
 public class TemplateServiceClient {
 
     private static final Logger log = LoggerFactory.getLogger(TemplateServiceClient.class);
-    
-    private final RestTemplate restTemplate;
-    private final String baseUrl;
+
+    private final WebClient webClient;
     private final String renderEndpoint;
+    private final String templatesEndpoint;
+    private final boolean hedgeEnabled;
+    private final long hedgeMinDelayMs;
+    private final LatencyWindow latencies = new LatencyWindow(256);
+
+    private final Timer latencyTimer;
+    private final Counter requestCounter;
+    private final Counter hedgeCounter;
 
     public TemplateServiceClient(
             @Value("${template-service.base-url}") String baseUrl,
-            @Value("${template-service.render-endpoint}") String renderEndpoint) {
-        this.restTemplate = new RestTemplate();
-        this.baseUrl = baseUrl;
+            @Value("${template-service.render-endpoint}") String renderEndpoint,
+            @Value("${template-service.templates-endpoint:/api/v1/templates}") String templatesEndpoint,
+            @Value("${template-service.http.max-connections:50}") int maxConnections,
+            @Value("${template-service.http.connect-timeout-ms:1000}") int connectTimeoutMs,
+            @Value("${template-service.http.read-timeout-ms:3000}") long readTimeoutMs,
+            @Value("${template-service.http.max-idle-time-ms:30000}") long maxIdleTimeMs,
+            @Value("${template-service.http.hedge.enabled:false}") boolean hedgeEnabled,
+            @Value("${template-service.http.hedge.min-delay-ms:50}") long hedgeMinDelayMs,
+            MeterRegistry meterRegistry) {
+        // Pooled keep-alive connections; pool gauges are published as reactor.netty.connection.provider.*
+        ConnectionProvider provider = ConnectionProvider.builder("template-service")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(readTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .evictInBackground(Duration.ofMillis(maxIdleTimeMs))
+                .metrics(true)
+                .build();
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs));
+
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .baseUrl(baseUrl)
+                .build();
         this.renderEndpoint = renderEndpoint;
-        log.info("Template service client initialized with base URL: {}", baseUrl);
+        this.templatesEndpoint = templatesEndpoint;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+
+        this.latencyTimer = Timer.builder("template.client.latency")
+                .description("Template service call latency")
+                .register(meterRegistry);
+        this.requestCounter = Counter.builder("template.client.requests")
+                .description("Render requests sent to the template service")
+                .register(meterRegistry);
+        this.hedgeCounter = Counter.builder("template.client.hedges")
+                .description("Hedged render requests fired after the p95 latency was exceeded")
+                .register(meterRegistry);
+
+        log.info("Template service client initialized with base URL: {} (pool {}, connect {}ms, read {}ms, hedging {})",
+                baseUrl, maxConnections, connectTimeoutMs, readTimeoutMs, hedgeEnabled);
     }
 
     /**
@@ -36,89 +91,162 @@ public class TemplateServiceClient {
      */
     public String renderTemplate(String templateCode, Map<String, Object> variables) {
         try {
-            String url = baseUrl + renderEndpoint;
-            
-            // Build request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("template_code", templateCode);
-            requestBody.put("variables", variables);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            
-            log.info("Calling template service to render template: {}", templateCode);
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, request, Map.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> body = response.getBody();
-                Boolean success = (Boolean) body.get("success");
-                
-                if (Boolean.TRUE.equals(success)) {
-                    Map<String, Object> data = (Map<String, Object>) body.get("data");
-                    if (data != null) {
-                        String rendered = (String) data.get("rendered");
-                        log.info("Successfully rendered template: {}", templateCode);
-                        return rendered;
-                    }
-                }
-                
-                log.error("Template service returned unsuccessful response: {}", body);
-                throw new RuntimeException("Template rendering failed: " + body.get("error"));
-            }
-            
-            log.error("Template service returned non-2xx status: {}", response.getStatusCode());
-            throw new RuntimeException("Template service returned status: " + response.getStatusCode());
-            
+            return renderTemplateAsync(templateCode, variables).block();
         } catch (Exception e) {
             log.error("Failed to render template {}: {}", templateCode, e.getMessage(), e);
             throw new RuntimeException("Failed to render template via template service: " + e.getMessage(), e);
         }
     }
-    
+
+    public Mono<String> renderTemplateAsync(String templateCode, Map<String, Object> variables) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("template_code", templateCode);
+        requestBody.put("variables", variables);
+
+        log.debug("Calling template service to render template: {}", templateCode);
+        return hedged(() -> render(requestBody, "Template rendering failed: "))
+                .doOnNext(rendered -> log.debug("Successfully rendered template: {}", templateCode));
+    }
+
     /**
      * Render an inline template string with variables
      */
     public String renderInlineTemplate(String templateString, Map<String, Object> variables) {
         try {
-            String url = baseUrl + renderEndpoint;
-            
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("template_str", templateString);
-            requestBody.put("variables", variables);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-            
-            log.info("Calling template service to render inline template");
-            ResponseEntity<Map> response = restTemplate.postForEntity(url, request, Map.class);
-            
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> body = response.getBody();
-                Boolean success = (Boolean) body.get("success");
-                
-                if (Boolean.TRUE.equals(success)) {
-                    Map<String, Object> data = (Map<String, Object>) body.get("data");
-                    if (data != null) {
-                        String rendered = (String) data.get("rendered");
-                        log.info("Successfully rendered inline template");
-                        return rendered;
-                    }
-                }
-                
-                log.error("Template service returned unsuccessful response: {}", body);
-                throw new RuntimeException("Inline template rendering failed: " + body.get("error"));
-            }
-            
-            log.error("Template service returned non-2xx status: {}", response.getStatusCode());
-            throw new RuntimeException("Template service returned status: " + response.getStatusCode());
-            
+            return renderInlineTemplateAsync(templateString, variables).block();
         } catch (Exception e) {
             log.error("Failed to render inline template: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to render inline template via template service: " + e.getMessage(), e);
         }
     }
+
+    public Mono<String> renderInlineTemplateAsync(String templateString, Map<String, Object> variables) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("template_str", templateString);
+        requestBody.put("variables", variables);
+
+        log.debug("Calling template service to render inline template");
+        return hedged(() -> render(requestBody, "Inline template rendering failed: "))
+                .doOnNext(rendered -> log.debug("Successfully rendered inline template"));
+    }
+
+    /**
+     * Fetch the latest version of a template definition by code. Returns null when the template
+     * service answers that the code is unknown (404) or has no published version.
+     */
+    public TemplateDefinition fetchTemplate(String templateCode) {
+        try {
+            log.debug("Fetching template definition: {}", templateCode);
+            Map<String, Object> body = webClient.get()
+                    .uri(templatesEndpoint + "/{code}", templateCode)
+                    .retrieve()
+                    .bodyToMono(Map.class)
+                    .map(m -> (Map<String, Object>) m)
+                    .block();
+
+            Map<String, Object> data = body == null ? null : (Map<String, Object>) body.get("data");
+            if (data != null && Boolean.TRUE.equals(body.get("success"))) {
+                Map<String, Object> latest = (Map<String, Object>) data.get("latest_version");
+                if (latest != null && latest.get("body") != null) {
+                    return new TemplateDefinition(
+                            templateCode,
+                            (Integer) latest.get("version_number"),
+                            (String) latest.get("subject"),
+                            (String) latest.get("body"));
+                }
+                log.debug("Template {} has no published version", templateCode);
+                return null;
+            }
+
+            log.error("Template service returned unsuccessful response: {}", LogRedaction.truncate(body));
+            throw new RuntimeException("Template fetch failed: " + (body == null ? null : body.get("error")));
+
+        } catch (WebClientResponseException.NotFound e) {
+            log.debug("Template {} is unknown to the template service", templateCode);
+            return null;
+        } catch (Exception e) {
+            log.error("Failed to fetch template {}: {}", templateCode, e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch template from template service: " + e.getMessage(), e);
+        }
+    }
+
+    private Mono<String> render(Map<String, Object> requestBody, String failurePrefix) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            requestCounter.increment();
+            return webClient.post()
+                    .uri(renderEndpoint)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(requestBody)
+                    .retrieve()
+                    .bodyToMono(Map.class)
+                    .onErrorMap(WebClientResponseException.class,
+                            e -> new RuntimeException("Template service returned status: " + e.getStatusCode()
+                                    + " " + e.getResponseBodyAsString()))
+                    .map(body -> {
+                        Boolean success = (Boolean) body.get("success");
+                        Map<String, Object> data = (Map<String, Object>) body.get("data");
+                        if (Boolean.TRUE.equals(success) && data != null && data.get("rendered") != null) {
+                            return (String) data.get("rendered");
+                        }
+                        log.error("Template service returned unsuccessful response: {}", LogRedaction.truncate(body));
+                        throw new RuntimeException(failurePrefix + body.get("error"));
+                    })
+                    .doOnSuccess(rendered -> {
+                        long elapsed = System.nanoTime() - start;
+                        latencyTimer.record(Duration.ofNanos(elapsed));
+                        latencies.record(elapsed / 1_000_000);
+                    });
+        });
+    }
+
+    // Fire a second identical request once the primary has been outstanding longer than the observed p95
+    private Mono<String> hedged(Supplier<Mono<String>> call) {
+        long p95 = latencies.p95();
+        if (!hedgeEnabled || p95 < 0) {
+            return call.get();
+        }
+        long delayMs = Math.max(hedgeMinDelayMs, p95);
+        Mono<String> hedge = Mono.delay(Duration.ofMillis(delayMs))
+                .then(Mono.defer(() -> {
+                    hedgeCounter.increment();
+                    log.debug("Hedging template service call after {}ms", delayMs);
+                    return call.get();
+                }));
+        return Mono.firstWithValue(call.get(), hedge);
+    }
+
+    /**
+     * Fixed-size window of recent latencies; the p95 is recomputed every few samples
+     * rather than on each call. Returns -1 until the window has enough samples.
+     */
+    private static final class LatencyWindow {
+        private static final int MIN_SAMPLES = 32;
+        private static final int RECOMPUTE_EVERY = 32;
+
+        private final long[] samples;
+        private int next;
+        private long count;
+        private volatile long p95 = -1;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count++;
+            if (count >= MIN_SAMPLES && count % RECOMPUTE_EVERY == 0) {
+                int filled = (int) Math.min(count, samples.length);
+                long[] sorted = Arrays.copyOf(samples, filled);
+                Arrays.sort(sorted);
+                p95 = sorted[(int) Math.ceil(filled * 0.95) - 1];
+            }
+        }
+
+        long p95() {
+            return p95;
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package com.hng.EmailService.util;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.util.MimeType;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks a codec per message by its AMQP content_type. Deliveries without a content type, with a
+ * JSON one or with one no codec is registered for are decoded by the JSON converter, exactly as
+ * before, so publishers can move to a binary format one at a time. Outgoing messages are encoded
+ * with the outbound codec.
+ */
+public class CodecMessageConverter implements MessageConverter {
+
+    private final MessageConverter json;
+    private final Map<String, MessageConverter> codecs = new HashMap<>();
+    private final MessageConverter outbound;
+
+    /**
+     * @param json                 converter for application/json and unknown content types
+     * @param codecs               further converters by content type, e.g. application/cbor
+     * @param outboundContentType  content type to encode with: application/json or one of codecs
+     */
+    public CodecMessageConverter(MessageConverter json, Map<String, ? extends MessageConverter> codecs,
+                                 String outboundContentType) {
+        this.json = json;
+        codecs.forEach((contentType, codec) -> this.codecs.put(baseType(contentType), codec));
+        String outbound = baseType(outboundContentType);
+        if (!outbound.equals(MessageProperties.CONTENT_TYPE_JSON) && !this.codecs.containsKey(outbound)) {
+            throw new IllegalArgumentException("No message codec for outbound content type " + outboundContentType);
+        }
+        this.outbound = this.codecs.getOrDefault(outbound, json);
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        return outbound.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties, Type genericType)
+            throws MessageConversionException {
+        return outbound.toMessage(object, messageProperties, genericType);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        String contentType = message.getMessageProperties().getContentType();
+        MessageConverter codec = contentType == null ? null : codecs.get(baseType(contentType));
+        return (codec != null ? codec : json).fromMessage(message);
+    }
+
+    // "application/cbor; foo=bar" -> "application/cbor"
+    static String baseType(String contentType) {
+        try {
+            MimeType mimeType = MimeType.valueOf(contentType);
+            return (mimeType.getType() + "/" + mimeType.getSubtype()).toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return contentType.trim().toLowerCase();
+        }
+    }
+}
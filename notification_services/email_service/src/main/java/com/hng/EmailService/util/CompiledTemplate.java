@@ -0,0 +1,232 @@
+package com.hng.EmailService.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A template body parsed once into literal and placeholder segments.
+ * Placeholders use the {{var}} / {{ user.name }} syntax of the template service; dotted paths
+ * walk nested maps. Rendering is a single pass into a pre-sized buffer.
+ */
+public final class CompiledTemplate {
+
+    private static final Object MISSING = new Object();
+    private static final Pattern PLAIN_PATH = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+    private static final Pattern NEWLINE = Pattern.compile("\r\n|\r");
+    // Jinja tries attributes before items, so user.items is the dict method rather than data["items"]
+    private static final Set<String> DICT_ATTRIBUTES = Set.of(
+            "clear", "copy", "fromkeys", "get", "items", "keys", "pop", "popitem", "setdefault", "update", "values");
+
+    private final String source;
+    // literals.length == placeholders.length + 1; placeholder i sits between literal i and i + 1
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+    private final int literalLength;
+    private final boolean plain;
+    // literals as Jinja reads them: newlines normalized to \n and one trailing newline dropped
+    private final String[] jinjaLiterals;
+
+    private record Placeholder(String raw, String key, String[] path) {}
+
+    private CompiledTemplate(String source, String[] literals, Placeholder[] placeholders, int literalLength,
+                             boolean malformed) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.literalLength = literalLength;
+        this.plain = !malformed && computePlain(source, placeholders);
+        this.jinjaLiterals = jinjaLiterals(literals);
+    }
+
+    // Only variable substitution: no Jinja statements, comments, filters or expressions
+    private static boolean computePlain(String source, Placeholder[] placeholders) {
+        if (source.contains("{%") || source.contains("{#")) {
+            return false;
+        }
+        for (Placeholder placeholder : placeholders) {
+            if (!PLAIN_PATH.matcher(placeholder.key()).matches()) {
+                return false;
+            }
+            String[] path = placeholder.path();
+            for (int i = 1; i < path.length; i++) {
+                if (DICT_ATTRIBUTES.contains(path[i]) || path[i].startsWith("__")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String[] jinjaLiterals(String[] literals) {
+        String[] normalized = new String[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            normalized[i] = NEWLINE.matcher(literals[i]).replaceAll("\n");
+        }
+        String tail = normalized[normalized.length - 1];
+        if (tail.endsWith("\n")) {
+            normalized[normalized.length - 1] = tail.substring(0, tail.length() - 1);
+        }
+        return normalized;
+    }
+
+    public static CompiledTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        int literalLength = 0;
+        int cursor = 0;
+        int segmentStart = 0;
+        // "{{}}" or a "{{" that is never closed; Jinja rejects the template
+        boolean malformed = false;
+
+        while (true) {
+            int open = source.indexOf("{{", cursor);
+            if (open < 0) break;
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) {
+                malformed = true;
+                break;
+            }
+
+            String key = source.substring(open + 2, close).trim();
+            if (key.isEmpty()) {
+                malformed = true;
+                cursor = close + 2;
+                continue;
+            }
+
+            String literal = source.substring(segmentStart, open);
+            literals.add(literal);
+            literalLength += literal.length();
+            placeholders.add(new Placeholder(source.substring(open, close + 2), key, key.split("\\.")));
+            cursor = close + 2;
+            segmentStart = cursor;
+        }
+
+        String tail = source.substring(segmentStart);
+        literals.add(tail);
+        literalLength += tail.length();
+
+        return new CompiledTemplate(source, literals.toArray(new String[0]),
+                placeholders.toArray(new Placeholder[0]), literalLength, malformed);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    /**
+     * True when the body uses nothing but {{ var }} substitution, so rendering it locally with
+     * {@link #renderEscaped} gives the same result as the template service.
+     */
+    public boolean isPlain() {
+        return plain;
+    }
+
+    public String render(Map<String, Object> variables) {
+        if (placeholders.length == 0) {
+            return source;
+        }
+        StringBuilder out = new StringBuilder(literalLength + placeholders.length * 16);
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(literals[i]);
+            Placeholder placeholder = placeholders[i];
+            Object value = resolve(variables, placeholder, true);
+            if (value == MISSING) {
+                // unknown variables are left untouched, as the replace-based renderer did
+                out.append(placeholder.raw());
+            } else if (value != null) {
+                out.append(value);
+            }
+        }
+        out.append(literals[placeholders.length]);
+        return out.toString();
+    }
+
+    /**
+     * Render the way the template service's Jinja environment does: values are HTML-escaped
+     * and a missing variable is an error instead of being left in place. Dotted paths only walk
+     * nested maps, null and booleans print as Python's None / True / False, and the body loses
+     * one trailing newline. A value Python would print differently (lists, maps, floats in
+     * exponent form) is an IllegalArgumentException, so the caller can leave it to the service.
+     */
+    public String renderEscaped(Map<String, Object> variables) {
+        StringBuilder out = new StringBuilder(literalLength + placeholders.length * 16);
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(jinjaLiterals[i]);
+            Placeholder placeholder = placeholders[i];
+            Object value = resolve(variables, placeholder, false);
+            if (value == MISSING) {
+                throw new IllegalArgumentException("'" + placeholder.key() + "' is undefined");
+            }
+            appendEscaped(out, pythonString(placeholder.key(), value));
+        }
+        out.append(jinjaLiterals[placeholders.length]);
+        return out.toString();
+    }
+
+    // str() of the value as the template service gets it from the same JSON
+    private static String pythonString(String key, Object value) {
+        if (value == null) {
+            return "None";
+        }
+        if (value instanceof String string) {
+            return string;
+        }
+        if (value instanceof Boolean bool) {
+            return bool ? "True" : "False";
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof BigInteger
+                || value instanceof Short || value instanceof Byte) {
+            return value.toString();
+        }
+        // both print the shortest round-trip digits; only the exponent forms differ
+        if (value instanceof Double number && Double.isFinite(number)) {
+            String text = number.toString();
+            if (text.indexOf('E') < 0) {
+                return text;
+            }
+        }
+        throw new IllegalArgumentException("'" + key + "' (" + value.getClass().getSimpleName()
+                + ") would not render as it does in Jinja");
+    }
+
+    private static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '"' -> out.append("&#34;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private static Object resolve(Map<String, Object> variables, Placeholder placeholder, boolean flatKeys) {
+        if (variables == null) {
+            return MISSING;
+        }
+        // a flat "user.name" key wins over walking the nested path; Jinja never sees such keys
+        if ((flatKeys || placeholder.path().length == 1) && variables.containsKey(placeholder.key())) {
+            return variables.get(placeholder.key());
+        }
+        String[] path = placeholder.path();
+        if (path.length == 1) {
+            return MISSING;
+        }
+        Object current = variables;
+        for (String segment : path) {
+            if (!(current instanceof Map<?, ?> map) || !map.containsKey(segment)) {
+                return MISSING;
+            }
+            current = map.get(segment);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,75 @@
+package com.hng.EmailService.util;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logback turbo filter for the per-message hot path, evaluated before a log line is formatted.
+ *
+ * Lines logged with the {@link #SAMPLED} marker are kept once every sampleEvery calls (WARN and
+ * above always pass). While a correlation_id is switched on with {@link #enable}, every line logged
+ * with that id in the MDC passes regardless of level or sampling, so a single request can be traced
+ * at DEBUG without turning up logging for all of them.
+ */
+public class CorrelationLogFilter extends TurboFilter {
+
+    public static final String MDC_KEY = "correlation_id";
+    public static final Marker SAMPLED = MarkerFactory.getMarker("SAMPLED");
+
+    // correlation_id -> epoch millis until which full logging stays on
+    private static final Map<String, Long> fullLogging = new ConcurrentHashMap<>();
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private int sampleEvery = 100;
+
+    public static void enable(String correlationId, Duration duration) {
+        fullLogging.put(correlationId, System.currentTimeMillis() + duration.toMillis());
+    }
+
+    public static boolean disable(String correlationId) {
+        return fullLogging.remove(correlationId) != null;
+    }
+
+    /** Correlation ids with full logging on, and when each expires. */
+    public static Map<String, Long> enabled() {
+        long now = System.currentTimeMillis();
+        fullLogging.values().removeIf(until -> until <= now);
+        return new TreeMap<>(fullLogging);
+    }
+
+    public void setSampleEvery(int sampleEvery) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!fullLogging.isEmpty()) {
+            String correlationId = MDC.get(MDC_KEY);
+            if (correlationId != null) {
+                Long until = fullLogging.get(correlationId);
+                if (until != null) {
+                    if (until > System.currentTimeMillis()) {
+                        return FilterReply.ACCEPT;
+                    }
+                    fullLogging.remove(correlationId, until);
+                }
+            }
+        }
+        if (marker != null && marker.contains(SAMPLED) && level.isGreaterOrEqual(Level.INFO)
+                && !level.isGreaterOrEqual(Level.WARN)) {
+            return sampleCounter.getAndIncrement() % sampleEvery == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+        }
+        return FilterReply.NEUTRAL;
+    }
+}
@@ -0,0 +1,39 @@
+package com.hng.EmailService.util;
+
+/**
+ * Helpers for keeping recipient details and provider payloads out of log lines, or short.
+ */
+public final class LogRedaction {
+
+    public static final int MAX_PAYLOAD_CHARS = 512;
+
+    private LogRedaction() {
+    }
+
+    /** j***@example.com */
+    public static String email(String email) {
+        if (email == null) {
+            return null;
+        }
+        int at = email.indexOf('@');
+        return at <= 0 ? "***" : email.charAt(0) + "***" + email.substring(at);
+    }
+
+    /** First four characters of a device token or key, then *** */
+    public static String token(String token) {
+        if (token == null) {
+            return null;
+        }
+        return token.length() <= 4 ? "***" : token.substring(0, 4) + "***";
+    }
+
+    /** String form of a payload, cut to MAX_PAYLOAD_CHARS */
+    public static String truncate(Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        String s = payload.toString();
+        return s.length() <= MAX_PAYLOAD_CHARS ? s
+                : s.substring(0, MAX_PAYLOAD_CHARS) + "...(" + (s.length() - MAX_PAYLOAD_CHARS) + " more chars)";
+    }
+}
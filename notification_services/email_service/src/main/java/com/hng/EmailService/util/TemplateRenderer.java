@@ -1,19 +1,51 @@
 package com.hng.EmailService.util;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Local {{var}} substitution through {@link CompiledTemplate}. It renders what the old
+ * String.replace loop did, with these differences:
+ * <ul>
+ *   <li>{{ var }} with spaces inside the braces is substituted, not only {{var}}</li>
+ *   <li>a dotted path such as {{user.name}} walks nested maps when there is no flat "user.name" key</li>
+ *   <li>null variables leave every placeholder in place instead of throwing a NullPointerException</li>
+ *   <li>substituted values are not scanned again, so a value containing {{other}} comes out literally</li>
+ * </ul>
+ * Unknown variables are still left untouched and null values still render as "".
+ */
 public class TemplateRenderer {
 
+    // Compiled templates keyed by body hash; repeated sends of the same body skip parsing
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<Integer, CompiledTemplate> CACHE = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompiledTemplate> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     public static String render(String templateBody, Map<String, Object> variables) {
 
         if (templateBody == null) return null;
 
-        String rendered = templateBody;
-        for (Map.Entry<String, Object> e : variables.entrySet()) {
-            String placeholder = "{{" + e.getKey() + "}}";
-            String value = e.getValue() == null ? "" : e.getValue().toString();
-            rendered = rendered.replace(placeholder, value);
+        return compile(templateBody).render(variables);
+    }
+
+    public static CompiledTemplate compile(String templateBody) {
+        int hash = templateBody.hashCode();
+        synchronized (CACHE) {
+            CompiledTemplate cached = CACHE.get(hash);
+            // guard against hash collisions between different bodies
+            if (cached != null && cached.source().equals(templateBody)) {
+                return cached;
+            }
+        }
+        CompiledTemplate compiled = CompiledTemplate.compile(templateBody);
+        synchronized (CACHE) {
+            CACHE.put(hash, compiled);
         }
-        return rendered;
+        return compiled;
     }
 }
@@ -0,0 +1,17 @@
+-- Lease on one shard replica index, held by the replica that runs with it.
+--
+-- KEYS[1]  lease key, holding the holder id
+-- ARGV[1]  holder id of the calling replica
+-- ARGV[2]  new time to live in ms, or 0 to release the lease
+--
+-- Returns 1 when the lease was renewed or released, 0 when the caller no longer holds it.
+
+if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+
+local ttl = tonumber(ARGV[2])
+if ttl == 0 then
+    return redis.call('DEL', KEYS[1])
+end
+return redis.call('PEXPIRE', KEYS[1], ttl)
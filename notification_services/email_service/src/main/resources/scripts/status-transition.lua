@@ -0,0 +1,104 @@
+-- Atomic status transition for a status:<request_id> record.
+--
+-- Two layouts are understood:
+--   hash    HSET fields status, updated_at, error_message, ... (only changed fields are written)
+--   string  legacy Jackson/keyv JSON {"value": {"status": ..., ...}, "expires": ...}
+-- A legacy record is rewritten as a hash when ARGV[6] is 'hash', otherwise it stays JSON.
+--
+-- KEYS[1]  status key
+-- ARGV[1]  expected current status ('' = any)
+-- ARGV[2]  new status
+-- ARGV[3]  updated_at timestamp
+-- ARGV[4]  '1' to set error_message to ARGV[5], otherwise it is cleared unless the new status is 'failed'
+-- ARGV[5]  error message
+-- ARGV[6]  record format to write: 'json' or 'hash'
+--
+-- Returns {code, status}: 1 applied (new status), 0 expected status did not match (current status),
+-- -1 record not found, -2 record is not a status record, -3 record has no status to compare.
+-- The key's TTL is preserved.
+
+local key = KEYS[1]
+local expected = ARGV[1]
+local new_status = ARGV[2]
+
+local function conflicts(current)
+    if expected == '' then
+        return nil
+    end
+    if type(current) ~= 'string' then
+        return {-3, ''}
+    end
+    if string.lower(current) ~= string.lower(expected) then
+        return {0, current}
+    end
+    return nil
+end
+
+local kind = redis.call('TYPE', key)['ok']
+if kind == 'none' then
+    return {-1, ''}
+end
+
+if kind == 'hash' then
+    local conflict = conflicts(redis.call('HGET', key, 'status'))
+    if conflict then
+        return conflict
+    end
+    redis.call('HSET', key, 'status', new_status, 'updated_at', ARGV[3])
+    if ARGV[4] == '1' then
+        redis.call('HSET', key, 'error_message', ARGV[5])
+    elseif new_status ~= 'failed' then
+        redis.call('HDEL', key, 'error_message')
+    end
+    return {1, new_status}
+end
+
+if kind ~= 'string' then
+    return {-2, ''}
+end
+
+local ok, record = pcall(cjson.decode, redis.call('GET', key))
+if not ok or type(record) ~= 'table' or type(record['value']) ~= 'table' then
+    return {-2, ''}
+end
+
+local value = record['value']
+local conflict = conflicts(value['status'])
+if conflict then
+    return conflict
+end
+
+value['status'] = new_status
+value['updated_at'] = ARGV[3]
+if ARGV[4] == '1' then
+    value['error_message'] = ARGV[5]
+elseif new_status ~= 'failed' then
+    value['error_message'] = cjson.null
+end
+
+if ARGV[6] == 'hash' then
+    -- migrate the legacy record: scalar fields as-is, nested values as JSON
+    local ttl = redis.call('PTTL', key)
+    local fields = {}
+    for field, v in pairs(value) do
+        if v ~= cjson.null then
+            if type(v) == 'table' then
+                v = cjson.encode(v)
+            end
+            fields[#fields + 1] = field
+            fields[#fields + 1] = tostring(v)
+        end
+    end
+    if type(record['expires']) == 'number' then
+        fields[#fields + 1] = 'expires'
+        fields[#fields + 1] = string.format('%d', record['expires'])
+    end
+    redis.call('DEL', key)
+    redis.call('HSET', key, unpack(fields))
+    if ttl > 0 then
+        redis.call('PEXPIRE', key, ttl)
+    end
+else
+    redis.call('SET', key, cjson.encode(record), 'KEEPTTL')
+end
+return {1, new_status}
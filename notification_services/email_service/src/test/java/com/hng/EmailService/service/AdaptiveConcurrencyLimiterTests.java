@@ -0,0 +1,200 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveConcurrencyLimiterTests {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AdaptiveConcurrencyLimiter limiter(int initial, int min, int max, long maxWaitMs) {
+        return new AdaptiveConcurrencyLimiter("sendgrid", meterRegistry, true, initial, min, max, maxWaitMs);
+    }
+
+    // a provider call with a steady round trip, so only the calls meant to be slow look slow;
+    // a call that doesn't succeed is a congested one
+    private static boolean call(AdaptiveConcurrencyLimiter limiter, long millis, boolean succeeds) throws Exception {
+        return limiter.call(() -> {
+            Thread.sleep(millis);
+            return succeeds;
+        }, ok -> !ok, false);
+    }
+
+    @Test
+    void initialLimitIsClampedToTheBounds() {
+        assertThat(limiter(50, 1, 10, 0).limit()).isEqualTo(10);
+        assertThat(limiter(0, 2, 10, 0).limit()).isEqualTo(2);
+    }
+
+    @Test
+    void disabledLimiterOnlyCalls() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("sendgrid", meterRegistry, false, 1, 1, 1, 0);
+
+        assertThat(call(limiter, 0, false)).isFalse();
+        assertThat(limiter.limit()).isEqualTo(1);
+    }
+
+    @Test
+    void growsWhileTheLimitIsInUse() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 1, 10, 0);
+
+        // one call in flight uses half of a limit of 2, so the limit grows by 1 / limit
+        call(limiter, 20, true);
+        assertThat(limiter.limit()).isCloseTo(2.5, within(1e-9));
+
+        // a single caller doesn't use a limit of 2.5, so it stays there
+        for (int i = 0; i < 5; i++) {
+            call(limiter, 20, true);
+        }
+        assertThat(limiter.limit()).isCloseTo(2.5, within(1e-9));
+    }
+
+    @Test
+    void congestedCallsCutTheLimitDownToTheMinimum() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 2, 10, 0);
+
+        call(limiter, 0, false);
+        assertThat(limiter.limit()).isCloseTo(9, within(1e-9));
+
+        for (int i = 0; i < 50; i++) {
+            call(limiter, 0, false);
+        }
+        assertThat(limiter.limit()).isEqualTo(2);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void slowCallsCutTheLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 10, 0);
+        for (int i = 0; i < 3; i++) {
+            call(limiter, 10, true);
+        }
+        double before = limiter.limit();
+
+        call(limiter, 100, true);
+
+        assertThat(limiter.limit()).isCloseTo(before * 0.9, within(1e-9));
+    }
+
+    @Test
+    void refusedCallsLeaveTheLimitAlone() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 10, 0);
+
+        // e.g. a 4xx over a bad recipient: the provider answered, so it says nothing about load
+        for (int i = 0; i < 5; i++) {
+            limiter.call(() -> "refused", result -> false, null);
+        }
+
+        assertThat(limiter.limit()).isEqualTo(10);
+    }
+
+    @Test
+    void callsInFlightDuringACutDoNotCutAgain() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 10, 5_000);
+        CountDownLatch started = new CountDownLatch(5);
+        CountDownLatch finish = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Boolean>> calls = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                calls.add(executor.submit(() -> limiter.call(() -> {
+                    started.countDown();
+                    finish.await(5, TimeUnit.SECONDS);
+                    return false;
+                }, ok -> !ok, false)));
+            }
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            finish.countDown();
+            for (Future<Boolean> call : calls) {
+                call.get(5, TimeUnit.SECONDS);
+            }
+        }
+
+        // five congested calls from the same round trip cost one cut
+        assertThat(limiter.limit()).isCloseTo(9, within(1e-9));
+
+        // the next round trip can cut again
+        call(limiter, 0, false);
+        assertThat(limiter.limit()).isCloseTo(8.1, within(1e-9));
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void exceptionsCountAsCongestion() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 10, 0);
+
+        assertThatThrownBy(() -> limiter.call(() -> {
+            throw new IllegalStateException("boom");
+        }, ok -> false, null)).hasMessage("boom");
+
+        assertThat(limiter.limit()).isCloseTo(9, within(1e-9));
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void rejectsWithoutCallingWhenNoSlotFreesUp() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 20);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> {
+                    started.countDown();
+                    return finish.await(5, TimeUnit.SECONDS);
+                }, ok -> !ok, false);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        AtomicBoolean called = new AtomicBoolean();
+        Boolean result = limiter.call(() -> {
+            called.set(true);
+            return true;
+        }, ok -> !ok, false);
+
+        assertThat(result).isFalse();
+        assertThat(called).isFalse();
+        assertThat(meterRegistry.counter("provider.limiter.rejections", "provider", "sendgrid").count()).isEqualTo(1);
+
+        finish.countDown();
+        assertThat(holder.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void waitingCallerGetsTheNextFreeSlot() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 5_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Boolean> holder = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.call(() -> {
+                    started.countDown();
+                    Thread.sleep(50);
+                    return true;
+                }, ok -> !ok, false);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(call(limiter, 0, true)).isTrue();
+        assertThat(holder.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(limiter.inFlight()).isZero();
+    }
+}
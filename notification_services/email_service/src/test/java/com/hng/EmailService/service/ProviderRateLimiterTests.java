@@ -0,0 +1,107 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers(disabledWithoutDocker = true)
+class ProviderRateLimiterTests {
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>("redis:7").withExposedPorts(6379);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void clear() {
+        redisTemplate.delete(redisTemplate.keys("ratelimit:*"));
+    }
+
+    private ProviderRateLimiter limiter(StringRedisTemplate template, double rate, int burst, long maxWaitMs) {
+        return new ProviderRateLimiter("sendgrid", "api-key", "test", template, meterRegistry, true, rate, burst, maxWaitMs);
+    }
+
+    @Test
+    void disabledLimiterNeverWaits() {
+        ProviderRateLimiter limiter = new ProviderRateLimiter("sendgrid", "api-key", null, null, meterRegistry,
+                false, 1, 1, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(limiter.acquire()).isTrue();
+        }
+    }
+
+    @Test
+    void rejectsOnceTheBurstIsUsedUp() {
+        ProviderRateLimiter limiter = limiter(redisTemplate, 1, 3, 0);
+
+        assertThat(limiter.acquire()).isTrue();
+        assertThat(limiter.acquire()).isTrue();
+        assertThat(limiter.acquire()).isTrue();
+        assertThat(limiter.acquire()).isFalse();
+        assertThat(meterRegistry.counter("provider.ratelimit.rejections", "provider", "sendgrid").count()).isEqualTo(1);
+    }
+
+    @Test
+    void waitsForTheBucketToRefill() {
+        ProviderRateLimiter limiter = limiter(redisTemplate, 20, 1, 1_000);
+
+        assertThat(limiter.acquire()).isTrue();
+        long start = System.nanoTime();
+        assertThat(limiter.acquire()).isTrue();
+        // one token every 50ms
+        assertThat((System.nanoTime() - start) / 1_000_000).isGreaterThanOrEqualTo(25);
+    }
+
+    @Test
+    void replicasWithTheSameKeyShareOneBucket() {
+        ProviderRateLimiter first = limiter(redisTemplate, 1, 2, 0);
+        ProviderRateLimiter second = limiter(redisTemplate, 1, 2, 0);
+
+        assertThat(first.acquire()).isTrue();
+        assertThat(second.acquire()).isTrue();
+        assertThat(first.acquire()).isFalse();
+        assertThat(second.acquire()).isFalse();
+    }
+
+    @Test
+    void letsCallsThroughWhenRedisIsDown() {
+        // nothing listens on port 1
+        LettuceConnectionFactory unreachable = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 1));
+        unreachable.afterPropertiesSet();
+        try {
+            ProviderRateLimiter limiter = limiter(new StringRedisTemplate(unreachable), 1, 1, 0);
+
+            assertThat(limiter.acquire()).isTrue();
+            assertThat(limiter.acquire()).isTrue();
+        } finally {
+            unreachable.destroy();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.hng.EmailService.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StatusEventBatcherTests {
+
+    // long enough that only full batches and close() publish
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Sent> sent = new CopyOnWriteArrayList<>();
+    private StatusEventBatcher batcher;
+
+    private record Sent(String body, int count) {}
+
+    @AfterEach
+    void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    private StatusEventBatcher batcher(BiFunction<byte[], Integer, CompletableFuture<Void>> sender,
+                                       long lingerMs, int maxEvents, int maxBytes) {
+        batcher = new StatusEventBatcher(sender, meterRegistry, lingerMs, maxEvents, maxBytes);
+        return batcher;
+    }
+
+    private StatusEventBatcher recording(long lingerMs, int maxEvents, int maxBytes) {
+        return batcher((body, count) -> {
+            sent.add(new Sent(new String(body, StandardCharsets.UTF_8), count));
+            return CompletableFuture.completedFuture(null);
+        }, lingerMs, maxEvents, maxBytes);
+    }
+
+    // closes the batcher, so everything submitted has been handed to the sender
+    private void closeBatcher() {
+        batcher.close();
+        batcher = null;
+    }
+
+    private static byte[] event(String requestId) {
+        return ("{\"request_id\":\"" + requestId + "\",\"status\":\"delivered\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> publishedRequestIds() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (Sent message : sent) {
+            JsonNode array = objectMapper.readTree(message.body());
+            assertThat(array.isArray()).isTrue();
+            assertThat(array.size()).isEqualTo(message.count());
+            array.forEach(event -> ids.add(event.get("request_id").asText()));
+        }
+        return ids;
+    }
+
+    @Test
+    void buffersEventsUntilClosedThenPublishesThemAsOneArray() throws Exception {
+        StatusEventBatcher batcher = recording(NEVER_MS, 100, 64 * 1024);
+
+        CompletableFuture<Void> first = batcher.submit(event("a"));
+        batcher.submit(event("b"));
+        batcher.submit(event("c"));
+
+        assertThat(batcher.depth()).isEqualTo(3);
+        assertThat(meterRegistry.get("status.events.batcher.depth").gauge().value()).isEqualTo(3);
+        assertThat(first).isNotDone();
+
+        closeBatcher();
+
+        assertThat(sent).hasSize(1);
+        assertThat(publishedRequestIds()).containsExactly("a", "b", "c");
+        assertThat(first).isCompleted();
+    }
+
+    @Test
+    void neverPublishesMoreThanMaxEventsAndKeepsOrder() throws Exception {
+        StatusEventBatcher batcher = recording(NEVER_MS, 2, 64 * 1024);
+        for (int i = 0; i < 5; i++) {
+            batcher.submit(event("req-" + i));
+        }
+
+        closeBatcher();
+
+        assertThat(sent).allSatisfy(message -> assertThat(message.count()).isBetween(1, 2));
+        assertThat(publishedRequestIds()).containsExactly("req-0", "req-1", "req-2", "req-3", "req-4");
+    }
+
+    @Test
+    void neverPublishesMoreThanMaxBytesExceptForOneOversizedEvent() throws Exception {
+        int maxBytes = 2 * event("a").length + 3;
+        StatusEventBatcher batcher = recording(NEVER_MS, 100, maxBytes);
+        byte[] oversized = ("{\"request_id\":\"big\",\"error\":\"" + "x".repeat(maxBytes) + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        batcher.submit(event("a"));
+        batcher.submit(event("b"));
+        batcher.submit(event("c"));
+        batcher.submit(oversized);
+        batcher.submit(event("d"));
+
+        closeBatcher();
+
+        assertThat(sent).allSatisfy(message -> {
+            if (message.count() > 1) {
+                assertThat(message.body().getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(maxBytes);
+            }
+        });
+        assertThat(sent).anySatisfy(message -> assertThat(message.body())
+                .isEqualTo("[" + new String(oversized, StandardCharsets.UTF_8) + "]"));
+        assertThat(publishedRequestIds()).containsExactly("a", "b", "c", "big", "d");
+    }
+
+    @Test
+    void fullBatchPublishesWithoutWaitingForTheLinger() throws Exception {
+        StatusEventBatcher batcher = recording(NEVER_MS, 2, 64 * 1024);
+
+        CompletableFuture<Void> first = batcher.submit(event("a"));
+        CompletableFuture<Void> second = batcher.submit(event("b"));
+
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertThat(publishedRequestIds()).containsExactly("a", "b");
+        assertThat(batcher.depth()).isZero();
+    }
+
+    @Test
+    void lingerPublishesAPartialBatch() throws Exception {
+        StatusEventBatcher batcher = recording(20, 100, 64 * 1024);
+
+        batcher.submit(event("a")).get(5, TimeUnit.SECONDS);
+
+        assertThat(publishedRequestIds()).containsExactly("a");
+    }
+
+    @Test
+    void eventsCompleteOnlyWhenTheirMessageIsConfirmed() {
+        List<CompletableFuture<Void>> confirms = new CopyOnWriteArrayList<>();
+        StatusEventBatcher batcher = batcher((body, count) -> {
+            CompletableFuture<Void> confirm = new CompletableFuture<>();
+            confirms.add(confirm);
+            return confirm;
+        }, NEVER_MS, 1, 64 * 1024);
+
+        CompletableFuture<Void> confirmed = batcher.submit(event("a"));
+        CompletableFuture<Void> nacked = batcher.submit(event("b"));
+        closeBatcher();
+
+        assertThat(confirms).hasSize(2);
+        assertThat(confirmed).isNotDone();
+        assertThat(nacked).isNotDone();
+
+        confirms.get(0).complete(null);
+        confirms.get(1).completeExceptionally(new IllegalStateException("nacked"));
+
+        assertThat(confirmed).isCompleted();
+        assertThatThrownBy(nacked::get).isInstanceOf(ExecutionException.class).hasRootCauseMessage("nacked");
+    }
+
+    @Test
+    void senderExceptionFailsEveryEventInTheMessage() {
+        StatusEventBatcher batcher = batcher((body, count) -> {
+            throw new IllegalStateException("channel closed");
+        }, NEVER_MS, 100, 64 * 1024);
+
+        CompletableFuture<Void> first = batcher.submit(event("a"));
+        CompletableFuture<Void> second = batcher.submit(event("b"));
+        closeBatcher();
+
+        assertThat(first).isCompletedExceptionally();
+        assertThat(second).isCompletedExceptionally();
+        assertThatThrownBy(first::get).hasRootCauseMessage("channel closed");
+    }
+}
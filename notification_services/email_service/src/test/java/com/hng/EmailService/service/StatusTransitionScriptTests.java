@@ -0,0 +1,193 @@
+package com.hng.EmailService.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * scripts/status-transition.lua against a real Redis, for both record layouts.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class StatusTransitionScriptTests {
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>("redis:7").withExposedPorts(6379);
+
+    private static final String KEY = "status:req-1";
+    private static final String NOW = "2025-01-01T00:00:00Z";
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+    private static DefaultRedisScript<List> script;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private record Result(long code, String status) {}
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/status-transition.lua")));
+        script.setResultType(List.class);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void clear() {
+        redisTemplate.delete(KEY);
+    }
+
+    private Result transition(String expected, String newStatus, String errorMessage, String format) {
+        List<?> result = redisTemplate.execute(script, List.of(KEY),
+                expected, newStatus, NOW, errorMessage == null ? "0" : "1", errorMessage == null ? "" : errorMessage, format);
+        return new Result(Long.parseLong(String.valueOf(result.get(0))), String.valueOf(result.get(1)));
+    }
+
+    private Map<Object, Object> hash() {
+        return redisTemplate.opsForHash().entries(KEY);
+    }
+
+    private JsonNode legacyValue() throws Exception {
+        return objectMapper.readTree(redisTemplate.opsForValue().get(KEY)).get("value");
+    }
+
+    @Test
+    void missingRecordIsNotFound() {
+        assertThat(transition("queued", "processing", null, "hash")).isEqualTo(new Result(-1, ""));
+        assertThat(redisTemplate.hasKey(KEY)).isFalse();
+    }
+
+    @Test
+    void hashRecordMovesFromTheExpectedStatus() {
+        redisTemplate.opsForHash().putAll(KEY, Map.of("status", "queued", "user_id", "u1"));
+        redisTemplate.expire(KEY, 60, TimeUnit.SECONDS);
+
+        assertThat(transition("queued", "processing", null, "hash")).isEqualTo(new Result(1, "processing"));
+        assertThat(hash()).containsEntry("status", "processing")
+                .containsEntry("updated_at", NOW)
+                .containsEntry("user_id", "u1");
+        assertThat(redisTemplate.getExpire(KEY)).isPositive();
+    }
+
+    @Test
+    void hashRecordInAnotherStatusConflicts() {
+        redisTemplate.opsForHash().put(KEY, "status", "delivered");
+
+        assertThat(transition("queued", "processing", null, "hash")).isEqualTo(new Result(0, "delivered"));
+        assertThat(hash()).containsEntry("status", "delivered").doesNotContainKey("updated_at");
+    }
+
+    @Test
+    void statusesCompareCaseInsensitively() {
+        redisTemplate.opsForHash().put(KEY, "status", "QUEUED");
+
+        assertThat(transition("queued", "processing", null, "hash").code()).isEqualTo(1);
+    }
+
+    @Test
+    void emptyExpectedStatusMatchesAny() {
+        redisTemplate.opsForHash().put(KEY, "status", "processing");
+
+        assertThat(transition("", "delivered", null, "hash")).isEqualTo(new Result(1, "delivered"));
+    }
+
+    @Test
+    void hashRecordWithoutStatusCannotBeCompared() {
+        redisTemplate.opsForHash().put(KEY, "user_id", "u1");
+
+        assertThat(transition("queued", "processing", null, "hash")).isEqualTo(new Result(-3, ""));
+        assertThat(transition("", "processing", null, "hash").code()).isEqualTo(1);
+    }
+
+    @Test
+    void errorMessageIsSetClearedOrKeptForFailed() {
+        redisTemplate.opsForHash().put(KEY, "status", "processing");
+
+        transition("", "queued", "Attempt 1 failed", "hash");
+        assertThat(hash()).containsEntry("error_message", "Attempt 1 failed");
+
+        transition("", "failed", null, "hash");
+        assertThat(hash()).containsEntry("error_message", "Attempt 1 failed");
+
+        transition("", "delivered", null, "hash");
+        assertThat(hash()).doesNotContainKey("error_message");
+    }
+
+    @Test
+    void legacyRecordStaysJsonAndKeepsItsTtl() throws Exception {
+        redisTemplate.opsForValue().set(KEY,
+                "{\"value\":{\"status\":\"queued\",\"user_id\":\"u1\",\"error_message\":\"old\"},\"expires\":1700000000000}",
+                60, TimeUnit.SECONDS);
+
+        assertThat(transition("queued", "processing", null, "json")).isEqualTo(new Result(1, "processing"));
+        JsonNode value = legacyValue();
+        assertThat(value.get("status").asText()).isEqualTo("processing");
+        assertThat(value.get("updated_at").asText()).isEqualTo(NOW);
+        assertThat(value.get("user_id").asText()).isEqualTo("u1");
+        assertThat(value.get("error_message").isNull()).isTrue();
+        assertThat(redisTemplate.getExpire(KEY)).isPositive();
+    }
+
+    @Test
+    void legacyRecordConflictsOnItsStatus() throws Exception {
+        redisTemplate.opsForValue().set(KEY, "{\"value\":{\"status\":\"failed\"}}");
+
+        assertThat(transition("queued", "processing", null, "json")).isEqualTo(new Result(0, "failed"));
+        assertThat(legacyValue().get("status").asText()).isEqualTo("failed");
+    }
+
+    @Test
+    void legacyRecordIsMigratedToAHash() {
+        redisTemplate.opsForValue().set(KEY,
+                "{\"value\":{\"status\":\"queued\",\"user_id\":\"u1\",\"data\":{\"name\":\"Ada\"},\"note\":null},"
+                        + "\"expires\":1700000000000}",
+                60, TimeUnit.SECONDS);
+
+        assertThat(transition("queued", "processing", null, "hash")).isEqualTo(new Result(1, "processing"));
+        assertThat(redisTemplate.type(KEY).code()).isEqualTo("hash");
+        assertThat(hash()).containsEntry("status", "processing")
+                .containsEntry("user_id", "u1")
+                .containsEntry("data", "{\"name\":\"Ada\"}")
+                .containsEntry("expires", "1700000000000")
+                .doesNotContainKey("note");
+        assertThat(redisTemplate.getExpire(KEY, TimeUnit.MILLISECONDS)).isBetween(1L, 60_000L);
+    }
+
+    @Test
+    void otherValuesAreNotStatusRecords() {
+        redisTemplate.opsForValue().set(KEY, "not json");
+        assertThat(transition("", "processing", null, "json")).isEqualTo(new Result(-2, ""));
+
+        redisTemplate.opsForValue().set(KEY, "{\"status\":\"queued\"}");
+        assertThat(transition("", "processing", null, "json")).isEqualTo(new Result(-2, ""));
+
+        redisTemplate.delete(KEY);
+        redisTemplate.opsForList().rightPush(KEY, "queued");
+        assertThat(transition("", "processing", null, "json")).isEqualTo(new Result(-2, ""));
+    }
+}
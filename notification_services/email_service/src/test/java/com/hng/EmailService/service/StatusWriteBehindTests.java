@@ -0,0 +1,185 @@
+package com.hng.EmailService.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StatusWriteBehindTests {
+
+    // long enough that only the tests themselves and full batches flush
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<List<StatusWriteBehind.StatusUpdate>> flushed = new CopyOnWriteArrayList<>();
+    private StatusWriteBehind writeBehind;
+
+    @AfterEach
+    void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+    }
+
+    private StatusWriteBehind writeBehind(Consumer<List<StatusWriteBehind.StatusUpdate>> writer, int batchSize, int capacity) {
+        writeBehind = new StatusWriteBehind(writer, meterRegistry, NEVER_MS, batchSize, capacity);
+        return writeBehind;
+    }
+
+    private StatusWriteBehind recording(int batchSize, int capacity) {
+        return writeBehind(batch -> flushed.add(List.copyOf(batch)), batchSize, capacity);
+    }
+
+    private static StatusWriteBehind.StatusUpdate update(String requestId, String status) {
+        return new StatusWriteBehind.StatusUpdate(requestId, status, null);
+    }
+
+    private List<StatusWriteBehind.StatusUpdate> allFlushed() {
+        List<StatusWriteBehind.StatusUpdate> all = new ArrayList<>();
+        flushed.forEach(all::addAll);
+        return all;
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    @Test
+    void latestUpdatePerRequestWins() {
+        StatusWriteBehind writeBehind = recording(100, 100);
+
+        assertThat(writeBehind.submit(update("a", "delivered"))).isTrue();
+        assertThat(writeBehind.submit(update("b", "delivered"))).isTrue();
+        assertThat(writeBehind.submit(update("a", "failed"))).isTrue();
+
+        assertThat(writeBehind.depth()).isEqualTo(2);
+        assertThat(writeBehind.hasPending("a")).isTrue();
+        assertThat(counter("redis.status.writebehind.coalesced")).isEqualTo(1);
+
+        writeBehind.flush();
+
+        // the coalesced update keeps the position of the first one
+        assertThat(flushed).containsExactly(List.of(update("a", "failed"), update("b", "delivered")));
+        assertThat(writeBehind.depth()).isZero();
+        assertThat(writeBehind.hasPending("a")).isFalse();
+    }
+
+    @Test
+    void fullBufferHandsNewRequestsBackToTheCaller() {
+        StatusWriteBehind writeBehind = recording(100, 2);
+
+        assertThat(writeBehind.submit(update("a", "delivered"))).isTrue();
+        assertThat(writeBehind.submit(update("b", "delivered"))).isTrue();
+        assertThat(writeBehind.submit(update("c", "delivered"))).isFalse();
+        // a request already buffered still coalesces
+        assertThat(writeBehind.submit(update("a", "failed"))).isTrue();
+
+        assertThat(counter("redis.status.writebehind.fallback")).isEqualTo(1);
+        assertThat(writeBehind.hasPending("c")).isFalse();
+
+        writeBehind.flush();
+        assertThat(writeBehind.submit(update("c", "delivered"))).isTrue();
+    }
+
+    @Test
+    void fullBatchFlushesWithoutWaitingForTheInterval() throws InterruptedException {
+        CountDownLatch written = new CountDownLatch(1);
+        StatusWriteBehind writeBehind = writeBehind(batch -> {
+            flushed.add(List.copyOf(batch));
+            written.countDown();
+        }, 2, 100);
+
+        writeBehind.submit(update("a", "delivered"));
+        writeBehind.submit(update("b", "delivered"));
+
+        assertThat(written.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(allFlushed()).containsExactly(update("a", "delivered"), update("b", "delivered"));
+    }
+
+    @Test
+    void flushesInBatchesOfBatchSize() {
+        StatusWriteBehind writeBehind = recording(2, 100);
+        for (int i = 0; i < 5; i++) {
+            writeBehind.submit(update("req-" + i, "delivered"));
+        }
+
+        writeBehind.flush();
+
+        assertThat(flushed).allSatisfy(batch -> assertThat(batch).hasSizeLessThanOrEqualTo(2));
+        assertThat(allFlushed()).extracting(StatusWriteBehind.StatusUpdate::requestId)
+                .containsExactlyInAnyOrder("req-0", "req-1", "req-2", "req-3", "req-4");
+    }
+
+    @Test
+    void failedFlushIsRequeuedBehindNewerUpdates() {
+        boolean[] fail = {true};
+        StatusWriteBehind[] self = new StatusWriteBehind[1];
+        self[0] = writeBehind(batch -> {
+            if (fail[0]) {
+                fail[0] = false;
+                // arrives while the pipeline is in flight and must not be overwritten by the retry
+                self[0].submit(update("a", "failed"));
+                throw new IllegalStateException("redis down");
+            }
+            flushed.add(List.copyOf(batch));
+        }, 100, 100);
+        StatusWriteBehind writeBehind = self[0];
+
+        writeBehind.submit(update("a", "delivered"));
+        writeBehind.submit(update("b", "delivered"));
+
+        assertThatThrownBy(writeBehind::flush).hasMessage("redis down");
+        assertThat(counter("redis.status.writebehind.flush.failures")).isEqualTo(1);
+        assertThat(writeBehind.depth()).isEqualTo(2);
+
+        writeBehind.flush();
+        assertThat(allFlushed()).containsExactly(update("a", "failed"), update("b", "delivered"));
+    }
+
+    @Test
+    void failedFlushIsRequeuedOnlyUpToCapacity() {
+        boolean[] fail = {true};
+        StatusWriteBehind[] self = new StatusWriteBehind[1];
+        self[0] = writeBehind(batch -> {
+            if (fail[0]) {
+                fail[0] = false;
+                // fills the buffer again while the pipeline is in flight
+                self[0].submit(update("c", "delivered"));
+                throw new IllegalStateException("redis down");
+            }
+            flushed.add(List.copyOf(batch));
+        }, 100, 2);
+        StatusWriteBehind writeBehind = self[0];
+
+        writeBehind.submit(update("a", "delivered"));
+        writeBehind.submit(update("b", "delivered"));
+
+        assertThatThrownBy(writeBehind::flush).hasMessage("redis down");
+        assertThat(writeBehind.depth()).isEqualTo(2);
+        assertThat(counter("redis.status.writebehind.dropped")).isEqualTo(1);
+
+        writeBehind.flush();
+        assertThat(allFlushed()).containsExactly(update("c", "delivered"), update("a", "delivered"));
+    }
+
+    @Test
+    void closeWritesWhatIsLeft() {
+        StatusWriteBehind writeBehind = recording(100, 100);
+        writeBehind.submit(update("a", "delivered"));
+
+        writeBehind.close();
+        this.writeBehind = null;
+
+        assertThat(allFlushed()).containsExactly(update("a", "delivered"));
+    }
+}
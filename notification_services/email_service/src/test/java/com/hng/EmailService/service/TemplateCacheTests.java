@@ -0,0 +1,68 @@
+package com.hng.EmailService.service;
+
+import com.hng.EmailService.dto.TemplateDefinition;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TemplateCacheTests {
+
+    // the template service as seen by the cache: published definitions by code, and a fetch count
+    private static final class StubTemplateService extends TemplateServiceClient {
+        final Map<String, TemplateDefinition> published = new HashMap<>();
+        int fetches;
+
+        StubTemplateService() {
+            super("http://template-service.invalid", "/render", "/templates", 1, 1000, 1000, 1000, false, 50,
+                    new SimpleMeterRegistry());
+        }
+
+        @Override
+        public TemplateDefinition fetchTemplate(String templateCode) {
+            fetches++;
+            return published.get(templateCode);
+        }
+    }
+
+    private final StubTemplateService templateService = new StubTemplateService();
+
+    private TemplateCache cache(long missTtlMs) {
+        return new TemplateCache(templateService, 10, 60_000, missTtlMs);
+    }
+
+    @Test
+    void unpublishedCodeIsFetchedOncePerMissTtl() {
+        TemplateCache cache = cache(60_000);
+
+        assertThat(cache.get("unknown")).isNull();
+        assertThat(cache.get("unknown")).isNull();
+
+        assertThat(templateService.fetches).isEqualTo(1);
+    }
+
+    @Test
+    void expiredMissIsFetchedAgain() {
+        TemplateCache cache = cache(0);
+
+        cache.get("unknown");
+        cache.get("unknown");
+
+        assertThat(templateService.fetches).isEqualTo(2);
+    }
+
+    @Test
+    void changeEventDropsTheMiss() {
+        TemplateCache cache = cache(60_000);
+        assertThat(cache.get("welcome")).isNull();
+
+        templateService.published.put("welcome", new TemplateDefinition("welcome", 1, "Hi", "<p>Hi {{name}}</p>"));
+        cache.evict("welcome");
+
+        assertThat(cache.get("welcome")).isNotNull();
+        assertThat(templateService.fetches).isEqualTo(2);
+    }
+}
@@ -0,0 +1,101 @@
+package com.hng.EmailService.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * scripts/token-bucket.lua against a real Redis.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class TokenBucketScriptTests {
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>("redis:7").withExposedPorts(6379);
+
+    private static final String KEY = "ratelimit:test:bucket";
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+    private static DefaultRedisScript<Long> script;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/token-bucket.lua")));
+        script.setResultType(Long.class);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void clear() {
+        redisTemplate.delete(KEY);
+    }
+
+    private long take(double rate, int burst, int wanted) {
+        return redisTemplate.execute(script, List.of(KEY),
+                String.valueOf(rate), String.valueOf(burst), String.valueOf(wanted));
+    }
+
+    @Test
+    void newBucketStartsFull() {
+        assertThat(take(1, 5, 3)).isEqualTo(3);
+        assertThat(take(1, 5, 3)).isEqualTo(2);
+        assertThat(take(1, 5, 3)).isZero();
+    }
+
+    @Test
+    void neverGrantsMoreThanTheBurst() {
+        assertThat(take(1, 5, 50)).isEqualTo(5);
+    }
+
+    @Test
+    void refillsAtTheRateUpToTheBurst() throws InterruptedException {
+        assertThat(take(1000, 10, 10)).isEqualTo(10);
+
+        // at 1000 tokens/s the bucket is full again after 10ms
+        Thread.sleep(50);
+        assertThat(take(1000, 10, 100)).isEqualTo(10);
+    }
+
+    @Test
+    void partialTokensCarryOver() throws InterruptedException {
+        assertThat(take(10, 1, 1)).isEqualTo(1);
+        assertThat(take(10, 1, 1)).isZero();
+
+        // 10 tokens/s: the next whole token exists 100ms after the first was taken
+        Thread.sleep(150);
+        assertThat(take(10, 1, 1)).isEqualTo(1);
+    }
+
+    @Test
+    void idleBucketExpiresOnceItWouldBeFull() {
+        take(2, 10, 1);
+
+        // burst / rate = 5s, plus a second of slack
+        assertThat(redisTemplate.getExpire(KEY, TimeUnit.MILLISECONDS)).isBetween(5_000L, 6_000L);
+    }
+}
@@ -0,0 +1,116 @@
+package com.hng.EmailService.util;
+
+import com.hng.EmailService.dto.EmailRequestDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CodecMessageConverterTests {
+
+    private static final EmailRequestDto REQUEST = new EmailRequestDto("email", "req-1", "u1", "welcome", "Hi",
+            "<p>Hi {{name}}</p>", "2025-01-01T00:00:00Z", Map.of("name", "Ada"), "corr-1", 0, "ada@example.com", null);
+
+    // the same codecs RabbitConfig registers
+    private static CodecMessageConverter converter(String outbound) {
+        return new CodecMessageConverter(new Jackson2JsonMessageConverter(), Map.of(
+                JacksonBinaryMessageConverter.CBOR, JacksonBinaryMessageConverter.cbor("com.hng.EmailService"),
+                JacksonBinaryMessageConverter.SMILE, JacksonBinaryMessageConverter.smile("com.hng.EmailService")),
+                outbound);
+    }
+
+    private static Object decode(CodecMessageConverter converter, Message message) {
+        message.getMessageProperties().setInferredArgumentType(EmailRequestDto.class);
+        return converter.fromMessage(message);
+    }
+
+    @Test
+    void encodesWithTheOutboundCodec() {
+        assertThat(converter("application/json").toMessage(REQUEST, new MessageProperties())
+                .getMessageProperties().getContentType()).isEqualTo("application/json");
+        assertThat(converter("application/cbor").toMessage(REQUEST, new MessageProperties())
+                .getMessageProperties().getContentType()).isEqualTo(JacksonBinaryMessageConverter.CBOR);
+        assertThat(converter("application/x-jackson-smile; v=1").toMessage(REQUEST, new MessageProperties())
+                .getMessageProperties().getContentType()).isEqualTo(JacksonBinaryMessageConverter.SMILE);
+    }
+
+    @Test
+    void rejectsAnOutboundTypeWithoutACodec() {
+        assertThatThrownBy(() -> converter("application/xml"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("application/xml");
+    }
+
+    @Test
+    void decodesEachFormatItEncodes() {
+        for (String outbound : new String[] {"application/json", JacksonBinaryMessageConverter.CBOR,
+                JacksonBinaryMessageConverter.SMILE}) {
+            Message message = converter(outbound).toMessage(REQUEST, new MessageProperties());
+            // any instance decodes any format, whatever it sends with
+            assertThat(decode(converter("application/json"), message)).as(outbound).isEqualTo(REQUEST);
+        }
+    }
+
+    @Test
+    void picksTheCodecByBaseContentType() {
+        Message message = converter(JacksonBinaryMessageConverter.CBOR).toMessage(REQUEST, new MessageProperties());
+        message.getMessageProperties().setContentType("Application/CBOR; foo=bar");
+
+        assertThat(decode(converter("application/json"), message)).isEqualTo(REQUEST);
+    }
+
+    @Test
+    void missingOrUnknownContentTypeIsJson() {
+        byte[] json = converter("application/json").toMessage(REQUEST, new MessageProperties()).getBody();
+
+        // what a publisher that sets no content type delivers
+        MessageProperties defaults = new MessageProperties();
+        assertThat(decode(converter("application/json"), new Message(json, defaults))).isEqualTo(REQUEST);
+
+        MessageProperties none = new MessageProperties();
+        none.setContentType(null);
+        assertThat(decode(converter("application/json"), new Message(json, none))).isEqualTo(REQUEST);
+
+        // Jackson2JsonMessageConverter leaves what it can't read as JSON as the body bytes
+        MessageProperties unknown = new MessageProperties();
+        unknown.setContentType("text/plain");
+        assertThat(decode(converter("application/json"), new Message(json, unknown))).isEqualTo(json);
+    }
+
+    @Test
+    void decodesFullyForListenersThatTakeTheRawMessage() throws Exception {
+        Message message = converter(JacksonBinaryMessageConverter.CBOR).toMessage(REQUEST, new MessageProperties());
+        // raw listeners name RawMessageConverter instead; this one always decodes
+        message.getMessageProperties().setTargetMethod(EmailRequestDto.class.getMethod("withAttempts", int.class));
+
+        assertThat(converter("application/json").fromMessage(message)).isEqualTo(REQUEST);
+    }
+
+    @Test
+    void rawConverterPassesTheBodyThrough() {
+        RawMessageConverter raw = new RawMessageConverter();
+        byte[] body = "not decoded".getBytes(StandardCharsets.UTF_8);
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(JacksonBinaryMessageConverter.CBOR);
+        properties.setInferredArgumentType(EmailRequestDto.class);
+
+        assertThat(raw.fromMessage(new Message(body, properties))).isSameAs(body);
+        assertThat(raw.toMessage(body, new MessageProperties()).getBody()).isSameAs(body);
+        assertThatThrownBy(() -> raw.toMessage(REQUEST, new MessageProperties()))
+                .isInstanceOf(MessageConversionException.class);
+    }
+
+    @Test
+    void baseTypeDropsParametersAndCase() {
+        assertThat(CodecMessageConverter.baseType("Application/CBOR; foo=bar")).isEqualTo("application/cbor");
+        assertThat(CodecMessageConverter.baseType("application/json;charset=UTF-8")).isEqualTo("application/json");
+        assertThat(CodecMessageConverter.baseType(" Not A Type ")).isEqualTo("not a type");
+    }
+}
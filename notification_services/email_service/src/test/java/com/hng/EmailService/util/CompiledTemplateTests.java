@@ -0,0 +1,130 @@
+package com.hng.EmailService.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The expected strings are what the template service renders for the same body and data, with its
+ * Environment(autoescape=True, undefined=StrictUndefined, trim_blocks=True, lstrip_blocks=True).
+ */
+class CompiledTemplateTests {
+
+    private static String jinja(String body, Map<String, Object> data) {
+        CompiledTemplate template = CompiledTemplate.compile(body);
+        assertThat(template.isPlain()).as(body).isTrue();
+        return template.renderEscaped(data);
+    }
+
+    @Test
+    void escapesValuesLikeMarkupSafe() {
+        assertThat(jinja("<p>Hi {{ name }}</p>", Map.of("name", "<Ada & \"Bob\" 'B'>")))
+                .isEqualTo("<p>Hi &lt;Ada &amp; &#34;Bob&#34; &#39;B&#39;&gt;</p>");
+    }
+
+    @Test
+    void leavesTheBodyItselfUnescaped() {
+        assertThat(jinja("<a href=\"x?a=1&b=2\">{{name}}</a>", Map.of("name", "Ada")))
+                .isEqualTo("<a href=\"x?a=1&b=2\">Ada</a>");
+    }
+
+    @Test
+    void printsScalarsAsPythonDoes() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("none", null);
+        data.put("yes", true);
+        data.put("no", false);
+        data.put("count", 42);
+        data.put("long", 9_007_199_254_740_993L);
+        data.put("huge", new BigInteger("123456789012345678901234567890"));
+        data.put("price", 19.5);
+        data.put("whole", 3.0);
+
+        assertThat(jinja("{{none}} {{yes}} {{no}} {{count}} {{long}} {{huge}} {{price}} {{whole}}", data))
+                .isEqualTo("None True False 42 9007199254740993 123456789012345678901234567890 19.5 3.0");
+    }
+
+    @Test
+    void walksNestedMapsOnly() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("user", Map.of("name", "Ada", "address", Map.of("city", "Lagos")));
+        // not reachable from Jinja, where user.name is an attribute of user
+        data.put("user.name", "flat");
+
+        assertThat(jinja("{{ user.name }} in {{ user.address.city }}", data)).isEqualTo("Ada in Lagos");
+    }
+
+    @Test
+    void dropsOneTrailingNewlineAndNormalizesLineEndings() {
+        Map<String, Object> data = Map.of("name", "Ada");
+
+        assertThat(jinja("Hi {{name}}\n", data)).isEqualTo("Hi Ada");
+        assertThat(jinja("Hi {{name}}\n\n", data)).isEqualTo("Hi Ada\n");
+        assertThat(jinja("Hi\r\n{{name}}\rbye\r\n", data)).isEqualTo("Hi\nAda\nbye");
+        assertThat(jinja("no placeholders\n", data)).isEqualTo("no placeholders");
+        // values are printed as they are
+        assertThat(jinja("{{name}}", Map.of("name", "a\r\n"))).isEqualTo("a\r\n");
+    }
+
+    @Test
+    void undefinedVariablesAreErrors() {
+        assertThatThrownBy(() -> jinja("Hi {{ name }}", Map.of()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("'name' is undefined");
+        assertThatThrownBy(() -> jinja("{{ user.name }}", Map.of("user", Map.of())))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> jinja("{{ user.name }}", Map.of("user", "Ada")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> jinja("{{ user.name }}", Map.of("user.name", "flat")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void refusesValuesPythonPrintsDifferently() {
+        assertThatThrownBy(() -> jinja("{{ items }}", Map.of("items", List.of("a", "b"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> jinja("{{ user }}", Map.of("user", Map.of("name", "Ada"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> jinja("{{ big }}", Map.of("big", 1e20)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> jinja("{{ ratio }}", Map.of("ratio", 0.5f)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void onlyPlainSubstitutionIsRenderedLocally() {
+        String[] jinjaOnly = {
+                "{% if name %}Hi{% endif %}",
+                "{# comment #}{{ name }}",
+                "{{ name | upper }}",
+                "{{ name ~ '!' }}",
+                "{{ items[0] }}",
+                "{{ user.items }}",
+                "{{ user.__class__ }}",
+                // syntax errors in Jinja
+                "Hi {{}}",
+                "Hi {{ name",
+        };
+        for (String body : jinjaOnly) {
+            assertThat(CompiledTemplate.compile(body).isPlain()).as(body).isFalse();
+        }
+        assertThat(CompiledTemplate.compile("Hi {{ name }}, {{ user.address.city }} }}").isPlain()).isTrue();
+    }
+
+    @Test
+    void replaceRenderingIsUnchanged() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "<Ada>");
+        data.put("user.name", "flat");
+        data.put("none", null);
+
+        assertThat(CompiledTemplate.compile("Hi {{name}} {{user.name}} {{none}}{{missing}}\r\n").render(data))
+                .isEqualTo("Hi <Ada> flat {{missing}}\r\n");
+    }
+}
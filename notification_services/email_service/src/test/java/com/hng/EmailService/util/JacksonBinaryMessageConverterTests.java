@@ -0,0 +1,75 @@
+package com.hng.EmailService.util;
+
+import com.hng.EmailService.dto.EmailRequestDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JacksonBinaryMessageConverterTests {
+
+    private static final EmailRequestDto REQUEST = new EmailRequestDto("email", "req-1", "u1", "welcome", "Hi",
+            "<p>Hi {{name}}</p>", "2025-01-01T00:00:00Z", Map.of("name", "Ada"), "corr-1", 2, "ada@example.com", null);
+
+    @Test
+    void cborRoundTripsThroughTheTypeIdHeader() {
+        JacksonBinaryMessageConverter cbor = JacksonBinaryMessageConverter.cbor("com.hng.EmailService");
+
+        Message message = cbor.toMessage(REQUEST, new MessageProperties());
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(JacksonBinaryMessageConverter.CBOR);
+        assertThat(message.getMessageProperties().getContentLength()).isEqualTo(message.getBody().length);
+        assertThat((Object) message.getMessageProperties().getHeader("__TypeId__"))
+                .isEqualTo(EmailRequestDto.class.getName());
+        assertThat(cbor.fromMessage(message)).isEqualTo(REQUEST);
+    }
+
+    @Test
+    void smileRoundTripsToTheListenerParameterType() {
+        JacksonBinaryMessageConverter smile = JacksonBinaryMessageConverter.smile();
+
+        Message message = smile.toMessage(REQUEST, new MessageProperties());
+        message.getMessageProperties().setInferredArgumentType(EmailRequestDto.class);
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(JacksonBinaryMessageConverter.SMILE);
+        assertThat(smile.fromMessage(message)).isEqualTo(REQUEST);
+    }
+
+    @Test
+    void untrustedTypeIdDecodesToAMap() {
+        Message message = JacksonBinaryMessageConverter.cbor("com.hng.EmailService")
+                .toMessage(REQUEST, new MessageProperties());
+
+        assertThat(JacksonBinaryMessageConverter.cbor("com.hng.Email").fromMessage(message))
+                .isInstanceOfSatisfying(Map.class, map -> assertThat(map)
+                        .containsEntry("request_id", "req-1")
+                        .containsEntry("attempts", 2));
+        assertThat(JacksonBinaryMessageConverter.cbor().fromMessage(message)).isInstanceOf(Map.class);
+    }
+
+    @Test
+    void ignoresFieldsTheRecordDoesNotDeclare() {
+        JacksonBinaryMessageConverter cbor = JacksonBinaryMessageConverter.cbor();
+        Message message = cbor.toMessage(Map.of("request_id", "req-1", "priority", "high"), new MessageProperties());
+        message.getMessageProperties().setInferredArgumentType(EmailRequestDto.class);
+
+        assertThat(cbor.fromMessage(message)).isInstanceOfSatisfying(EmailRequestDto.class,
+                request -> assertThat(request.request_id()).isEqualTo("req-1"));
+    }
+
+    @Test
+    void truncatedBodyIsAConversionError() {
+        JacksonBinaryMessageConverter cbor = JacksonBinaryMessageConverter.cbor("com.hng.EmailService");
+        Message message = cbor.toMessage(REQUEST, new MessageProperties());
+        Message truncated = new Message(Arrays.copyOf(message.getBody(), message.getBody().length / 2),
+                message.getMessageProperties());
+
+        assertThatThrownBy(() -> cbor.fromMessage(truncated)).isInstanceOf(MessageConversionException.class);
+    }
+}
@@ -0,0 +1,107 @@
+package com.hng.EmailService.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.hng.EmailService.dto.RequestHead;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestHeadReaderTests {
+
+    private static final RequestHead HEAD = new RequestHead("req-1", "email", "2025-01-01T00:00:00Z", "welcome");
+
+    // the head fields come last, after values the reader has to skip
+    private static Map<String, Object> request() {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("body", "<p>Hi {{name}}</p>");
+        request.put("data", Map.of("request_id", "nested", "items", List.of(Map.of("channel", "push"))));
+        request.put("attempts", 1);
+        request.put("request_id", "req-1");
+        request.put("channel", "email");
+        request.put("timestamp", "2025-01-01T00:00:00Z");
+        request.put("template_code", "welcome");
+        return request;
+    }
+
+    private static Message message(byte[] body, String contentType) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        return new Message(body, properties);
+    }
+
+    private static Message json(String body) {
+        return message(body.getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    @Test
+    void headersComeFirst() {
+        Message message = json("not json at all");
+        message.getMessageProperties().setHeader("request_id", "req-1");
+        message.getMessageProperties().setHeader("channel", "email");
+        message.getMessageProperties().setHeader("timestamp", "2025-01-01T00:00:00Z");
+        message.getMessageProperties().setHeader("template_code", "welcome");
+
+        assertThat(RequestHeadReader.read(message)).isEqualTo(HEAD);
+    }
+
+    @Test
+    void headerRequestIdAloneIsEnough() {
+        Message message = json("{\"request_id\":\"from-body\",\"channel\":\"email\"}");
+        message.getMessageProperties().setHeader("request_id", "req-1");
+
+        assertThat(RequestHeadReader.read(message)).isEqualTo(new RequestHead("req-1", null, null, null));
+    }
+
+    @Test
+    void readsTopLevelFieldsOfEachFormat() throws Exception {
+        assertThat(RequestHeadReader.read(message(new ObjectMapper().writeValueAsBytes(request()), "application/json")))
+                .isEqualTo(HEAD);
+        assertThat(RequestHeadReader.read(message(new CBORMapper().writeValueAsBytes(request()), "application/cbor")))
+                .isEqualTo(HEAD);
+        assertThat(RequestHeadReader.read(message(new SmileMapper().writeValueAsBytes(request()),
+                "application/x-jackson-smile; v=1"))).isEqualTo(HEAD);
+    }
+
+    @Test
+    void noContentTypeIsJson() {
+        Message message = message("{\"request_id\":\"req-1\"}".getBytes(StandardCharsets.UTF_8), null);
+
+        assertThat(RequestHeadReader.read(message)).isEqualTo(new RequestHead("req-1", null, null, null));
+    }
+
+    @Test
+    void missingFieldsAndNullsAreNull() {
+        assertThat(RequestHeadReader.read(json("{\"request_id\":\"req-1\",\"channel\":null,\"timestamp\":\"t\"}")))
+                .isEqualTo(new RequestHead("req-1", null, "t", null));
+    }
+
+    @Test
+    void returnsNullWhenTheWholeMessageHasToBeDecoded() {
+        assertThat(RequestHeadReader.read(json("{\"channel\":\"email\",\"data\":{\"request_id\":\"nested\"}}"))).isNull();
+        assertThat(RequestHeadReader.read(json("{\"request_id\":null}"))).isNull();
+        assertThat(RequestHeadReader.read(json("[{\"request_id\":\"req-1\"}]"))).isNull();
+        assertThat(RequestHeadReader.read(json("{\"body\":\"unterminated"))).isNull();
+        assertThat(RequestHeadReader.read(json(""))).isNull();
+        // Spring's default content type, and anything else without a codec
+        assertThat(RequestHeadReader.read(message("{\"request_id\":\"req-1\"}".getBytes(StandardCharsets.UTF_8),
+                MessageProperties.CONTENT_TYPE_BYTES))).isNull();
+        assertThat(RequestHeadReader.read(message("request_id=req-1".getBytes(StandardCharsets.UTF_8),
+                "text/plain"))).isNull();
+    }
+
+    @Test
+    void malformedFieldAfterTheHeadIsNeverRead() {
+        assertThat(RequestHeadReader.read(json(
+                "{\"request_id\":\"req-1\",\"channel\":\"email\",\"timestamp\":\"t\",\"template_code\":\"w\",\"body\":")))
+                .isEqualTo(new RequestHead("req-1", "email", "t", "w"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.hng.EmailService.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TemplateRendererTests {
+
+    // The String.replace loop TemplateRenderer used before templates were compiled
+    private static String replaceLoop(String templateBody, Map<String, Object> variables) {
+        String rendered = templateBody;
+        for (Map.Entry<String, Object> e : variables.entrySet()) {
+            String placeholder = "{{" + e.getKey() + "}}";
+            String value = e.getValue() == null ? "" : e.getValue().toString();
+            rendered = rendered.replace(placeholder, value);
+        }
+        return rendered;
+    }
+
+    @Test
+    void rendersFlatTemplatesLikeTheReplaceLoop() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "Ada & <Bob>");
+        data.put("count", 3);
+        data.put("empty", null);
+
+        String[] bodies = {
+                "",
+                "no placeholders at all",
+                "Hi {{name}}",
+                "{{name}}{{name}} has {{count}} items{{empty}}.",
+                "<p>{{count}}</p> and {{unknown}} stays",
+                "empty {{}} braces, {{name}}",
+        };
+        for (String body : bodies) {
+            assertThat(TemplateRenderer.render(body, data)).as(body).isEqualTo(replaceLoop(body, data));
+        }
+    }
+
+    @Test
+    void nullBodyRendersNull() {
+        assertThat(TemplateRenderer.render(null, Map.of())).isNull();
+    }
+
+    @Test
+    void substitutesPlaceholdersWithSpaces() {
+        assertThat(TemplateRenderer.render("Hi {{ name }}!", Map.of("name", "Ada"))).isEqualTo("Hi Ada!");
+    }
+
+    @Test
+    void resolvesDottedPathsThroughNestedMaps() {
+        Map<String, Object> data = Map.of("user", Map.of("name", "Ada", "address", Map.of("city", "Lagos")));
+
+        assertThat(TemplateRenderer.render("{{user.name}} in {{user.address.city}}, {{user.missing}}", data))
+                .isEqualTo("Ada in Lagos, {{user.missing}}");
+    }
+
+    @Test
+    void flatDottedKeyWinsOverNestedPath() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("user.name", "flat");
+        data.put("user", Map.of("name", "nested"));
+
+        assertThat(TemplateRenderer.render("{{user.name}}", data)).isEqualTo("flat");
+    }
+
+    @Test
+    void nullVariablesLeavePlaceholdersInPlace() {
+        assertThat(TemplateRenderer.render("Hi {{name}}", null)).isEqualTo("Hi {{name}}");
+    }
+
+    @Test
+    void substitutedValuesAreNotScannedAgain() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("a", "{{b}}");
+        data.put("b", "x");
+
+        assertThat(TemplateRenderer.render("{{a}}", data)).isEqualTo("{{b}}");
+    }
+}
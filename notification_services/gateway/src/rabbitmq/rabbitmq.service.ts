@@ -3,6 +3,7 @@ import { ConfigService } from '@nestjs/config';
 import { ClientProxy } from '@nestjs/microservices';
 import * as amqp from 'amqp-connection-manager';
 import { ChannelWrapper } from 'amqp-connection-manager';
+import { createHash } from 'crypto';
 
 export interface NotificationMessage {
   request_id: string;
@@ -22,6 +23,13 @@ export interface NotificationMessage {
   placeholders?: string[];
 }
 
+// Priority lanes, used when RABBITMQ_LANES=true (services with *_LANES_ENABLED)
+const LANES = ['transactional', 'standard', 'bulk'];
+const LANE_TARGETS: [string, string][] = [
+  ['notifications.direct', 'email'],
+  ['push.exchange', 'push'],
+];
+
 @Injectable()
 export class RabbitMQService implements OnModuleInit {
   private readonly logger = new Logger(RabbitMQService.name);
@@ -51,6 +59,24 @@ export class RabbitMQService implements OnModuleInit {
             this.config.get<string>('RABBITMQ_QUEUE_PUSH'),
             { durable: true },
           );
+          if (this.isLaned()) {
+            // declared like the services do, so early publishes aren't unroutable
+            for (const [exchange, prefix] of LANE_TARGETS) {
+              await channel.assertExchange(exchange, 'direct', {
+                durable: true,
+              });
+              for (const lane of LANES) {
+                await channel.assertQueue(`${prefix}.queue.${lane}`, {
+                  durable: true,
+                });
+                await channel.bindQueue(
+                  `${prefix}.queue.${lane}`,
+                  exchange,
+                  `${prefix}.lane.${lane}`,
+                );
+              }
+            }
+          }
         },
       });
 
@@ -60,9 +86,18 @@ export class RabbitMQService implements OnModuleInit {
     }
   }
 
-  // Send message to email queue
+  // Send message to email queue, to its shards when RABBITMQ_SHARDED=true, or
+  // straight to its priority lane when RABBITMQ_LANES=true
   async publishToEmailQueue(message: NotificationMessage): Promise<void> {
     try {
+      if (this.isSharded()) {
+        await this.publishToShards('email.sharded', message);
+        return;
+      }
+      if (this.isLaned()) {
+        await this.publishToLane('notifications.direct', 'email', message);
+        return;
+      }
       const queue =
         this.config.get<string>('RABBITMQ_QUEUE_EMAIL') || 'email.queue';
       await this.channelWrapper.sendToQueue(queue, message);
@@ -75,9 +110,35 @@ export class RabbitMQService implements OnModuleInit {
     }
   }
 
-  // Send message to push notification queue
+  // Send message to push notification queue, to the push super stream when
+  // RABBITMQ_PUSH_SUPER_STREAM is set (push service with PUSH_STREAM_ENABLED=true),
+  // to its shards when RABBITMQ_SHARDED=true, or straight to its priority lane when
+  // RABBITMQ_LANES=true
   async publishToPushQueue(message: NotificationMessage): Promise<void> {
     try {
+      const superStream = this.config.get<string>('RABBITMQ_PUSH_SUPER_STREAM');
+      if (superStream) {
+        const partitions = Number(
+          this.config.get<string>('RABBITMQ_PUSH_STREAM_PARTITIONS') || 3,
+        );
+        await this.channelWrapper.publish(
+          superStream,
+          this.partitionKey(message.user_id, partitions),
+          message,
+        );
+        this.logger.log(
+          `Published message to push stream ${superStream}: ${message.request_id}`,
+        );
+        return;
+      }
+      if (this.isSharded()) {
+        await this.publishToShards('push.sharded', message);
+        return;
+      }
+      if (this.isLaned()) {
+        await this.publishToLane('push.exchange', 'push', message);
+        return;
+      }
       const queue =
         this.config.get<string>('RABBITMQ_QUEUE_PUSH') || 'push.queue';
       await this.channelWrapper.sendToQueue(queue, message);
@@ -88,6 +149,85 @@ export class RabbitMQService implements OnModuleInit {
     }
   }
 
+  private isSharded(): boolean {
+    return this.config.get<string>('RABBITMQ_SHARDED') === 'true';
+  }
+
+  private isLaned(): boolean {
+    return this.config.get<string>('RABBITMQ_LANES') === 'true';
+  }
+
+  // Skips the services' lane router: the lane is picked here from template_code, and the
+  // request head goes along as headers so the services don't have to read the body for it
+  private async publishToLane(
+    exchange: string,
+    prefix: string,
+    message: NotificationMessage,
+  ): Promise<void> {
+    const lane = this.laneFor(message.template_code);
+    await this.channelWrapper.publish(
+      exchange,
+      `${prefix}.lane.${lane}`,
+      message,
+      {
+        headers: {
+          'x-lane': lane,
+          request_id: message.request_id,
+          channel: message.channel,
+          timestamp: message.timestamp,
+          template_code: message.template_code,
+        },
+      },
+    );
+    this.logger.log(
+      `Published message to ${prefix} lane ${lane}: ${message.request_id}`,
+    );
+  }
+
+  // Same template lists as the services' *_TRANSACTIONAL_TEMPLATES / *_BULK_TEMPLATES
+  private laneFor(templateCode: string): string {
+    const transactional = this.templateList(
+      'RABBITMQ_TRANSACTIONAL_TEMPLATES',
+      'password_reset',
+    );
+    if (transactional.includes(templateCode)) {
+      return 'transactional';
+    }
+    const bulk = this.templateList('RABBITMQ_BULK_TEMPLATES', '');
+    if (bulk.includes(templateCode)) {
+      return 'bulk';
+    }
+    return 'standard';
+  }
+
+  private templateList(key: string, fallback: string): string[] {
+    return (this.config.get<string>(key) ?? fallback)
+      .split(',')
+      .map((code) => code.trim())
+      .filter((code) => code.length > 0);
+  }
+
+  // The consistent-hash exchange picks the shard from the user_id header, so each
+  // user's notifications stay on one shard queue and are consumed in order
+  private async publishToShards(
+    exchange: string,
+    message: NotificationMessage,
+  ): Promise<void> {
+    await this.channelWrapper.publish(exchange, '', message, {
+      headers: { user_id: message.user_id },
+    });
+    this.logger.log(
+      `Published message to shards of ${exchange}: ${message.request_id}`,
+    );
+  }
+
+  // Super stream partitions are bound with routing keys "0".."partitions-1"; hashing the
+  // user id keeps each user's notifications in one partition, in order
+  private partitionKey(userId: string, partitions: number): string {
+    const hash = createHash('md5').update(userId || '').digest();
+    return String(hash.readUInt32BE(0) % partitions);
+  }
+
   // Health check
   isConnected(): boolean {
     try {
@@ -0,0 +1,52 @@
+package com.hng.PushNotificationService.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hng.PushNotificationService.dto.StatusRecord;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a status:<request_id> record as RedisService reads it: the hash layout from
+ * HGETALL, and the legacy JSON blob through the RedisTemplate value serializer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusParseBenchmark {
+
+    Map<Object, Object> hashFields;
+    byte[] legacyJson;
+    Jackson2JsonRedisSerializer<Object> serializer;
+
+    @Setup
+    public void setup() {
+        hashFields = new HashMap<>();
+        hashFields.put("status", "queued");
+        hashFields.put("updated_at", "2025-11-10T12:00:00.000Z");
+        hashFields.put("request_id", "3f1c1f9e-8a43-4f0e-9d0b-2a7c2b7f0a11");
+        hashFields.put("channel", "push");
+
+        legacyJson = ("{\"value\":{\"status\":\"queued\",\"request_id\":\"3f1c1f9e-8a43-4f0e-9d0b-2a7c2b7f0a11\","
+                + "\"channel\":\"push\",\"updated_at\":\"2025-11-10T12:00:00.000Z\",\"error_message\":null},"
+                + "\"expires\":1762862400000}").getBytes(StandardCharsets.UTF_8);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.deactivateDefaultTyping();
+        serializer = new Jackson2JsonRedisSerializer<>(objectMapper, Object.class);
+    }
+
+    @Benchmark
+    public StatusRecord parseHash() {
+        return StatusRecord.fromHash(hashFields);
+    }
+
+    @Benchmark
+    public StatusRecord parseLegacy() {
+        return StatusRecord.fromLegacy(serializer.deserialize(legacyJson));
+    }
+}
@@ -0,0 +1,71 @@
+package com.hng.PushNotificationService.benchmarks;
+
+import com.hng.PushNotificationService.util.CompiledTemplate;
+import com.hng.PushNotificationService.util.TemplateRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a push body with the cached renderer used for every message, against the replace
+ * loop it replaced.
+ * Push bodies are short plain text, so the sizes are much smaller than for email.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateRendererBenchmark {
+
+    @Param({"128", "1024"})
+    int bodyBytes;
+
+    @Param({"2", "10"})
+    int variables;
+
+    String body;
+    Map<String, Object> data;
+
+    @Setup
+    public void setup() {
+        data = new HashMap<>();
+        for (int i = 0; i < variables; i++) {
+            data.put("var_" + i, "value " + i);
+        }
+
+        StringBuilder text = new StringBuilder();
+        int word = 0;
+        while (text.length() < bodyBytes) {
+            text.append("Hi {{var_").append(word % variables).append("}}, your order ").append(word).append(" shipped. ");
+            word++;
+        }
+        body = text.toString();
+    }
+
+    @Benchmark
+    public String render() {
+        return TemplateRenderer.render(body, data);
+    }
+
+    @Benchmark
+    public String renderReplaceLoop() {
+        return replaceLoop(body, data);
+    }
+
+    @Benchmark
+    public CompiledTemplate compile() {
+        return CompiledTemplate.compile(body);
+    }
+
+    // The String.replace loop TemplateRenderer used before templates were compiled, as the baseline
+    private static String replaceLoop(String templateBody, Map<String, Object> variables) {
+        String rendered = templateBody;
+        for (Map.Entry<String, Object> e : variables.entrySet()) {
+            String placeholder = "{{" + e.getKey() + "}}";
+            String value = e.getValue() == null ? "" : e.getValue().toString();
+            rendered = rendered.replace(placeholder, value);
+        }
+        return rendered;
+    }
+}
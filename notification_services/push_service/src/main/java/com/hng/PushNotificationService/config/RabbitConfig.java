@@ -1,13 +1,38 @@
 package com.hng.PushNotificationService.config;
 
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.service.IntakeThrottle;
+import com.hng.PushNotificationService.util.CodecMessageConverter;
+import com.hng.PushNotificationService.util.JacksonBinaryMessageConverter;
+import com.hng.PushNotificationService.util.RawMessageConverter;
+import com.rabbitmq.stream.Environment;
+import com.rabbitmq.stream.NoOffsetException;
+import com.rabbitmq.stream.OffsetSpecification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.rabbit.stream.config.SuperStream;
+import org.springframework.rabbit.stream.listener.StreamListenerContainer;
+import org.springframework.rabbit.stream.listener.StreamMessageListener;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 public class RabbitConfig {
@@ -21,10 +46,72 @@ public class RabbitConfig {
     public static final String FAILED_QUEUE = "failed.queue";
     public static final String FAILED_ROUTING_KEY = "failed.routing.key";
 
+    public static final String STATUS_ROUTING_KEY = "status.routing.key";
+
+    // Delay tiers for failed send attempts: attempt n waits in tier n, then dead-letters back to push.queue
+    public static final int[] RETRY_DELAYS_MS = {2000, 4000, 8000};
+
+    public static String retryRoutingKey(int tier) {
+        return "push.retry." + (RETRY_DELAYS_MS[tier] / 1000) + "s";
+    }
+
+    // Priority lanes, used when push.lanes.enabled=true: push.queue is drained into one queue per lane
+    public static final String LANE_TRANSACTIONAL = "transactional";
+    public static final String LANE_STANDARD = "standard";
+    public static final String LANE_BULK = "bulk";
+    public static final String[] LANES = {LANE_TRANSACTIONAL, LANE_STANDARD, LANE_BULK};
+    public static final String PUSH_TRANSACTIONAL_QUEUE = PUSH_QUEUE + "." + LANE_TRANSACTIONAL;
+    public static final String PUSH_STANDARD_QUEUE = PUSH_QUEUE + "." + LANE_STANDARD;
+    public static final String PUSH_BULK_QUEUE = PUSH_QUEUE + "." + LANE_BULK;
+
+    public static String laneRoutingKey(String lane) {
+        return "push.lane." + lane;
+    }
+
+    // Stream mode, used when push.stream.enabled=true: the super stream's partitions <name>-0..<name>-(n-1)
+    // are bound with routing keys "0".."n-1", and a user's requests go to partition streamPartitionKey(user_id).
+    // Each retry tier has a queue per partition that dead-letters back into that partition.
+    public static String streamRetryRoutingKey(int tier, String partitionKey) {
+        return retryRoutingKey(tier) + "." + partitionKey;
+    }
+
+    // Same as the gateway's partitionKey: the first four bytes of md5(user_id) as an unsigned big-endian
+    // int, modulo the partition count; a missing user_id hashes as ""
+    public static String streamPartitionKey(String userId, int partitions) {
+        try {
+            byte[] hash = MessageDigest.getInstance("MD5").digest((userId == null ? "" : userId).getBytes(StandardCharsets.UTF_8));
+            long value = ((hash[0] & 0xffL) << 24) | ((hash[1] & 0xffL) << 16) | ((hash[2] & 0xffL) << 8) | (hash[3] & 0xffL);
+            return String.valueOf(value % partitions);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    // Sharded topology, used when push.shards.enabled=true: a consistent-hash exchange spreads requests
+    // over push.queue.shard.<n> by their user_id header, so every request of a user lands on one shard
+    public static final String PUSH_SHARD_EXCHANGE = "push.sharded";
+    public static final String SHARD_HASH_HEADER = "user_id";
+
+    public static String shardQueue(int shard) {
+        return PUSH_QUEUE + ".shard." + shard;
+    }
+
+    // JSON plus the binary codecs, chosen per delivery by content_type; outbound picks the encoding
+    // for messages this service publishes (retry tiers, dead letters)
     @Bean
-    public Jackson2JsonMessageConverter messageConverter() {
-        log.info("🔧 Configuring Jackson2JsonMessageConverter for RabbitMQ");
-        return new Jackson2JsonMessageConverter();
+    public MessageConverter messageConverter(@Value("${rabbitmq.codec.outbound:application/json}") String outbound) {
+        log.info("🔧 Configuring RabbitMQ message codecs (JSON, CBOR, Smile), outbound: {}", outbound);
+        String trusted = PushRequestDto.class.getPackageName();
+        return new CodecMessageConverter(new Jackson2JsonMessageConverter(), Map.of(
+                JacksonBinaryMessageConverter.CBOR, JacksonBinaryMessageConverter.cbor(trusted),
+                JacksonBinaryMessageConverter.SMILE, JacksonBinaryMessageConverter.smile(trusted)),
+                outbound);
+    }
+
+    // Named by the listeners that take the raw Message; left out of injection by type, which gets the codecs above
+    @Bean(name = RawMessageConverter.BEAN_NAME, autowireCandidate = false)
+    public MessageConverter rawMessageConverter() {
+        return new RawMessageConverter();
     }
 
     @Bean
@@ -45,6 +132,105 @@ public class RabbitConfig {
         return QueueBuilder.durable(FAILED_QUEUE).build();
     }
 
+    // Status events for the gateway and other consumers; declared here so they are routable before anyone consumes them
+    @Bean
+    public Queue statusQueue(@Value("${rabbitmq.queue.status:status.queue}") String name) {
+        log.info("🔧 Creating status queue: {}", name);
+        return QueueBuilder.durable(name).build();
+    }
+
+    // One TTL queue per retry tier; expired messages are dead-lettered to the main push routing key,
+    // or when sharded to the shard exchange, which hashes them to the user's shard again. In stream mode
+    // each tier has a queue per partition instead, dead-lettering into that partition of the super stream.
+    @Bean
+    public Declarables pushRetryTiers(DirectExchange pushExchange,
+                                      @Value("${push.stream.enabled:false}") boolean stream,
+                                      @Value("${push.stream.name:push.stream}") String streamName,
+                                      @Value("${push.stream.partitions:3}") int partitions,
+                                      @Value("${push.shards.enabled:false}") boolean sharded) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (stream) {
+            for (int tier = 0; tier < RETRY_DELAYS_MS.length; tier++) {
+                for (int partition = 0; partition < partitions; partition++) {
+                    String name = streamRetryRoutingKey(tier, String.valueOf(partition));
+                    log.info("🔧 Creating retry queue: {} (ttl {}ms)", name, RETRY_DELAYS_MS[tier]);
+                    Queue retryQueue = QueueBuilder.durable(name)
+                            .ttl(RETRY_DELAYS_MS[tier])
+                            .deadLetterExchange(streamName)
+                            .deadLetterRoutingKey(String.valueOf(partition))
+                            .build();
+                    declarables.add(retryQueue);
+                    declarables.add(BindingBuilder.bind(retryQueue).to(pushExchange).with(name));
+                }
+            }
+            return new Declarables(declarables);
+        }
+
+        String deadLetterExchange = sharded ? PUSH_SHARD_EXCHANGE : PUSH_EXCHANGE;
+        for (int tier = 0; tier < RETRY_DELAYS_MS.length; tier++) {
+            String name = retryRoutingKey(tier);
+            log.info("🔧 Creating retry queue: {} (ttl {}ms)", name, RETRY_DELAYS_MS[tier]);
+            Queue retryQueue = QueueBuilder.durable(name)
+                    .ttl(RETRY_DELAYS_MS[tier])
+                    .deadLetterExchange(deadLetterExchange)
+                    .deadLetterRoutingKey(PUSH_ROUTING_KEY)
+                    .build();
+            declarables.add(retryQueue);
+            declarables.add(BindingBuilder.bind(retryQueue).to(pushExchange).with(name));
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "push.lanes.enabled", havingValue = "true")
+    public Declarables pushLanes(DirectExchange pushExchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (String lane : LANES) {
+            log.info("🔧 Creating lane queue: {}.{}", PUSH_QUEUE, lane);
+            Queue laneQueue = QueueBuilder.durable(PUSH_QUEUE + "." + lane).build();
+            declarables.add(laneQueue);
+            declarables.add(BindingBuilder.bind(laneQueue).to(pushExchange).with(laneRoutingKey(lane)));
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "push.stream.enabled", havingValue = "true")
+    public SuperStream pushSuperStream(@Value("${push.stream.name:push.stream}") String name,
+                                       @Value("${push.stream.partitions:3}") int partitions) {
+        log.info("🔧 Creating push super stream: {} ({} partitions)", name, partitions);
+        return new SuperStream(name, partitions);
+    }
+
+    // Shard queues take single-active-consumer: every replica subscribes, one of them consumes each shard
+    // in order, and another takes over when it goes away
+    @Bean
+    @ConditionalOnExpression("${push.shards.enabled:false} and !${push.stream.enabled:false}")
+    public Declarables pushShards(@Value("${push.shards.count:8}") int shards) {
+        log.info("🔧 Creating consistent-hash exchange {} over {} shard queues", PUSH_SHARD_EXCHANGE, shards);
+        List<Declarable> declarables = new ArrayList<>();
+        Exchange shardExchange = new ExchangeBuilder(PUSH_SHARD_EXCHANGE, "x-consistent-hash")
+                .durable(true)
+                .withArgument("hash-header", SHARD_HASH_HEADER)
+                .build();
+        declarables.add(shardExchange);
+        for (int shard = 0; shard < shards; shard++) {
+            Queue shardQueue = QueueBuilder.durable(shardQueue(shard)).singleActiveConsumer().build();
+            declarables.add(shardQueue);
+            // binding key is the shard's weight on the hash ring; equal weights give equal shares
+            declarables.add(BindingBuilder.bind(shardQueue).to(shardExchange).with("1").noargs());
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${push.shards.enabled:false} and !${push.stream.enabled:false}")
+    public ShardAssignment pushShardAssignment(@Value("${push.shards.count:8}") int shards,
+                                               @Value("${push.shards.replicas:1}") int replicas,
+                                               @Value("${push.shards.replica-index:0}") int replicaIndex) {
+        return new ShardAssignment(shards, replicas, replicaIndex, RabbitConfig::shardQueue);
+    }
+
     @Bean
     public Binding pushBinding(Queue pushQueue, DirectExchange pushExchange) {
         log.info("🔧 Binding {} to {} with routing key: {}", PUSH_QUEUE, PUSH_EXCHANGE, PUSH_ROUTING_KEY);
@@ -57,16 +243,126 @@ public class RabbitConfig {
         return BindingBuilder.bind(failedQueue).to(pushExchange).with(FAILED_ROUTING_KEY);
     }
 
+    @Bean
+    public Binding statusBinding(Queue statusQueue, DirectExchange pushExchange) {
+        log.info("🔧 Binding {} to {} with routing key: {}", statusQueue.getName(), PUSH_EXCHANGE, STATUS_ROUTING_KEY);
+        return BindingBuilder.bind(statusQueue).to(pushExchange).with(STATUS_ROUTING_KEY);
+    }
+
     // Listener factory with MANUAL acknowledgment mode
     @Bean
-    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(ConnectionFactory connectionFactory) {
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle,
+            @Value("${push.virtual-threads.enabled:false}") boolean virtualThreads,
+            @Value("${push.virtual-threads.max-in-flight:500}") int maxInFlight,
+            @Value("${push.reactive.enabled:false}") boolean reactive,
+            @Value("${push.reactive.concurrency:256}") int reactiveConcurrency) {
         log.info("🔧 Configuring RabbitMQ listener factory with MANUAL acknowledgment");
         SimpleRabbitListenerContainerFactory f = new SimpleRabbitListenerContainerFactory();
         f.setConnectionFactory(connectionFactory);
         f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
-        f.setPrefetchCount(10);
-        f.setMessageConverter(messageConverter());
+        // with virtual-thread or reactive dispatch the broker has to keep every in-flight delivery unacked
+        f.setPrefetchCount(reactive ? reactiveConcurrency : virtualThreads ? maxInFlight : 10);
+        f.setMessageConverter(messageConverter);
         log.info("✅ RabbitMQ listener factory configured successfully");
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
         return f;
     }
+
+    // Shard listener factory, used when push.shards.enabled=true: one consumer per shard queue, so
+    // each shard is processed in order while the shards run in parallel
+    @Bean
+    public DirectRabbitListenerContainerFactory shardRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle) {
+        DirectRabbitListenerContainerFactory f = new DirectRabbitListenerContainerFactory();
+        f.setConnectionFactory(connectionFactory);
+        f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        f.setConsumersPerQueue(1);
+        f.setPrefetchCount(10);
+        f.setDefaultRequeueRejected(false);
+        f.setMessageConverter(messageConverter);
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
+        return f;
+    }
+
+    // Batch listener factory, used when push.batch.enabled=true.
+    // A batch is handed over once batch-size messages arrived or no message arrived for window-ms.
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            ConnectionFactory connectionFactory,
+            MessageConverter messageConverter,
+            ObjectProvider<IntakeThrottle> intakeThrottle,
+            @Value("${push.batch.size:500}") int batchSize,
+            @Value("${push.batch.window-ms:200}") long windowMs) {
+        log.info("🔧 Configuring batch listener factory (size {}, window {}ms)", batchSize, windowMs);
+        SimpleRabbitListenerContainerFactory f = new SimpleRabbitListenerContainerFactory();
+        f.setConnectionFactory(connectionFactory);
+        f.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        f.setBatchListener(true);
+        f.setConsumerBatchEnabled(true);
+        f.setBatchSize(batchSize);
+        f.setReceiveTimeout(windowMs);
+        f.setPrefetchCount(Math.max(10, batchSize));  // prefetch must cover a full batch
+        f.setDefaultRequeueRejected(false);
+        f.setMessageConverter(messageConverter);
+        intakeThrottle.ifAvailable(throttle -> f.setAdviceChain(throttle));
+        return f;
+    }
+
+    // Stream listener container, used when push.stream.enabled=true. Every replica subscribes to
+    // consumers partitions of the super stream under the same name; single active consumer makes
+    // exactly one of them read each partition, and another takes over from the stored offset
+    // when it goes away.
+    @Bean
+    @ConditionalOnProperty(name = "push.stream.enabled", havingValue = "true")
+    public StreamListenerContainer pushStreamListenerContainer(
+            Environment environment,
+            StreamMessageListener pushStreamListener,
+            @Value("${push.stream.name:push.stream}") String name,
+            @Value("${push.stream.consumer-name:push-service}") String consumerName,
+            @Value("${push.stream.consumers:3}") int consumers,
+            @Value("${push.stream.initial-offset:next}") String initialOffset) {
+        log.info("🔧 Configuring stream listener on super stream {} (consumer {}, {} consumers)", name, consumerName, consumers);
+        OffsetSpecification initial = offsetSpecification(initialOffset);
+        StreamListenerContainer container = new StreamListenerContainer(environment);
+        container.superStream(name, consumerName, consumers);
+        // offsets are stored by the listener once processing is confirmed
+        container.setConsumerCustomizer((id, builder) -> builder
+                .offset(initial)
+                .manualTrackingStrategy()
+                .builder()
+                .consumerUpdateListener(update -> {
+                    // on becoming active for a partition, resume after its stored offset
+                    try {
+                        return OffsetSpecification.offset(update.consumer().storedOffset() + 1);
+                    } catch (NoOffsetException e) {
+                        return initial;
+                    }
+                }));
+        container.setupMessageListener(pushStreamListener);
+        return container;
+    }
+
+    // first, last, next, a numeric offset or an ISO-8601 instant
+    static OffsetSpecification offsetSpecification(String value) {
+        return switch (value) {
+            case "first" -> OffsetSpecification.first();
+            case "last" -> OffsetSpecification.last();
+            case "next" -> OffsetSpecification.next();
+            default -> {
+                try {
+                    yield value.chars().allMatch(Character::isDigit)
+                            ? OffsetSpecification.offset(Long.parseLong(value))
+                            : OffsetSpecification.timestamp(Instant.parse(value).toEpochMilli());
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("push.stream.initial-offset must be first, last, next, an offset"
+                            + " or an ISO-8601 instant: " + value, e);
+                }
+            }
+        };
+    }
 }
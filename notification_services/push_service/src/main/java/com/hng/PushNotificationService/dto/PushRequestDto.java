@@ -15,4 +15,11 @@ public record PushRequestDto(
         int attempts,
         String email,
         String push_token
-) {}
+) {
+
+    public PushRequestDto withAttempts(int attempts) {
+        return new PushRequestDto(channel, request_id, user_id, template_code, subject, body,
+                timestamp, data, correlation_id, attempts, email, push_token);
+    }
+}
+
@@ -0,0 +1,106 @@
+package com.hng.PushNotificationService.listener;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands each delivery to its own virtual thread when push.virtual-threads.enabled is set,
+ * so a blocking OneSignal call no longer pins a listener thread.
+ * The consumer thread blocks once max-in-flight deliveries are running, which keeps
+ * the number of unacked messages bounded.
+ */
+@Component
+public class DeliveryDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryDispatcher.class);
+
+    private final boolean enabled;
+    private volatile int maxInFlight;
+    private final ResizableSemaphore permits;
+    private final ExecutorService executor;
+
+    public DeliveryDispatcher(@Value("${push.virtual-threads.enabled:false}") boolean enabled,
+                              @Value("${push.virtual-threads.max-in-flight:500}") int maxInFlight) {
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.permits = new ResizableSemaphore(maxInFlight);
+        this.executor = enabled ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        if (enabled) {
+            log.info("🔧 Push deliveries run on virtual threads, max in flight: {}", maxInFlight);
+        }
+    }
+
+    public void dispatch(Runnable delivery) {
+        if (!enabled) {
+            delivery.run();
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an in-flight slot", e);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    delivery.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Change max-in-flight while running. Lowering it doesn't interrupt anything: deliveries
+     * already running finish, and new ones wait until the count is under the new limit.
+     */
+    public synchronized void resize(int maxInFlight) {
+        int delta = maxInFlight - this.maxInFlight;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("{} push deliveries still in flight at shutdown; they will be redelivered", inFlight());
+        }
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
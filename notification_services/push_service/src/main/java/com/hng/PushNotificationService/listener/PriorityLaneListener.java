@@ -0,0 +1,250 @@
+package com.hng.PushNotificationService.listener;
+
+import com.hng.PushNotificationService.config.RabbitConfig;
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.RequestHead;
+import com.hng.PushNotificationService.service.ConfirmedPublisher;
+import com.hng.PushNotificationService.service.PushProcessingService;
+import com.hng.PushNotificationService.util.RawMessageConverter;
+import com.hng.PushNotificationService.util.RequestHeadReader;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hng.PushNotificationService.config.RabbitConfig.LANES;
+import static com.hng.PushNotificationService.config.RabbitConfig.LANE_BULK;
+import static com.hng.PushNotificationService.config.RabbitConfig.LANE_STANDARD;
+import static com.hng.PushNotificationService.config.RabbitConfig.LANE_TRANSACTIONAL;
+import static com.hng.PushNotificationService.config.RabbitConfig.PUSH_EXCHANGE;
+import static com.hng.PushNotificationService.config.RabbitConfig.laneRoutingKey;
+
+/**
+ * Priority lanes, enabled with push.lanes.enabled. push.queue is drained by a light router that
+ * only moves each message to its lane queue, without decoding it: the lane is taken from the
+ * x-lane header when the publisher set one, otherwise from the template_code AMQP header or a
+ * streaming read of the body's top-level fields (see RequestHeadReader). Publishers that know the
+ * lane, like the gateway with RABBITMQ_LANES=true, can skip the router and publish to the lane
+ * routing keys directly. Every lane has its own consumers, sized by push.lanes.consumers.*, so a
+ * bulk backlog cannot delay transactional pushes. With virtual threads, each lane gets its own
+ * {@link DeliveryDispatcher} holding a share of max-in-flight in proportion to its consumers, so
+ * one lane cannot take every in-flight slot either. {@link LaneBalancer} can lend the consumers
+ * of idle lanes, and their in-flight share, to the busy ones.
+ */
+@Component
+// stream mode and shards replace push.queue
+@ConditionalOnExpression("${push.lanes.enabled:false} and !${push.stream.enabled:false} and !${push.shards.enabled:false}")
+public class PriorityLaneListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PriorityLaneListener.class);
+
+    static final String LANE_HEADER = "x-lane";
+    static final String ROUTED_AT_HEADER = "x-lane-routed-at";
+    static final String LISTENER_ID_PREFIX = "push-lane-";
+    // set when the ingress delivery was itself redelivered, so a copy routed before a crash is checked in Redis
+    static final String REDELIVERED_HEADER = "x-lane-redelivered";
+
+    private final PushProcessingService processingService;
+    private final Map<String, DeliveryDispatcher> dispatchers = new HashMap<>();
+    private final int maxInFlight;
+    private final int totalConsumers;
+    private final ConfirmedPublisher publisher;
+    private final Set<String> transactionalTemplates;
+    private final Set<String> bulkTemplates;
+    private final Map<String, Counter> routed = new HashMap<>();
+    private final Map<String, Timer> lag = new HashMap<>();
+    private final Map<String, LongAdder> started = new HashMap<>();
+
+    public PriorityLaneListener(PushProcessingService processingService,
+                                ConfirmedPublisher publisher,
+                                MeterRegistry meterRegistry,
+                                @Value("${push.lanes.transactional-templates:}") String transactionalTemplates,
+                                @Value("${push.lanes.bulk-templates:}") String bulkTemplates,
+                                @Value("${push.lanes.consumers.transactional:4}") int transactionalConsumers,
+                                @Value("${push.lanes.consumers.standard:2}") int standardConsumers,
+                                @Value("${push.lanes.consumers.bulk:1}") int bulkConsumers,
+                                @Value("${push.virtual-threads.enabled:false}") boolean virtualThreads,
+                                @Value("${push.virtual-threads.max-in-flight:500}") int maxInFlight) {
+        this.processingService = processingService;
+        this.maxInFlight = maxInFlight;
+        this.totalConsumers = transactionalConsumers + standardConsumers + bulkConsumers;
+        dispatchers.put(LANE_TRANSACTIONAL, laneDispatcher(virtualThreads, maxInFlight, transactionalConsumers, totalConsumers));
+        dispatchers.put(LANE_STANDARD, laneDispatcher(virtualThreads, maxInFlight, standardConsumers, totalConsumers));
+        dispatchers.put(LANE_BULK, laneDispatcher(virtualThreads, maxInFlight, bulkConsumers, totalConsumers));
+        this.publisher = publisher;
+        this.transactionalTemplates = templateSet(transactionalTemplates);
+        this.bulkTemplates = templateSet(bulkTemplates);
+        for (String lane : LANES) {
+            routed.put(lane, Counter.builder("notification.lane.routed")
+                    .tag("lane", lane)
+                    .description("Messages routed from the ingress queue to a lane")
+                    .register(meterRegistry));
+            started.put(lane, new LongAdder());
+            lag.put(lane, Timer.builder("notification.lane.lag")
+                    .tag("lane", lane)
+                    .description("Time a message waited in its lane queue before processing started")
+                    .register(meterRegistry));
+        }
+        log.info("🔧 Priority lanes enabled (transactional templates {}, bulk templates {})",
+                this.transactionalTemplates, this.bulkTemplates);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push}", concurrency = "${push.lanes.router-consumers:2}",
+            messageConverter = RawMessageConverter.BEAN_NAME)
+    public void route(Message message, Channel channel) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        // the body is never decoded here; a head that can't be read goes to the standard lane, whose consumer decodes it
+        RequestHead head = null;
+        Object laneHeader = message.getMessageProperties().getHeader(LANE_HEADER);
+        if (!isLane(laneHeader)) {
+            head = RequestHeadReader.read(message);
+        }
+        String lane = laneFor(laneHeader, head);
+        try {
+            // forward the original bytes; only the lane headers are added
+            message.getMessageProperties().setHeader(LANE_HEADER, lane);
+            message.getMessageProperties().setHeader(ROUTED_AT_HEADER, System.currentTimeMillis());
+            if (Boolean.TRUE.equals(message.getMessageProperties().isRedelivered())) {
+                message.getMessageProperties().setHeader(REDELIVERED_HEADER, true);
+            }
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                publisher.send(PUSH_EXCHANGE, laneRoutingKey(lane), message);
+                confirmed = scope.confirmed();
+            }
+            routed.get(lane).increment();
+            // an unconfirmed forward is requeued on the ingress queue, like a failed one
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head == null ? null : head.request_id());
+        } catch (Exception e) {
+            log.error("Failed to route request {} to lane {}: {}", head == null ? null : head.request_id(), lane, e.getMessage());
+            try {
+                // routing failures are transient, keep the message on the ingress queue
+                channel.basicNack(deliveryTag, false, true);
+            } catch (Exception nackEx) {
+                log.error("Failed to nack message: {}", nackEx.getMessage());
+            }
+        }
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_TRANSACTIONAL, queues = RabbitConfig.PUSH_TRANSACTIONAL_QUEUE,
+            concurrency = "${push.lanes.consumers.transactional:4}")
+    public void onTransactional(PushRequestDto request, Message message, Channel channel) {
+        handle(LANE_TRANSACTIONAL, request, message, channel);
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_STANDARD, queues = RabbitConfig.PUSH_STANDARD_QUEUE,
+            concurrency = "${push.lanes.consumers.standard:2}")
+    public void onStandard(PushRequestDto request, Message message, Channel channel) {
+        handle(LANE_STANDARD, request, message, channel);
+    }
+
+    @RabbitListener(id = LISTENER_ID_PREFIX + LANE_BULK, queues = RabbitConfig.PUSH_BULK_QUEUE,
+            concurrency = "${push.lanes.consumers.bulk:1}")
+    public void onBulk(PushRequestDto request, Message message, Channel channel) {
+        handle(LANE_BULK, request, message, channel);
+    }
+
+    private void handle(String lane, PushRequestDto request, Message message, Channel channel) {
+        started.get(lane).increment();
+        Object routedAt = message.getMessageProperties().getHeader(ROUTED_AT_HEADER);
+        if (routedAt instanceof Number millis) {
+            lag.get(lane).record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - millis.longValue())));
+        }
+
+        String correlationId = message.getMessageProperties().getHeader("correlation_id");
+        if (correlationId == null) {
+            correlationId = message.getMessageProperties().getCorrelationId();
+        }
+        if (correlationId == null) correlationId = request.request_id();
+
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        boolean redelivered = Boolean.TRUE.equals(message.getMessageProperties().isRedelivered())
+                || Boolean.TRUE.equals(message.getMessageProperties().getHeader(REDELIVERED_HEADER));
+        String resolvedCorrelationId = correlationId;
+        dispatchers.get(lane).dispatch(() -> {
+            try {
+                CompletableFuture<Void> confirmed;
+                try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                    processingService.process(request, resolvedCorrelationId, redelivered);
+                    confirmed = scope.confirmed();
+                }
+                publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, request.request_id());
+            } catch (Exception e) {
+                log.error("Failed to process push notification {}: {}", request.request_id(), e.getMessage(), e);
+                try {
+                    // Negative acknowledgment - requeue=false (send to DLQ if configured)
+                    channel.basicNack(deliveryTag, false, false);
+                } catch (Exception nackEx) {
+                    log.error("Failed to nack message: {}", nackEx.getMessage());
+                }
+            }
+        });
+    }
+
+    // keeps a lane's share of max-in-flight in proportion to the consumers LaneBalancer gave it
+    void resizeDispatcher(String lane, int consumers) {
+        dispatchers.get(lane).resize(laneShare(maxInFlight, consumers, totalConsumers));
+    }
+
+    private static DeliveryDispatcher laneDispatcher(boolean virtualThreads, int maxInFlight, int consumers, int totalConsumers) {
+        return new DeliveryDispatcher(virtualThreads, laneShare(maxInFlight, consumers, totalConsumers));
+    }
+
+    private static int laneShare(int maxInFlight, int consumers, int totalConsumers) {
+        return Math.max(1, maxInFlight * consumers / totalConsumers);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (DeliveryDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.shutdown();
+        }
+    }
+
+    // deliveries a lane has started so far, so LaneBalancer can tell a drained lane from an idle one
+    long started(String lane) {
+        return started.get(lane).sum();
+    }
+
+    private String laneFor(Object laneHeader, RequestHead head) {
+        if (isLane(laneHeader)) {
+            return laneHeader.toString();
+        }
+        String templateCode = head == null ? null : head.template_code();
+        if (templateCode != null && transactionalTemplates.contains(templateCode)) {
+            return LANE_TRANSACTIONAL;
+        }
+        if (templateCode != null && bulkTemplates.contains(templateCode)) {
+            return LANE_BULK;
+        }
+        return LANE_STANDARD;
+    }
+
+    private static boolean isLane(Object laneHeader) {
+        return laneHeader != null && Arrays.asList(LANES).contains(laneHeader.toString());
+    }
+
+    private static Set<String> templateSet(String codes) {
+        return Arrays.stream(codes.split(","))
+                .map(String::trim)
+                .filter(code -> !code.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,78 @@
+package com.hng.PushNotificationService.listener;
+
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.service.ConfirmedPublisher;
+import com.hng.PushNotificationService.service.PushBatchProcessingService;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.messaging.Message;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Component
+// priority lanes take over push.queue when enabled, and consume per message; stream mode and shards replace push.queue
+@ConditionalOnExpression("${push.batch.enabled:false} and !${push.lanes.enabled:false} and !${push.stream.enabled:false} and !${push.shards.enabled:false}")
+public class PushBatchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PushBatchListener.class);
+    private final PushBatchProcessingService batchProcessingService;
+    private final ConfirmedPublisher publisher;
+
+    public PushBatchListener(PushBatchProcessingService batchProcessingService, ConfirmedPublisher publisher) {
+        this.batchProcessingService = batchProcessingService;
+        this.publisher = publisher;
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push}", containerFactory = "batchRabbitListenerContainerFactory")
+    public void onBatch(List<Message<PushRequestDto>> messages, Channel channel) {
+        List<PushRequestDto> requests = new ArrayList<>(messages.size());
+        List<String> correlationIds = new ArrayList<>(messages.size());
+        List<Boolean> redelivered = new ArrayList<>(messages.size());
+        for (Message<PushRequestDto> message : messages) {
+            PushRequestDto request = message.getPayload();
+            String correlationId = message.getHeaders().get("correlation_id", String.class);
+            if (correlationId == null) {
+                correlationId = message.getHeaders().get(AmqpHeaders.CORRELATION_ID, String.class);
+            }
+            if (correlationId == null) correlationId = request.request_id();
+            requests.add(request);
+            correlationIds.add(correlationId);
+            redelivered.add(Boolean.TRUE.equals(message.getHeaders().get(AmqpHeaders.REDELIVERED, Boolean.class)));
+        }
+
+        List<PushBatchProcessingService.Outcome> outcomes;
+        try {
+            outcomes = batchProcessingService.processBatch(requests, correlationIds, redelivered);
+        } catch (Exception e) {
+            log.error("Failed to process batch of {} push messages", messages.size(), e);
+            outcomes = Collections.nCopies(messages.size(),
+                    new PushBatchProcessingService.Outcome(false, CompletableFuture.completedFuture(null)));
+        }
+
+        // each ack waits only for that message's own status and dead-letter publishes
+        for (int i = 0; i < messages.size(); i++) {
+            Long deliveryTag = messages.get(i).getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+            String requestId = requests.get(i).request_id();
+            if (outcomes.get(i).processed()) {
+                publisher.ackWhenConfirmed(outcomes.get(i).confirmed(), channel, deliveryTag, requestId);
+                continue;
+            }
+            try {
+                // Negative acknowledgment - requeue=false (send to DLQ if configured)
+                channel.basicNack(deliveryTag, false, false);
+                log.warn("Message rejected for request: {}", requestId);
+            } catch (Exception e) {
+                log.error("Failed to nack message for request {}: {}", requestId, e.getMessage());
+            }
+        }
+        log.info("Finished batch of {} push messages", messages.size());
+    }
+}
@@ -1,51 +1,97 @@
 package com.hng.PushNotificationService.listener;
 
 import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.RequestHead;
+import com.hng.PushNotificationService.service.ConfirmedPublisher;
 import com.hng.PushNotificationService.service.PushProcessingService;
+import com.hng.PushNotificationService.util.RawMessageConverter;
+import com.hng.PushNotificationService.util.RequestHeadReader;
 import com.rabbitmq.client.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Takes the raw message and reads only its head up front; the full request is decoded on the
+ * delivery thread after the idempotency check, so duplicates are acked without parsing body and data.
+ */
 @Component
+@ConditionalOnProperty(name = {"push.batch.enabled", "push.reactive.enabled", "push.lanes.enabled", "push.stream.enabled", "push.shards.enabled"}, havingValue = "false", matchIfMissing = true)
 public class PushQueueListener {
 
     private static final Logger log = LoggerFactory.getLogger(PushQueueListener.class);
     private final PushProcessingService processingService;
+    private final DeliveryDispatcher dispatcher;
+    private final ConfirmedPublisher publisher;
+    private final MessageConverter messageConverter;
 
-    public PushQueueListener(PushProcessingService processingService) {
+    public PushQueueListener(PushProcessingService processingService, DeliveryDispatcher dispatcher,
+                             ConfirmedPublisher publisher, MessageConverter messageConverter) {
         this.processingService = processingService;
+        this.dispatcher = dispatcher;
+        this.publisher = publisher;
+        this.messageConverter = messageConverter;
     }
 
-    @RabbitListener(queues = "${rabbitmq.queue.push}")
-    public void onMessage(PushRequestDto request, Message message, Channel channel) {
+    @RabbitListener(queues = "${rabbitmq.queue.push}", messageConverter = RawMessageConverter.BEAN_NAME)
+    public void onMessage(Message message, Channel channel) {
+        RequestHead head = RequestHeadReader.read(message);
+        Supplier<PushRequestDto> decode = () -> decode(message);
+        if (head == null) {
+            // head not readable on its own; decode everything up front as before
+            PushRequestDto request = decode(message);
+            head = RequestHead.of(request);
+            decode = () -> request;
+        }
+
         String correlationId = message.getMessageProperties().getHeader("correlation_id");
         if (correlationId == null) {
             correlationId = message.getMessageProperties().getCorrelationId();
         }
-        if (correlationId == null) correlationId = request.request_id();
+        if (correlationId == null) correlationId = head.request_id();
 
         long deliveryTag = message.getMessageProperties().getDeliveryTag();
-        
+        boolean redelivered = Boolean.TRUE.equals(message.getMessageProperties().isRedelivered());
+        String resolvedCorrelationId = correlationId;
+        RequestHead resolvedHead = head;
+        Supplier<PushRequestDto> resolvedDecode = decode;
+        dispatcher.dispatch(() -> handle(resolvedHead, resolvedDecode, resolvedCorrelationId, redelivered, channel, deliveryTag));
+    }
+
+    private void handle(RequestHead head, Supplier<PushRequestDto> decode, String correlationId, boolean redelivered,
+                        Channel channel, long deliveryTag) {
         try {
-            log.info("Received push notification request: {}", request.request_id());
-            processingService.process(request, correlationId);
-            
-            // Acknowledge the message after successful processing
-            channel.basicAck(deliveryTag, false);
-            log.info("Message acknowledged for request: {}", request.request_id());
-            
+            log.debug("Received push notification request: {}", head.request_id());
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                processingService.process(head, decode, correlationId, redelivered);
+                confirmed = scope.confirmed();
+            }
+
+            // Acknowledge the message once processing is done and its outbound publishes are confirmed
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head.request_id());
+
         } catch (Exception e) {
-            log.error("Failed to process push notification {}: {}", request.request_id(), e.getMessage(), e);
+            log.error("Failed to process push notification {}: {}", head.request_id(), e.getMessage(), e);
             try {
                 // Negative acknowledgment - requeue=false (send to DLQ if configured)
                 channel.basicNack(deliveryTag, false, false);
-                log.warn("Message rejected for request: {}", request.request_id());
+                log.warn("Message rejected for request: {}", head.request_id());
             } catch (Exception nackEx) {
                 log.error("Failed to nack message: {}", nackEx.getMessage());
             }
         }
     }
+
+    private PushRequestDto decode(Message message) {
+        message.getMessageProperties().setInferredArgumentType(PushRequestDto.class);
+        return (PushRequestDto) messageConverter.fromMessage(message);
+    }
 }
@@ -0,0 +1,123 @@
+package com.hng.PushNotificationService.listener;
+
+import com.hng.PushNotificationService.config.ShardAssignment;
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.RequestHead;
+import com.hng.PushNotificationService.service.ConfirmedPublisher;
+import com.hng.PushNotificationService.service.PushProcessingService;
+import com.hng.PushNotificationService.util.RawMessageConverter;
+import com.hng.PushNotificationService.util.RequestHeadReader;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Sharded consumption, enabled with push.shards.enabled. Requests arrive on push.queue.shard.*
+ * through the consistent-hash exchange instead of push.queue. This replica starts on the shards it
+ * owns (see {@link ShardAssignment}) and subscribes to the rest as a standby after
+ * push.shards.standby-delay-ms. Each shard has one consumer and deliveries run on it rather than
+ * on virtual threads, so one user's pushes are processed in the order they were published. A push
+ * that is retried rejoins its shard behind the ones published after it.
+ */
+@Component
+// stream mode replaces the shard queues
+@ConditionalOnExpression("${push.shards.enabled:false} and !${push.stream.enabled:false}")
+public class PushShardListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PushShardListener.class);
+
+    static final String LISTENER_ID = "push-shards";
+
+    private final PushProcessingService processingService;
+    private final ConfirmedPublisher publisher;
+    private final MessageConverter messageConverter;
+    private final ShardAssignment assignment;
+    private final RabbitListenerEndpointRegistry registry;
+    private final long standbyDelayMs;
+
+    public PushShardListener(PushProcessingService processingService, ConfirmedPublisher publisher,
+                             MessageConverter messageConverter, ShardAssignment assignment,
+                             RabbitListenerEndpointRegistry registry,
+                             @Value("${push.shards.standby-delay-ms:10000}") long standbyDelayMs) {
+        this.processingService = processingService;
+        this.publisher = publisher;
+        this.messageConverter = messageConverter;
+        this.assignment = assignment;
+        this.registry = registry;
+        this.standbyDelayMs = standbyDelayMs;
+        log.info("🔧 Sharded consumption enabled, owned shards {}", Arrays.toString(assignment.ownedQueues()));
+    }
+
+    @RabbitListener(id = LISTENER_ID, containerFactory = "shardRabbitListenerContainerFactory",
+            queues = "#{@pushShardAssignment.ownedQueues()}", messageConverter = RawMessageConverter.BEAN_NAME)
+    public void onMessage(Message message, Channel channel) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        RequestHead head = null;
+        try {
+            head = RequestHeadReader.read(message);
+            Supplier<PushRequestDto> decode = () -> decode(message);
+            if (head == null) {
+                PushRequestDto request = decode(message);
+                head = RequestHead.of(request);
+                decode = () -> request;
+            }
+
+            String correlationId = message.getMessageProperties().getHeader("correlation_id");
+            if (correlationId == null) {
+                correlationId = message.getMessageProperties().getCorrelationId();
+            }
+            if (correlationId == null) correlationId = head.request_id();
+
+            CompletableFuture<Void> confirmed;
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                processingService.process(head, decode, correlationId,
+                        Boolean.TRUE.equals(message.getMessageProperties().isRedelivered()));
+                confirmed = scope.confirmed();
+            }
+
+            publisher.ackWhenConfirmed(confirmed, channel, deliveryTag, head.request_id());
+
+        } catch (Exception e) {
+            log.error("Failed to process push notification {}: {}", head == null ? null : head.request_id(), e.getMessage(), e);
+            try {
+                // Negative acknowledgment - requeue=false (send to DLQ if configured)
+                channel.basicNack(deliveryTag, false, false);
+            } catch (Exception nackEx) {
+                log.error("Failed to nack message: {}", nackEx.getMessage());
+            }
+        }
+    }
+
+    // The owners of the other shards have had standby-delay-ms to subscribe first
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeStandby() {
+        String[] standby = assignment.standbyQueues();
+        if (standby.length == 0) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(standbyDelayMs, TimeUnit.MILLISECONDS).execute(() -> {
+            ((DirectMessageListenerContainer) registry.getListenerContainer(LISTENER_ID)).addQueueNames(standby);
+            log.info("Subscribed as standby to shards {}", Arrays.toString(standby));
+        });
+    }
+
+    private PushRequestDto decode(Message message) {
+        message.getMessageProperties().setInferredArgumentType(PushRequestDto.class);
+        return (PushRequestDto) messageConverter.fromMessage(message);
+    }
+}
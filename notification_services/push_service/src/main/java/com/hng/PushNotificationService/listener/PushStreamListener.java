@@ -0,0 +1,164 @@
+package com.hng.PushNotificationService.listener;
+
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.RequestHead;
+import com.hng.PushNotificationService.service.ConfirmedPublisher;
+import com.hng.PushNotificationService.service.PushProcessingService;
+import com.hng.PushNotificationService.util.RequestHeadReader;
+import com.rabbitmq.stream.MessageHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.rabbit.stream.listener.StreamMessageListener;
+import org.springframework.rabbit.stream.support.StreamMessageProperties;
+import org.springframework.rabbit.stream.support.converter.DefaultStreamMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Stream consumption mode, enabled with push.stream.enabled: push requests are read from the
+ * partitions of the push.stream.name super stream instead of push.queue (see
+ * RabbitConfig#pushStreamListenerContainer). Each partition is consumed in order, one message at
+ * a time, by the one active consumer for it across all replicas.
+ *
+ * There is no ack; instead the consumer's offset is stored on the broker every
+ * push.stream.commit-every messages, once every message up to that one has been processed and its
+ * outbound publishes are confirmed. A delivery whose publishes can't be confirmed is replayed on
+ * the partition's consumer thread before its next message, up to MAX_REPLAYS times, holding the
+ * stored offset back meanwhile; the replay runs the idempotency check again, so a request already
+ * sent only has its status event republished. After the last replay the delivery is given up like
+ * one that failed to process, and the offset moves on. A restart or failover replays the partition
+ * from the stored offset; requests already delivered are skipped by the idempotency check.
+ */
+@Component
+@ConditionalOnProperty(name = "push.stream.enabled", havingValue = "true")
+public class PushStreamListener implements StreamMessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PushStreamListener.class);
+
+    private static final int MAX_REPLAYS = 3;
+
+    // a decoded-enough delivery that can be processed again
+    private record Delivery(RequestHead head, Supplier<PushRequestDto> decode, String correlationId, String stream, long offset) {}
+
+    private record Replay(Delivery delivery, int attempt, CompletableFuture<Void> done) {}
+
+    // per partition: confirmation of everything processed so far, messages since the last stored
+    // offset, and deliveries whose publishes failed, waiting to be replayed on the consumer thread
+    private static final class Progress {
+        CompletableFuture<Void> confirmed = CompletableFuture.completedFuture(null);
+        int sinceCommit;
+        final Queue<Replay> replays = new ConcurrentLinkedQueue<>();
+    }
+
+    private final PushProcessingService processingService;
+    private final ConfirmedPublisher publisher;
+    private final MessageConverter messageConverter;
+    private final DefaultStreamMessageConverter streamConverter = new DefaultStreamMessageConverter();
+    private final int commitEvery;
+    private final Map<String, Progress> partitions = new ConcurrentHashMap<>();
+
+    public PushStreamListener(PushProcessingService processingService, ConfirmedPublisher publisher,
+                              MessageConverter messageConverter,
+                              @Value("${push.stream.commit-every:100}") int commitEvery) {
+        this.processingService = processingService;
+        this.publisher = publisher;
+        this.messageConverter = messageConverter;
+        this.commitEvery = Math.max(1, commitEvery);
+    }
+
+    @Override
+    public void onStreamMessage(com.rabbitmq.stream.Message streamMessage, MessageHandler.Context context) {
+        Progress progress = partitions.computeIfAbsent(context.stream(), s -> new Progress());
+        replayFailed(progress);
+
+        CompletableFuture<Void> confirmed = CompletableFuture.completedFuture(null);
+        RequestHead head = null;
+        try {
+            // AMQP properties and headers of the original publish come back as message properties
+            Message message = streamConverter.toMessage(streamMessage, new StreamMessageProperties(context));
+            head = RequestHeadReader.read(message);
+            Supplier<PushRequestDto> decode = () -> decode(message);
+            if (head == null) {
+                PushRequestDto request = decode(message);
+                head = RequestHead.of(request);
+                decode = () -> request;
+            }
+
+            String correlationId = message.getMessageProperties().getHeader("correlation_id");
+            if (correlationId == null) {
+                correlationId = message.getMessageProperties().getCorrelationId();
+            }
+            if (correlationId == null) correlationId = head.request_id();
+
+            Delivery delivery = new Delivery(head, decode, correlationId, context.stream(), context.offset());
+            confirmed = settle(progress, delivery, deliver(delivery), 0);
+        } catch (Exception e) {
+            // nothing to reject on a stream; the message is skipped like a rejected delivery
+            log.error("Failed to process push notification {} at {} offset {}: {}",
+                    head == null ? null : head.request_id(), context.stream(), context.offset(), e.getMessage(), e);
+        }
+
+        // settled futures never fail, so one lost confirm can't hold every later offset back
+        progress.confirmed = progress.confirmed.thenCombine(confirmed, (a, b) -> null);
+        if (++progress.sinceCommit >= commitEvery) {
+            progress.sinceCommit = 0;
+            progress.confirmed.thenRun(context::storeOffset);
+        }
+    }
+
+    private CompletableFuture<Void> deliver(Delivery delivery) {
+        try (ConfirmedPublisher.Scope scope = publisher.open()) {
+            // any offset after the stored one may be a replay, so every message counts as redelivered
+            processingService.process(delivery.head(), delivery.decode(), delivery.correlationId(), true);
+            return scope.confirmed();
+        }
+    }
+
+    // Completes once the delivery's publishes are confirmed, by a replay if need be, or it is given up
+    private CompletableFuture<Void> settle(Progress progress, Delivery delivery, CompletableFuture<Void> confirmed, int replays) {
+        return confirmed.exceptionallyCompose(error -> {
+            if (replays >= MAX_REPLAYS) {
+                log.error("Giving up on push notification {} at {} offset {}: publishes not confirmed after {} replays: {}",
+                        delivery.head().request_id(), delivery.stream(), delivery.offset(), replays, error.getMessage());
+                return CompletableFuture.completedFuture(null);
+            }
+            log.warn("Publishes for push notification {} at {} offset {} not confirmed, replaying it: {}",
+                    delivery.head().request_id(), delivery.stream(), delivery.offset(), error.getMessage());
+            CompletableFuture<Void> replayed = new CompletableFuture<>();
+            progress.replays.add(new Replay(delivery, replays + 1, replayed));
+            return replayed;
+        });
+    }
+
+    // Runs on the partition's consumer thread, so a replay never overlaps the partition's next message
+    private void replayFailed(Progress progress) {
+        Replay replay;
+        while ((replay = progress.replays.poll()) != null) {
+            CompletableFuture<Void> confirmed;
+            try {
+                confirmed = deliver(replay.delivery());
+            } catch (Exception e) {
+                log.error("Failed to replay push notification {} at {} offset {}: {}", replay.delivery().head().request_id(),
+                        replay.delivery().stream(), replay.delivery().offset(), e.getMessage(), e);
+                confirmed = CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> done = replay.done();
+            settle(progress, replay.delivery(), confirmed, replay.attempt()).thenRun(() -> done.complete(null));
+        }
+    }
+
+    private PushRequestDto decode(Message message) {
+        message.getMessageProperties().setInferredArgumentType(PushRequestDto.class);
+        return (PushRequestDto) messageConverter.fromMessage(message);
+    }
+}
@@ -0,0 +1,93 @@
+package com.hng.PushNotificationService.listener;
+
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.service.PushProcessingService;
+import com.rabbitmq.client.Channel;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+
+/**
+ * Reactive consumption mode, enabled with push.reactive.enabled. The listener only hands each
+ * delivery to a {@link Sinks.Many}; a single {@code flatMap} runs up to push.reactive.concurrency
+ * deliveries at once through {@link PushProcessingService#processAsync} and acks each one as it
+ * completes. Prefetch is set to the same limit, so the broker never has more unacked messages
+ * outstanding than the pipeline can run.
+ */
+@Component
+// priority lanes take over push.queue when enabled, and consume per message; stream mode and shards replace push.queue
+@ConditionalOnExpression("${push.reactive.enabled:false} and !${push.lanes.enabled:false} and !${push.stream.enabled:false} and !${push.shards.enabled:false}")
+public class ReactivePushListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactivePushListener.class);
+
+    private record Delivery(PushRequestDto request, String correlationId, boolean redelivered, Channel channel, long deliveryTag) {}
+
+    private final Sinks.Many<Delivery> deliveries = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable pipeline;
+
+    public ReactivePushListener(PushProcessingService processingService,
+                                @Value("${push.reactive.concurrency:256}") int concurrency) {
+        this.pipeline = deliveries.asFlux()
+                .flatMap(d -> processingService.processAsync(d.request(), d.correlationId(), d.redelivered())
+                        .then(Mono.fromRunnable(() -> ack(d)))
+                        .onErrorResume(e -> {
+                            log.error("Failed to process push notification {}: {}", d.request().request_id(), e.getMessage(), e);
+                            nack(d, e instanceof AmqpException);
+                            return Mono.empty();
+                        }), concurrency)
+                .subscribe();
+        log.info("🔧 Reactive push pipeline started, concurrency: {}", concurrency);
+    }
+
+    @RabbitListener(queues = "${rabbitmq.queue.push}")
+    public void onMessage(PushRequestDto request, Message message, Channel channel) {
+        String correlationId = message.getMessageProperties().getHeader("correlation_id");
+        if (correlationId == null) {
+            correlationId = message.getMessageProperties().getCorrelationId();
+        }
+        if (correlationId == null) correlationId = request.request_id();
+
+        // retried briefly when another consumer thread is emitting at the same moment
+        MessageProperties properties = message.getMessageProperties();
+        deliveries.emitNext(new Delivery(request, correlationId, Boolean.TRUE.equals(properties.isRedelivered()),
+                        channel, properties.getDeliveryTag()),
+                Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    private void ack(Delivery d) {
+        try {
+            d.channel().basicAck(d.deliveryTag(), false);
+        } catch (Exception e) {
+            log.error("Failed to ack message for request {}: {}", d.request().request_id(), e.getMessage());
+        }
+    }
+
+    private void nack(Delivery d, boolean requeue) {
+        try {
+            // requeue=false sends to DLQ if configured; requeue=true when an outbound publish wasn't confirmed
+            d.channel().basicNack(d.deliveryTag(), false, requeue);
+        } catch (Exception e) {
+            log.error("Failed to nack message for request {}: {}", d.request().request_id(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // in-flight deliveries keep running; anything not acked by then is redelivered
+        deliveries.tryEmitComplete();
+        log.info("Reactive push pipeline stopped accepting deliveries");
+    }
+}
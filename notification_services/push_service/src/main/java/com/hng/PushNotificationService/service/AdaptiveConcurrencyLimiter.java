@@ -0,0 +1,221 @@
+package com.hng.PushNotificationService.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * AIMD limit on concurrent calls to a provider. The limit grows by one per window of completed
+ * calls while the round trip stays within TOLERANCE x the long-run average, and is cut by
+ * BACKOFF when a call signals congestion (an exception, or a result the caller's congested test
+ * accepts, such as a 429, a 5xx or no response) or is that much slower. A refused request, e.g. a
+ * 4xx over a bad recipient, says nothing about load and doesn't cut the limit. Calls that were
+ * already in flight when the limit was last cut saw the same congestion and don't cut it again,
+ * so a burst of failures costs one BACKOFF per round trip instead of one per call. Only the
+ * provider call runs inside a slot; the shared rate permit is taken before it, so the round trip
+ * measured is the provider's own.
+ *
+ * Callers that find the limit reached wait up to max-wait for a slot, and a caller that still
+ * gets no slot is rejected and treats the send as failed. That wait is only the last resort:
+ * with adjust-prefetch, {@link IntakeThrottle} also applies the limit to the listener channels'
+ * prefetch, so the broker stops delivering more than the provider can currently take.
+ *
+ * The reactive pipeline polls for a slot instead of blocking; its pending flatMap slots
+ * are what hold back intake there.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+    private static final double RTT_SMOOTHING = 0.01;
+    private static final Duration ASYNC_POLL_INTERVAL = Duration.ofMillis(10);
+
+    private final String provider;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private double longRttNanos = -1;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    private final Counter rejections;
+
+    AdaptiveConcurrencyLimiter(String provider, MeterRegistry meterRegistry, boolean enabled,
+                               int initialLimit, int minLimit, int maxLimit, long maxWaitMs) {
+        this.provider = provider;
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("provider.limiter.limit", this, AdaptiveConcurrencyLimiter::limit)
+                .tag("provider", provider)
+                .description("Current concurrency limit for provider calls")
+                .register(meterRegistry);
+        Gauge.builder("provider.limiter.inflight", this, AdaptiveConcurrencyLimiter::inFlight)
+                .tag("provider", provider)
+                .description("Provider calls currently in flight")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("provider.limiter.rejections")
+                .tag("provider", provider)
+                .description("Provider calls rejected after waiting max-wait for a slot")
+                .register(meterRegistry);
+
+        if (enabled) {
+            log.info("Adaptive concurrency limit for {} enabled (initial {}, min {}, max {}, max wait {}ms)",
+                    provider, initialLimit, minLimit, maxLimit, maxWaitMs);
+        }
+    }
+
+    /**
+     * Run a provider call inside the limit; congested tells whether a result means the provider is
+     * overloaded. Returns whenRejected without calling the provider when no slot frees up within
+     * max-wait.
+     */
+    <T> T call(Callable<T> send, Predicate<T> congested, T whenRejected) throws Exception {
+        if (!enabled) {
+            return send.call();
+        }
+        if (!acquire()) {
+            log.warn("{} concurrency limit of {} reached, rejecting call", provider, (int) limit());
+            return whenRejected;
+        }
+        long start = System.nanoTime();
+        boolean overloaded = true;
+        try {
+            T result = send.call();
+            overloaded = congested.test(result);
+            return result;
+        } finally {
+            release(start, overloaded);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #call}: completes with whenRejected without calling the provider when no
+     * slot frees up within max-wait, or when the call completes empty.
+     */
+    <T> Mono<T> callAsync(Supplier<Mono<T>> send, Predicate<T> congested, T whenRejected) {
+        if (!enabled) {
+            return Mono.defer(send);
+        }
+        return Mono.defer(() -> acquireAsync(System.nanoTime() + maxWaitNanos))
+                .flatMap(acquired -> {
+                    if (!acquired) {
+                        log.warn("{} concurrency limit of {} reached, rejecting call", provider, (int) limit());
+                        return Mono.just(whenRejected);
+                    }
+                    long start = System.nanoTime();
+                    AtomicBoolean overloaded = new AtomicBoolean(true);
+                    return Mono.defer(send)
+                            .defaultIfEmpty(whenRejected)
+                            .doOnNext(result -> overloaded.set(congested.test(result)))
+                            .doFinally(signal -> release(start, overloaded.get()));
+                });
+    }
+
+    private Mono<Boolean> acquireAsync(long deadlineNanos) {
+        if (tryAcquire()) {
+            return Mono.just(true);
+        }
+        if (System.nanoTime() >= deadlineNanos) {
+            rejections.increment();
+            return Mono.just(false);
+        }
+        return Mono.delay(ASYNC_POLL_INTERVAL).then(Mono.defer(() -> acquireAsync(deadlineNanos)));
+    }
+
+    private boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejections.increment();
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long startNanos, boolean congested) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long rttNanos = now - startNanos;
+            inFlight--;
+            if (congested || (longRttNanos > 0 && rttNanos > longRttNanos * TOLERANCE)) {
+                // at most one cut per round trip: a call started before the last cut saw the same congestion
+                if (startNanos - lastDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, limit * BACKOFF);
+                    lastDecreaseNanos = now;
+                }
+            } else if (inFlight + 1 >= limit / 2) {
+                // only grow while the current limit is actually being used
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            if (!congested) {
+                longRttNanos = longRttNanos < 0 ? rttNanos : longRttNanos + (rttNanos - longRttNanos) * RTT_SMOOTHING;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.hng.PushNotificationService.service;
+
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Feeds the OneSignal concurrency limit back into how much the listeners take from the broker,
+ * enabled with onesignal.limiter.adjust-prefetch. It sits in the advice chain of the listener
+ * container factories, so it runs on the consumer's own thread before each delivery reaches the
+ * listener. When the limit has moved to another whole slot since that channel was last set, the
+ * channel gets a channel-wide prefetch (basic.qos with global=true) of limit x prefetch-per-slot.
+ * Only consumer channels are touched, and only from the container thread delivering to them. When
+ * OneSignal slows down and the limit is cut, the broker stops handing this replica deliveries it
+ * couldn't start on anyway, and they stay in the queue for the other replicas instead of piling
+ * up in the dispatcher behind callers waiting for a slot.
+ *
+ * A channel picks up a new prefetch with its next delivery. The per-consumer prefetch of the
+ * container factories still applies on top, so this can only lower intake. In batch mode one call
+ * sends a whole batch; set prefetch-per-slot to push.batch.size there.
+ */
+@Component
+@ConditionalOnExpression("${onesignal.limiter.enabled:false} and ${onesignal.limiter.adjust-prefetch:false}")
+public class IntakeThrottle implements MethodInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(IntakeThrottle.class);
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final int prefetchPerSlot;
+    // prefetch last applied to each consumer channel; closed channels drop out with their consumer
+    private final Map<Channel, Integer> applied = Collections.synchronizedMap(new WeakHashMap<>());
+    private volatile int prefetch;
+
+    public IntakeThrottle(OneSignalClient oneSignalClient,
+                          MeterRegistry meterRegistry,
+                          @Value("${onesignal.limiter.prefetch-per-slot:1}") int prefetchPerSlot) {
+        this.limiter = oneSignalClient.limiter();
+        this.prefetchPerSlot = Math.max(1, prefetchPerSlot);
+        this.prefetch = prefetchFor(limiter.limit());
+
+        Gauge.builder("provider.limiter.prefetch", this, t -> t.prefetch)
+                .tag("provider", "onesignal")
+                .description("Channel-wide prefetch applied to listener channels from the concurrency limit")
+                .register(meterRegistry);
+
+        log.info("🔧 Listener prefetch follows the OneSignal concurrency limit ({} per slot)", this.prefetchPerSlot);
+    }
+
+    // Wraps the container's invokeListener(Channel channel, Object data)
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (invocation.getArguments()[0] instanceof Channel channel) {
+            throttle(channel);
+        }
+        return invocation.proceed();
+    }
+
+    void throttle(Channel channel) {
+        int next = prefetchFor(limiter.limit());
+        prefetch = next;
+        Integer current = applied.get(channel);
+        if (current != null && current == next) {
+            return;
+        }
+        try {
+            channel.basicQos(next, true);
+            applied.put(channel, next);
+            log.debug("Listener prefetch on channel {} set to {}", channel.getChannelNumber(), next);
+        } catch (Exception e) {
+            // the delivery still goes through; the next one tries again
+            log.debug("Could not set prefetch {} on channel {}: {}", next, channel.getChannelNumber(), e.getMessage());
+        }
+    }
+
+    private int prefetchFor(double limit) {
+        return Math.max(1, (int) limit) * prefetchPerSlot;
+    }
+}
@@ -1,53 +1,250 @@
 package com.hng.PushNotificationService.service;
 
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 @Component
 public class OneSignalClient {
 
+    // include_player_ids limit per notification
+    public static final int MAX_PLAYER_IDS = 2000;
+
+    /**
+     * Result of a single-recipient send. notificationId is OneSignal's notification id and may
+     * be null even when sent is true. status is the HTTP status, or 0 when no response was
+     * received (error, timeout, open circuit, rejected by a limit).
+     */
+    public record SendResult(boolean sent, String notificationId, int status) {
+        public static final SendResult FAILED = new SendResult(false, null, 0);
+
+        // OneSignal is overloaded or unreachable, as opposed to refusing this one request
+        public boolean congested() {
+            return !sent && OneSignalClient.congested(status);
+        }
+    }
+
+    /**
+     * Result of a multi-recipient send. When sent is true, every player id except the
+     * ones listed in invalidPlayerIds was accepted as part of notification notificationId.
+     * status is the HTTP status, or 0 when no response was received.
+     */
+    public record BatchResult(boolean sent, String notificationId, Set<String> invalidPlayerIds, int status) {
+        static BatchResult failed() {
+            return new BatchResult(false, null, Set.of(), 0);
+        }
+
+        /**
+         * OneSignal refused the request itself (a 4xx other than 429), e.g. over a malformed
+         * player id; sending it again unchanged fails the same way.
+         */
+        public boolean rejected() {
+            return status >= 400 && status < 500 && status != 429;
+        }
+
+        // OneSignal is overloaded or unreachable, as opposed to refusing this one request
+        public boolean congested() {
+            return !sent && OneSignalClient.congested(status);
+        }
+    }
+
     private final WebClient webClient;
     private final String appId;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ProviderRateLimiter rateLimiter;
 
     public OneSignalClient(@Value("${onesignal.url}") String baseUrl,
                            @Value("${onesignal.api-key}") String apiKey,
-                           @Value("${onesignal.app-id}") String appId) {
+                           @Value("${onesignal.app-id}") String appId,
+                           @Value("${onesignal.max-connections:500}") int maxConnections,
+                           @Value("${onesignal.connect-timeout-ms:2000}") int connectTimeoutMs,
+                           @Value("${onesignal.read-timeout-ms:10000}") long readTimeoutMs,
+                           @Value("${onesignal.limiter.enabled:false}") boolean limiterEnabled,
+                           @Value("${onesignal.limiter.initial-limit:50}") int initialLimit,
+                           @Value("${onesignal.limiter.min-limit:1}") int minLimit,
+                           @Value("${onesignal.limiter.max-limit:500}") int maxLimit,
+                           @Value("${onesignal.limiter.max-wait-ms:2000}") long maxWaitMs,
+                           @Value("${onesignal.rate-limit.enabled:false}") boolean rateLimitEnabled,
+                           @Value("${onesignal.rate-limit.key-id:}") String rateLimitKeyId,
+                           @Value("${onesignal.rate-limit.per-second:50}") double ratePerSecond,
+                           @Value("${onesignal.rate-limit.burst:100}") int burst,
+                           @Value("${onesignal.rate-limit.max-wait-ms:1000}") long rateLimitMaxWaitMs,
+                           StringRedisTemplate redisTemplate,
+                           MeterRegistry meterRegistry) {
+        // pool sized for virtual-thread dispatch, where hundreds of calls can be in flight at once
+        ConnectionProvider provider = ConnectionProvider.builder("onesignal")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofSeconds(10))
+                .build();
+        // a stalled connection fails the call instead of holding the blocked consumer thread
+        HttpClient httpClient = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs));
         this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .baseUrl(baseUrl)
                 .defaultHeader("Authorization", "Basic " + apiKey)
                 .build();
         this.appId = appId;
+        this.limiter = new AdaptiveConcurrencyLimiter("onesignal", meterRegistry, limiterEnabled,
+                initialLimit, minLimit, maxLimit, maxWaitMs);
+        this.rateLimiter = new ProviderRateLimiter("onesignal", apiKey, rateLimitKeyId, redisTemplate, meterRegistry,
+                rateLimitEnabled, ratePerSecond, burst, rateLimitMaxWaitMs);
+    }
+
+    AdaptiveConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * Run a OneSignal call under the cluster-wide rate limit, then inside the concurrency limit. The
+     * rate permit is taken first, so waiting for a token neither holds a concurrency slot nor counts
+     * toward the round trip the limiter measures. A batched call takes one token, as OneSignal's rate
+     * limits count notifications. Returns whenRejected when either limit turns the call away.
+     */
+    <T> T callWithinLimits(Callable<T> send, Predicate<T> congested, T whenRejected) throws Exception {
+        if (!rateLimiter.acquire()) {
+            return whenRejected;
+        }
+        return limiter.call(send, congested, whenRejected);
+    }
+
+    // Non-blocking callWithinLimits for the reactive pipeline
+    <T> Mono<T> callWithinLimitsAsync(Supplier<Mono<T>> send, Predicate<T> congested, T whenRejected) {
+        return rateLimiter.acquireAsync()
+                .flatMap(acquired -> acquired ? limiter.callAsync(send, congested, whenRejected) : Mono.just(whenRejected));
     }
 
     @CircuitBreaker(name = "oneSignalCircuit", fallbackMethod = "fallback")
-    public boolean sendNotification(String pushToken, String title, String body, Map<String, Object> data) {
+    public SendResult sendNotification(String pushToken, String title, String body, Map<String, Object> data) {
+        // block for simplicity; sent is true if 200-299
+        SendResult result = post(pushToken, title, body, data).block();
+        return result == null ? SendResult.FAILED : result;
+    }
+
+    // Non-blocking variant for the reactive pipeline; the circuit breaker wraps the returned Mono
+    @CircuitBreaker(name = "oneSignalCircuit", fallbackMethod = "sendNotificationAsyncFallback")
+    public Mono<SendResult> sendNotificationAsync(String pushToken, String title, String body, Map<String, Object> data) {
+        return post(pushToken, title, body, data);
+    }
+
+    private Mono<SendResult> post(String pushToken, String title, String body, Map<String, Object> data) {
         Map<String, Object> payload = Map.of(
                 "app_id", appId,
                 // OneSignal targets: include_player_ids OR include_external_user_ids, etc.
-                "include_player_ids", java.util.List.of(pushToken),
+                "include_player_ids", List.of(pushToken),
                 "headings", Map.of("en", title),
                 "contents", Map.of("en", body),
                 "data", data
         );
 
-        // block for simplicity; this method returns true if 200-299
-        Map resp = webClient.post()
+        return webClient.post()
                 .uri("/notifications")
                 .bodyValue(payload)
                 .retrieve()
-                .bodyToMono(Map.class)
+                .toEntity(Map.class)
+                .map(entity -> {
+                    Map<?, ?> resp = entity.getBody() == null ? Map.of() : entity.getBody();
+                    // If resp contains "id" or "recipients", consider success
+                    boolean sent = resp.get("id") != null || resp.get("recipients") != null;
+                    return new SendResult(sent, notificationId(resp), entity.getStatusCode().value());
+                })
+                .defaultIfEmpty(SendResult.FAILED);
+    }
+
+    public SendResult fallback(String pushToken, String title, String body, Map<String,Object> data, Throwable t) {
+        // circuit open or permanent failure -> signal failure to caller
+        return new SendResult(false, null, status(t));
+    }
+
+    public Mono<SendResult> sendNotificationAsyncFallback(String pushToken, String title, String body, Map<String, Object> data, Throwable t) {
+        return Mono.just(new SendResult(false, null, status(t)));
+    }
+
+    @CircuitBreaker(name = "oneSignalCircuit", fallbackMethod = "sendBatchFallback")
+    public BatchResult sendBatch(List<String> pushTokens, String title, String body, Map<String, Object> data) {
+        if (pushTokens.size() > MAX_PLAYER_IDS) {
+            throw new IllegalArgumentException("OneSignal batch exceeds " + MAX_PLAYER_IDS + " player ids: " + pushTokens.size());
+        }
+        Map<String, Object> payload = Map.of(
+                "app_id", appId,
+                "include_player_ids", pushTokens,
+                "headings", Map.of("en", title),
+                "contents", Map.of("en", body),
+                "data", data
+        );
+
+        // 4xx bodies are read too: a refused batch may still name the player ids it refused.
+        // 429 and 5xx stay errors, so they count toward the circuit breaker as before.
+        BatchResult result = webClient.post()
+                .uri("/notifications")
+                .bodyValue(payload)
+                .exchangeToMono(response -> {
+                    int status = response.statusCode().value();
+                    if (status == 429 || status >= 500) {
+                        return response.<BatchResult>createError();
+                    }
+                    return response.bodyToMono(Map.class)
+                            .map(resp -> batchResult(status, resp, pushTokens.size()))
+                            .onErrorReturn(new BatchResult(false, null, Set.of(), status))
+                            .defaultIfEmpty(new BatchResult(false, null, Set.of(), status));
+                })
                 .block();
+        return result == null ? BatchResult.failed() : result;
+    }
 
-        // If resp contains "id" or "recipients", consider success
-        return resp != null && (resp.get("id") != null || resp.get("recipients") != null);
+    private static BatchResult batchResult(int status, Map<?, ?> resp, int recipients) {
+        // Partial failures come back as {"errors": {"invalid_player_ids": [...]}} next to the notification id;
+        // when no recipient was reachable the id is empty and errors is a list of messages
+        Set<String> invalid = new HashSet<>();
+        if (resp.get("errors") instanceof Map<?, ?> errors
+                && errors.get("invalid_player_ids") instanceof Collection<?> ids) {
+            ids.forEach(id -> invalid.add(String.valueOf(id)));
+        }
+        if (status < 200 || status >= 300) {
+            return new BatchResult(false, null, invalid, status);
+        }
+        String id = notificationId(resp);
+        boolean sent = id != null || invalid.size() == recipients;
+        return new BatchResult(sent, id, invalid, status);
     }
 
-    public boolean fallback(String pushToken, String title, String body, Map<String,Object> data, Throwable t) {
-        // circuit open or permanent failure -> signal failure to caller
-        return false;
+    public BatchResult sendBatchFallback(List<String> pushTokens, String title, String body, Map<String, Object> data, Throwable t) {
+        int status = status(t);
+        return status == 0 ? BatchResult.failed() : new BatchResult(false, null, Set.of(), status);
+    }
+
+    // HTTP status of an error response, or 0 when there was none (timeout, connection error, open circuit)
+    private static int status(Throwable t) {
+        return t instanceof WebClientResponseException e ? e.getStatusCode().value() : 0;
+    }
+
+    // no response, 429 or 5xx: worth backing off for, unlike a refused request
+    private static boolean congested(int status) {
+        return status == 0 || status == 429 || status >= 500;
+    }
+
+    private static String notificationId(Map<?, ?> resp) {
+        Object id = resp.get("id");
+        return id == null || id.toString().isEmpty() ? null : id.toString();
     }
 }
@@ -0,0 +1,160 @@
+package com.hng.PushNotificationService.service;
+
+import com.hng.PushNotificationService.util.FingerprintSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Idempotency check for push requests. The processed marker in Redis is authoritative; when
+ * push.idempotency.local-filter.enabled is set, a local fingerprint set of requests this
+ * instance has processed answers "definitely new" without a Redis round trip, and Redis is
+ * only asked on a possible hit.
+ *
+ * The local set only knows what this instance processed since it started, so a local miss is
+ * trusted for first deliveries only. A redelivered message may have been processed before a
+ * restart, or by the consumer that held it before a requeue or a shard handover, so it is always
+ * checked in Redis. A first delivery that duplicates a request another replica processed, such as
+ * a repeated publish, is not caught by the local set.
+ */
+@Component
+public class ProcessedRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessedRequestFilter.class);
+    private static final Duration PROCESSED_TTL = Duration.ofDays(7);
+    // marker value once the status event is confirmed; until then the marker holds the event itself
+    private static final String CONFIRMED = "1";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final String processedKeyPrefix;
+    private final FingerprintSet fingerprints;
+
+    private final Counter localMisses;
+    private final Counter localHits;
+    private final Counter falsePositives;
+    private final Counter localBypassed;
+
+    public ProcessedRequestFilter(StringRedisTemplate redisTemplate,
+                                  ReactiveStringRedisTemplate reactiveRedisTemplate,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${redis.processed-key-prefix}") String processedKeyPrefix,
+                                  @Value("${push.idempotency.local-filter.enabled:false}") boolean localFilterEnabled,
+                                  @Value("${push.idempotency.local-filter.capacity:1000000}") int capacity) {
+        if ("status:".equals(processedKeyPrefix)) {
+            // markers would overwrite the gateway's status records, and every request would look processed
+            throw new IllegalArgumentException("redis.processed-key-prefix must not be the status record prefix \"status:\"");
+        }
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.processedKeyPrefix = processedKeyPrefix;
+        this.fingerprints = localFilterEnabled ? new FingerprintSet(capacity) : null;
+
+        this.localMisses = Counter.builder("push.idempotency.local")
+                .tag("result", "miss")
+                .description("Requests the local fingerprint set answered as definitely new")
+                .register(meterRegistry);
+        this.localHits = Counter.builder("push.idempotency.local")
+                .tag("result", "hit")
+                .description("Requests the local fingerprint set flagged as possibly processed")
+                .register(meterRegistry);
+        this.falsePositives = Counter.builder("push.idempotency.local")
+                .tag("result", "false_positive")
+                .description("Local hits that Redis reported as not processed")
+                .register(meterRegistry);
+        this.localBypassed = Counter.builder("push.idempotency.local")
+                .tag("result", "redelivered")
+                .description("Redelivered requests checked in Redis without asking the local fingerprint set")
+                .register(meterRegistry);
+
+        if (localFilterEnabled) {
+            log.info("🔧 Local idempotency fingerprint set enabled, capacity {}", capacity);
+        }
+    }
+
+    /**
+     * Whether the request was already delivered. redelivered is the broker's redelivered flag, or
+     * true whenever the message may have been seen before, as on a stream replay.
+     */
+    public boolean isProcessed(String requestId, boolean redelivered) {
+        if (definitelyNew(requestId, redelivered)) {
+            return false;
+        }
+        return recordLookup(Boolean.TRUE.equals(redisTemplate.hasKey(processedKeyPrefix + requestId)), redelivered);
+    }
+
+    public Mono<Boolean> isProcessedAsync(String requestId, boolean redelivered) {
+        if (definitelyNew(requestId, redelivered)) {
+            return Mono.just(false);
+        }
+        return reactiveRedisTemplate.hasKey(processedKeyPrefix + requestId)
+                .map(processed -> recordLookup(processed, redelivered));
+    }
+
+    // mark processed in Redis for idempotency, with a 7 day TTL
+    public void markProcessed(String requestId) {
+        redisTemplate.opsForValue().set(processedKeyPrefix + requestId, CONFIRMED, PROCESSED_TTL);
+        remember(requestId);
+    }
+
+    /**
+     * Mark the request processed while its status event is not confirmed yet. The marker holds the
+     * serialized event until {@link #markProcessed} replaces it, so a redelivery finds it through
+     * {@link #pendingEvent} and publishes it again instead of sending the push a second time.
+     */
+    public void markPending(String requestId, String statusEvent) {
+        redisTemplate.opsForValue().set(processedKeyPrefix + requestId, statusEvent, PROCESSED_TTL);
+        remember(requestId);
+    }
+
+    public Mono<Void> markPendingAsync(String requestId, String statusEvent) {
+        return reactiveRedisTemplate.opsForValue().set(processedKeyPrefix + requestId, statusEvent, PROCESSED_TTL)
+                .doOnSuccess(ok -> remember(requestId))
+                .then();
+    }
+
+    /** The status event of a processed request whose publish was never confirmed, if there is one. */
+    public Optional<String> pendingEvent(String requestId) {
+        String marker = redisTemplate.opsForValue().get(processedKeyPrefix + requestId);
+        return marker == null || CONFIRMED.equals(marker) ? Optional.empty() : Optional.of(marker);
+    }
+
+    private boolean definitelyNew(String requestId, boolean redelivered) {
+        if (fingerprints == null) {
+            return false;
+        }
+        if (redelivered) {
+            localBypassed.increment();
+            return false;
+        }
+        if (!fingerprints.mightContain(requestId)) {
+            localMisses.increment();
+            return true;
+        }
+        localHits.increment();
+        return false;
+    }
+
+    // only a lookup made because of a local hit can be a false positive
+    private boolean recordLookup(boolean processed, boolean redelivered) {
+        if (fingerprints != null && !redelivered && !processed) {
+            falsePositives.increment();
+        }
+        return processed;
+    }
+
+    private void remember(String requestId) {
+        if (fingerprints != null) {
+            fingerprints.add(requestId);
+        }
+    }
+}
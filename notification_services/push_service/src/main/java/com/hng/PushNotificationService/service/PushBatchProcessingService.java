@@ -0,0 +1,178 @@
+package com.hng.PushNotificationService.service;
+
+import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.StatusEvent;
+import com.hng.PushNotificationService.util.LogRedaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batched variant of {@link PushProcessingService}: messages with identical title, rendered body
+ * and data are sent as one OneSignal notification with up to {@link OneSignalClient#MAX_PLAYER_IDS}
+ * player ids. Player ids that OneSignal reports as invalid are failed and dead-lettered on their
+ * own; the rest of the group is marked delivered. When OneSignal refuses the whole notification
+ * (a 4xx other than 429), the members it didn't name are sent one by one.
+ *
+ * Each message's publishes are collected in a confirm scope of their own, so one status event or
+ * dead letter that can't be confirmed only requeues the message it belongs to.
+ */
+@Service
+public class PushBatchProcessingService {
+
+    private static final Logger log = LoggerFactory.getLogger(PushBatchProcessingService.class);
+
+    private final PushProcessingService processingService;
+    private final OneSignalClient oneSignalClient;
+    private final ConfirmedPublisher publisher;
+    private final PipelineMetrics metrics;
+
+    public PushBatchProcessingService(PushProcessingService processingService, OneSignalClient oneSignalClient,
+                                      ConfirmedPublisher publisher, PipelineMetrics metrics) {
+        this.processingService = processingService;
+        this.oneSignalClient = oneSignalClient;
+        this.publisher = publisher;
+        this.metrics = metrics;
+    }
+
+    private record GroupKey(String title, String body, Map<String, Object> data) {}
+
+    /**
+     * Result for one message of a batch. A processed message is acked once confirmed completes,
+     * which covers only that message's own publishes; any other message is rejected.
+     */
+    public record Outcome(boolean processed, CompletableFuture<Void> confirmed) {}
+
+    /**
+     * Process a batch of requests. The lists are parallel; redelivered holds each delivery's
+     * redelivered flag. The returned outcomes are parallel to the input too.
+     */
+    public List<Outcome> processBatch(List<PushRequestDto> requests, List<String> correlationIds, List<Boolean> redelivered) {
+        int size = requests.size();
+        Boolean[] outcomes = new Boolean[size];
+        List<CompletableFuture<Void>> confirmed = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            confirmed.add(CompletableFuture.completedFuture(null));
+        }
+        Map<GroupKey, List<Integer>> groups = new LinkedHashMap<>();
+
+        // 1. Filter and render each message, grouping identical content
+        for (int i = 0; i < size; i++) {
+            PushRequestDto request = requests.get(i);
+            MDC.put("correlation_id", correlationIds.get(i));
+            try {
+                if (processingService.isProcessed(request, redelivered.get(i))) {
+                    log.info("Request {} already processed. Skipping.", request.request_id());
+                    if (redelivered.get(i)) {
+                        try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                            processingService.republishPending(request.request_id(), () -> request);
+                            confirmed.set(i, scope.confirmed());
+                        }
+                    }
+                    outcomes[i] = true;
+                    continue;
+                }
+                if (!processingService.isValidToken(request.push_token())) {
+                    log.warn("Invalid push token for request {}: {}", request.request_id(), LogRedaction.token(request.push_token()));
+                    try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                        processingService.markFailed(request, StatusEvent.INVALID_TOKEN, "Invalid push token");
+                        confirmed.set(i, scope.confirmed());
+                    }
+                    outcomes[i] = true;
+                    continue;
+                }
+                String renderedBody = processingService.render(request);
+                groups.computeIfAbsent(new GroupKey(request.subject(), renderedBody, request.data()), k -> new ArrayList<>()).add(i);
+            } catch (Exception e) {
+                log.error("Failed to prepare push {} for batch: {}", request.request_id(), e.getMessage(), e);
+                outcomes[i] = false;
+            } finally {
+                MDC.remove("correlation_id");
+            }
+        }
+
+        log.info("Batch of {} messages grouped into {} OneSignal requests", size, groups.size());
+
+        // 2. One notification per group, chunked to OneSignal's player id limit
+        for (Map.Entry<GroupKey, List<Integer>> group : groups.entrySet()) {
+            List<Integer> members = group.getValue();
+            for (int from = 0; from < members.size(); from += OneSignalClient.MAX_PLAYER_IDS) {
+                List<Integer> chunk = members.subList(from, Math.min(from + OneSignalClient.MAX_PLAYER_IDS, members.size()));
+                sendChunk(group.getKey(), chunk, requests, correlationIds, outcomes, confirmed);
+            }
+        }
+
+        List<Outcome> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new Outcome(Boolean.TRUE.equals(outcomes[i]), confirmed.get(i)));
+        }
+        return result;
+    }
+
+    private void sendChunk(GroupKey key, List<Integer> chunk, List<PushRequestDto> requests,
+                           List<String> correlationIds, Boolean[] outcomes, List<CompletableFuture<Void>> confirmed) {
+        List<String> tokens = new ArrayList<>(chunk.size());
+        for (int i : chunk) {
+            tokens.add(requests.get(i).push_token());
+        }
+
+        OneSignalClient.BatchResult result;
+        try {
+            result = metrics.timeSend(PipelineMetrics.BATCH_ATTEMPT, () -> oneSignalClient.callWithinLimits(
+                    () -> oneSignalClient.sendBatch(tokens, key.title(), key.body(), key.data()),
+                    OneSignalClient.BatchResult::congested, OneSignalClient.BatchResult.failed()),
+                    OneSignalClient.BatchResult::sent);
+            if (!result.sent()) {
+                log.warn("OneSignal batch send of {} player ids returned no notification", tokens.size());
+            }
+        } catch (Exception ex) {
+            log.error("Error sending OneSignal batch of {} player ids: {}", tokens.size(), ex.getMessage());
+            result = OneSignalClient.BatchResult.failed();
+        }
+        // A refused batch may be down to a single bad player id. Retried together, the same members would
+        // be regrouped and refused again until all of them are dead-lettered, so the ones OneSignal didn't
+        // name are sent on their own.
+        boolean sendSingly = result.rejected() && chunk.size() > 1;
+        if (sendSingly) {
+            log.warn("OneSignal refused a batch of {} player ids with status {}, sending them one by one",
+                    chunk.size(), result.status());
+        }
+
+        for (int i : chunk) {
+            PushRequestDto request = requests.get(i);
+            MDC.put("correlation_id", correlationIds.get(i));
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                if (result.invalidPlayerIds().contains(request.push_token())) {
+                    log.warn("OneSignal rejected player id for request {}", request.request_id());
+                    processingService.markFailed(request, StatusEvent.INVALID_PLAYER_ID, "Invalid player id");
+                } else if (sendSingly) {
+                    OneSignalClient.SendResult single = processingService.attemptSend(request, key.title(), key.body());
+                    if (single.sent()) {
+                        processingService.markDelivered(request, single.notificationId());
+                    } else {
+                        processingService.retryOrFail(request, correlationIds.get(i));
+                    }
+                } else if (result.sent()) {
+                    processingService.markDelivered(request, result.notificationId());
+                } else {
+                    // Each member is retried on its own tier and may be regrouped with other messages
+                    processingService.retryOrFail(request, correlationIds.get(i));
+                }
+                confirmed.set(i, scope.confirmed());
+                outcomes[i] = true;
+            } catch (Exception e) {
+                log.error("Failed to record batch result for push {}: {}", request.request_id(), e.getMessage(), e);
+                outcomes[i] = false;
+            } finally {
+                MDC.remove("correlation_id");
+            }
+        }
+    }
+}
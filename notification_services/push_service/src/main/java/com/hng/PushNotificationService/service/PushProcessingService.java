@@ -1,19 +1,30 @@
 package com.hng.PushNotificationService.service;
 
 import com.hng.PushNotificationService.dto.PushRequestDto;
+import com.hng.PushNotificationService.dto.RequestHead;
+import com.hng.PushNotificationService.dto.StatusEvent;
+import com.hng.PushNotificationService.util.CorrelationLogFilter;
+import com.hng.PushNotificationService.util.LogRedaction;
 import com.hng.PushNotificationService.util.TemplateRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.AmqpException;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static com.hng.PushNotificationService.config.RabbitConfig.PUSH_EXCHANGE;
 import static com.hng.PushNotificationService.config.RabbitConfig.FAILED_ROUTING_KEY;
+import static com.hng.PushNotificationService.config.RabbitConfig.RETRY_DELAYS_MS;
+import static com.hng.PushNotificationService.config.RabbitConfig.SHARD_HASH_HEADER;
+import static com.hng.PushNotificationService.config.RabbitConfig.retryRoutingKey;
+import static com.hng.PushNotificationService.config.RabbitConfig.streamPartitionKey;
+import static com.hng.PushNotificationService.config.RabbitConfig.streamRetryRoutingKey;
 
 @Service
 public class PushProcessingService {
@@ -21,32 +32,55 @@ public class PushProcessingService {
     private static final Logger log = LoggerFactory.getLogger(PushProcessingService.class);
 
     private final OneSignalClient oneSignalClient;
-    private final RabbitTemplate rabbitTemplate;
-    private final StringRedisTemplate redisTemplate;
-    private final String processedKeyPrefix;
+    private final ConfirmedPublisher publisher;
+    private final StatusEventPublisher statusEvents;
+    private final ProcessedRequestFilter processedFilter;
+    private final RedisService redisService;
+    private final PipelineMetrics metrics;
+    // super stream partitions when push.stream.enabled, otherwise 0
+    private final int streamPartitions;
 
     public PushProcessingService(OneSignalClient oneSignalClient,
-                                 RabbitTemplate rabbitTemplate,
-                                 StringRedisTemplate redisTemplate,
-                                 @Value("${redis.processed-key-prefix}") String processedKeyPrefix) {
+                                 ConfirmedPublisher publisher,
+                                 StatusEventPublisher statusEvents,
+                                 ProcessedRequestFilter processedFilter,
+                                 RedisService redisService,
+                                 PipelineMetrics metrics,
+                                 @Value("${push.stream.enabled:false}") boolean stream,
+                                 @Value("${push.stream.partitions:3}") int streamPartitions) {
         this.oneSignalClient = oneSignalClient;
-        this.rabbitTemplate = rabbitTemplate;
-        this.redisTemplate = redisTemplate;
-        this.processedKeyPrefix = processedKeyPrefix;
+        this.publisher = publisher;
+        this.statusEvents = statusEvents;
+        this.processedFilter = processedFilter;
+        this.redisService = redisService;
+        this.metrics = metrics;
+        this.streamPartitions = stream ? streamPartitions : 0;
     }
 
-    public void process(PushRequestDto request, String correlationId) {
+    public void process(PushRequestDto request, String correlationId, boolean redelivered) {
+        process(RequestHead.of(request), () -> request, correlationId, redelivered);
+    }
+
+    /**
+     * Run the idempotency check on the head and only then decode the full payload, so a duplicate
+     * delivery is dropped without parsing body and data. redelivered is passed on to
+     * {@link ProcessedRequestFilter#isProcessed}.
+     */
+    public void process(RequestHead head, Supplier<PushRequestDto> decode, String correlationId, boolean redelivered) {
         MDC.put("correlation_id", correlationId);
-        String requestId = request.request_id();
-        String redisKey = processedKeyPrefix + requestId;
+        String requestId = head.request_id();
         try {
-            // idempotency: check Redis
-            Boolean already = redisTemplate.hasKey(redisKey);
-            if (Boolean.TRUE.equals(already)) {
+            // idempotency: local fingerprint set, then Redis on a possible hit
+            if (isProcessed(requestId, head.template_code(), redelivered)) {
                 log.info("Request {} already processed. Skipping.", requestId);
+                if (redelivered) {
+                    republishPending(requestId, decode);
+                }
                 return;
             }
 
+            PushRequestDto request = metrics.time(PipelineMetrics.DECODE, decode);
+
 //            statusClient.updateStatus(requestId, "sending");
 
             // fetch template
@@ -54,64 +88,21 @@ public class PushProcessingService {
 //            String title = template.subject(); // subject used as title
 //            String body = TemplateRenderer.render(template.template_body(), request.data());
 
-            String renderedBody = TemplateRenderer.render(request.body(), request.data());
+            String renderedBody = render(request);
             String subject = request.subject();
 
             // validate push token
             if (!isValidToken(request.push_token())) {
-                log.warn("Invalid push token for request {}: {}", requestId, request.push_token());
-                rabbitTemplate.convertAndSend(PUSH_EXCHANGE, FAILED_ROUTING_KEY, request);
+                log.warn("Invalid push token for request {}: {}", requestId, LogRedaction.token(request.push_token()));
+                markFailed(request, StatusEvent.INVALID_TOKEN, "Invalid push token");
                 return;
             }
 
-            // retries/backoff: immediate try, then 2s, 4s, 8s
-            int[] backoffs = {0, 2000, 4000, 8000};
-            boolean sent = false;
-            for (int attempt = 0; attempt < backoffs.length; attempt++) {
-                if (attempt > 0) {
-                    log.info("Retry attempt {} for request {}", attempt, requestId);
-                    Thread.sleep(backoffs[attempt]);
-                }
-                try {
-                    boolean ok = oneSignalClient.sendNotification(request.push_token(), subject, renderedBody, request.data());
-                    if (ok) {
-                        sent = true;
-                        break;
-                    } else {
-                        log.warn("OneSignal send returned false attempt {}", attempt);
-                    }
-                } catch (Exception ex) {
-                    log.error("Error sending via OneSignal attempt {}: {}", attempt, ex.getMessage());
-                }
-            }
-
-            if (sent) {
-//                statusClient.updateStatus(requestId, "delivered");
-                // mark processed in Redis for idempotency; set TTL to e.g., 7 days
-                redisTemplate.opsForValue().set(redisKey, "1", Duration.ofDays(7));
-                log.info("Push delivered for request {}", requestId);
-                // Send to status.queue after success
-                rabbitTemplate.convertAndSend(
-                        "status.queue",
-                        new PushRequestDto(
-                                request.channel(),
-                                request.request_id(),
-                                request.user_id(),
-                                request.template_code(),
-                                request.subject(),
-                                request.body(),
-                                request.timestamp(),
-                                request.data(),
-                                request.correlation_id(),
-                                request.attempts(),
-                                request.email(),
-                                request.push_token()
-                        )
-                );
+            OneSignalClient.SendResult result = attemptSend(request, subject, renderedBody);
+            if (result.sent()) {
+                markDelivered(request, result.notificationId());
             } else {
-//                statusClient.updateStatus(requestId, "failed");
-                rabbitTemplate.convertAndSend(PUSH_EXCHANGE, FAILED_ROUTING_KEY, request);
-                log.error("Push failed for request {} and sent to dead-letter", requestId);
+                retryOrFail(request, correlationId);
             }
 
         } catch (Exception e) {
@@ -121,7 +112,194 @@ public class PushProcessingService {
         }
     }
 
-    private boolean isValidToken(String token) {
+    // Single attempt within the OneSignal rate and concurrency limits; failures are retried through the
+    // delay queues instead of sleeping here
+    public OneSignalClient.SendResult attemptSend(PushRequestDto request, String title, String renderedBody) {
+        try {
+            OneSignalClient.SendResult result = metrics.timeSend(PipelineMetrics.attempt(request.attempts()), () -> oneSignalClient.callWithinLimits(
+                    () -> oneSignalClient.sendNotification(request.push_token(), title, renderedBody, request.data()),
+                    OneSignalClient.SendResult::congested, OneSignalClient.SendResult.FAILED), OneSignalClient.SendResult::sent);
+            if (!result.sent()) {
+                log.warn("OneSignal send returned false attempt {}", request.attempts());
+            }
+            return result;
+        } catch (Exception ex) {
+            log.error("Error sending via OneSignal attempt {}: {}", request.attempts(), ex.getMessage());
+            return OneSignalClient.SendResult.FAILED;
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #process} for push.reactive.enabled: the idempotency check,
+     * status updates and OneSignal call don't hold a thread while waiting. Completes empty when
+     * the message can be acknowledged, like {@link #process} returning normally.
+     */
+    public Mono<Void> processAsync(PushRequestDto request, String correlationId, boolean redelivered) {
+        String requestId = request.request_id();
+        return metrics.time(PipelineMetrics.REDIS_FETCH, processedFilter.isProcessedAsync(requestId, redelivered))
+                .flatMap(processed -> {
+                    if (processed) {
+                        log.info("Request {} already processed. Skipping.", requestId);
+                        metrics.processed(request.template_code(), PipelineMetrics.SKIPPED);
+                        return redelivered ? offEventLoop(() -> republishPending(requestId, () -> request)) : Mono.<Void>empty();
+                    }
+                    String renderedBody = render(request);
+                    if (!isValidToken(request.push_token())) {
+                        log.warn("Invalid push token for request {}: {}", requestId, LogRedaction.token(request.push_token()));
+                        return markFailedAsync(request, StatusEvent.INVALID_TOKEN, "Invalid push token");
+                    }
+                    return metrics.timeSend(PipelineMetrics.attempt(request.attempts()), oneSignalClient.callWithinLimitsAsync(
+                                    () -> oneSignalClient.sendNotificationAsync(request.push_token(), request.subject(), renderedBody, request.data()),
+                                    OneSignalClient.SendResult::congested, OneSignalClient.SendResult.FAILED), OneSignalClient.SendResult::sent)
+                            .onErrorResume(ex -> {
+                                log.error("Error sending via OneSignal attempt {}: {}", request.attempts(), ex.getMessage());
+                                return Mono.just(OneSignalClient.SendResult.FAILED);
+                            })
+                            .flatMap(result -> result.sent()
+                                    ? markDeliveredAsync(request, result.notificationId())
+                                    : retryOrFailAsync(request, correlationId));
+                })
+                // an unconfirmed status or retry publish propagates so the listener requeues the delivery
+                .onErrorResume(e -> !(e instanceof AmqpException), e -> {
+                    log.error("Unhandled exception processing push {} [{}]: {}", requestId, correlationId, e.getMessage(), e);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> markDeliveredAsync(PushRequestDto request, String notificationId) {
+        String requestId = request.request_id();
+        String event = StatusEventPublisher.toJson(StatusEvent.delivered(request, notificationId));
+        return processedFilter.markPendingAsync(requestId, event)
+                .then(metrics.time(PipelineMetrics.STATUS_UPDATE, redisService.updateStatusAsync(requestId, "delivered", null)))
+                .then(publish(() -> publishTerminal(request, event, false)))
+                .doOnSuccess(v -> {
+                    log.info(CorrelationLogFilter.SAMPLED, "Push delivered for request {}", requestId);
+                    metrics.processed(request.template_code(), PipelineMetrics.DELIVERED);
+                });
+    }
+
+    private Mono<Void> retryOrFailAsync(PushRequestDto request, String correlationId) {
+        if (request.attempts() >= RETRY_DELAYS_MS.length) {
+            return markFailedAsync(request, StatusEvent.RETRIES_EXHAUSTED, "Failed to deliver push after all retry attempts")
+                    .doOnSuccess(v -> log.error("Push failed for request {} and sent to dead-letter", request.request_id()));
+        }
+        // retryOrFail times its own publish
+        return offEventLoop(() -> retryOrFail(request, correlationId));
+    }
+
+    private Mono<Void> markFailedAsync(PushRequestDto request, String errorCode, String reason) {
+        String requestId = request.request_id();
+        String event = StatusEventPublisher.toJson(StatusEvent.failed(request, errorCode));
+        return processedFilter.markPendingAsync(requestId, event)
+                .then(metrics.time(PipelineMetrics.STATUS_UPDATE, redisService.updateStatusAsync(requestId, "failed", reason)))
+                .then(publish(() -> publishTerminal(request, event, true)))
+                .doOnSuccess(v -> metrics.processed(request.template_code(), PipelineMetrics.FAILED));
+    }
+
+    // RabbitTemplate publishes block on the channel, so keep them off the event loop
+    private Mono<Void> publish(Runnable send) {
+        return offEventLoop(() -> metrics.time(PipelineMetrics.PUBLISH, send));
+    }
+
+    // Completes once the publishes made by work are confirmed, without holding a thread meanwhile
+    private Mono<Void> offEventLoop(Runnable work) {
+        return Mono.defer(() -> {
+            try (ConfirmedPublisher.Scope scope = publisher.open()) {
+                work.run();
+                return Mono.fromFuture(scope.confirmed());
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public boolean isProcessed(PushRequestDto request, boolean redelivered) {
+        return isProcessed(request.request_id(), request.template_code(), redelivered);
+    }
+
+    public boolean isProcessed(String requestId, String templateCode, boolean redelivered) {
+        boolean processed = metrics.time(PipelineMetrics.REDIS_FETCH, () -> processedFilter.isProcessed(requestId, redelivered));
+        if (processed) {
+            metrics.processed(templateCode, PipelineMetrics.SKIPPED);
+        }
+        return processed;
+    }
+
+    public String render(PushRequestDto request) {
+        return metrics.time(PipelineMetrics.RENDER, () -> TemplateRenderer.render(request.body(), request.data()));
+    }
+
+    public void markDelivered(PushRequestDto request, String notificationId) {
+        String requestId = request.request_id();
+        String event = StatusEventPublisher.toJson(StatusEvent.delivered(request, notificationId));
+        // the event is kept before the status turns terminal, so a redelivery republishes instead of resending
+        processedFilter.markPending(requestId, event);
+        metrics.time(PipelineMetrics.STATUS_UPDATE, () -> redisService.updateStatus(requestId, "delivered", null));
+        log.info(CorrelationLogFilter.SAMPLED, "Push delivered for request {}", requestId);
+        metrics.processed(request.template_code(), PipelineMetrics.DELIVERED);
+        // Send to status.queue after success
+        metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(request, event, false));
+    }
+
+    /**
+     * Publish what a redelivered request that already reached a terminal status still owes: the
+     * delivery before this one was requeued because its status event (and, for a failed request,
+     * its dead letter) was not confirmed. Nothing is sent to OneSignal again.
+     */
+    public void republishPending(String requestId, Supplier<PushRequestDto> decode) {
+        processedFilter.pendingEvent(requestId).ifPresent(event -> {
+            log.info("Republishing unconfirmed status event for request {}", requestId);
+            boolean failed = "failed".equals(StatusEventPublisher.fromJson(event).status());
+            metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(decode.get(), event, failed));
+        });
+    }
+
+    // the marker only drops the pending event once the broker has everything the terminal status publishes
+    private void publishTerminal(PushRequestDto request, String event, boolean deadLetter) {
+        CompletableFuture<Void> published = statusEvents.publish(event);
+        if (deadLetter) {
+            published = CompletableFuture.allOf(published, publisher.send(PUSH_EXCHANGE, FAILED_ROUTING_KEY, request));
+        }
+        published.thenRun(() -> processedFilter.markProcessed(request.request_id()));
+    }
+
+    /**
+     * Republish to the next delay tier, or mark the request failed once the tiers are used up.
+     * Either way the current delivery can be acknowledged.
+     */
+    public void retryOrFail(PushRequestDto request, String correlationId) {
+        int tier = request.attempts();
+        if (tier >= RETRY_DELAYS_MS.length) {
+            markFailed(request, StatusEvent.RETRIES_EXHAUSTED, "Failed to deliver push after all retry attempts");
+            log.error("Push failed for request {} and sent to dead-letter", request.request_id());
+            return;
+        }
+        // in stream mode the tier's queue for the user's partition, so the retry comes back on that partition
+        String routingKey = streamPartitions > 0
+                ? streamRetryRoutingKey(tier, streamPartitionKey(request.user_id(), streamPartitions))
+                : retryRoutingKey(tier);
+        metrics.time(PipelineMetrics.PUBLISH, () ->
+                publisher.send(PUSH_EXCHANGE, routingKey, request.withAttempts(tier + 1), m -> {
+                    m.getMessageProperties().setHeader("correlation_id", correlationId);
+                    if (request.user_id() != null) {
+                        // keeps the retry on the user's shard when sharded
+                        m.getMessageProperties().setHeader(SHARD_HASH_HEADER, request.user_id());
+                    }
+                    return m;
+                }));
+        metrics.processed(request.template_code(), PipelineMetrics.RETRIED);
+        log.info("Scheduled retry {} for request {} in {}ms", tier + 1, request.request_id(), RETRY_DELAYS_MS[tier]);
+    }
+
+    public void markFailed(PushRequestDto request, String errorCode, String reason) {
+        String requestId = request.request_id();
+        String event = StatusEventPublisher.toJson(StatusEvent.failed(request, errorCode));
+        // the event is kept before the status turns terminal, so a redelivery republishes instead of resending
+        processedFilter.markPending(requestId, event);
+        metrics.time(PipelineMetrics.STATUS_UPDATE, () -> redisService.updateStatus(requestId, "failed", reason));
+        metrics.processed(request.template_code(), PipelineMetrics.FAILED);
+        metrics.time(PipelineMetrics.PUBLISH, () -> publishTerminal(request, event, true));
+    }
+
+    public boolean isValidToken(String token) {
         return token != null && !token.isBlank() && token.length() > 5;
     }
 }
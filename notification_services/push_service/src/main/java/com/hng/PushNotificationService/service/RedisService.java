@@ -1,10 +1,27 @@
 package com.hng.PushNotificationService.service;
 
+import com.hng.PushNotificationService.dto.StatusRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 @Service
@@ -12,28 +29,133 @@ public class RedisService {
 
     private static final Logger log = LoggerFactory.getLogger(RedisService.class);
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final boolean hashFormat;
+    private final RedisScript<List> transitionScript;
 
-    public RedisService(RedisTemplate<String, Object> redisTemplate) {
+    public RedisService(RedisTemplate<String, Object> redisTemplate,
+                        StringRedisTemplate stringRedisTemplate,
+                        ReactiveStringRedisTemplate reactiveRedisTemplate,
+                        @Value("${redis.status-format:json}") String statusFormat) {
         this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.hashFormat = "hash".equalsIgnoreCase(statusFormat);
+        DefaultRedisScript<List> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/status-transition.lua")));
+        script.setResultType(List.class);
+        this.transitionScript = script;
     }
 
     // Save value with optional expiry
     public void save(String key, Object value, long ttlSeconds) {
         redisTemplate.opsForValue().set(key, value, ttlSeconds, TimeUnit.SECONDS);
-        log.info("Saved {} to Redis with TTL {}s", key, ttlSeconds);
+        log.debug("Saved {} to Redis with TTL {}s", key, ttlSeconds);
     }
 
     // Fetch value by key
     public Object fetch(String key) {
         Object value = redisTemplate.opsForValue().get(key);
-        log.info("Fetched {} from Redis -> {}", key, value);
+        log.debug("Fetched {} from Redis ({})", key, value == null ? "missing" : "found");
         return value;
     }
 
     // Delete value
     public void delete(String key) {
         redisTemplate.delete(key);
-        log.info("Deleted {} from Redis", key);
+        log.debug("Deleted {} from Redis", key);
+    }
+
+    /**
+     * Read status:<requestId> in either layout. The configured format is tried first and the
+     * other one on WRONGTYPE, so both can coexist while records are migrated.
+     */
+    public Optional<StatusRecord> readStatus(String requestId) {
+        String redisKey = "status:" + requestId;
+        try {
+            return hashFormat ? readHash(redisKey) : readLegacy(redisKey);
+        } catch (DataAccessException | SerializationException wrongType) {
+            return hashFormat ? readLegacy(redisKey) : readHash(redisKey);
+        }
+    }
+
+    private Optional<StatusRecord> readHash(String redisKey) {
+        Map<Object, Object> fields = stringRedisTemplate.opsForHash().entries(redisKey);
+        return fields.isEmpty() ? Optional.empty() : Optional.of(StatusRecord.fromHash(fields));
+    }
+
+    private Optional<StatusRecord> readLegacy(String redisKey) {
+        return Optional.ofNullable(StatusRecord.fromLegacy(redisTemplate.opsForValue().get(redisKey)));
     }
-}
 
+    /**
+     * Atomically set the status of status:<requestId> in one round trip, preserving the key's TTL.
+     * Only status, updated_at and error_message are written; a legacy JSON record is migrated
+     * to a hash when redis.status-format is hash. Returns false when there is no status record.
+     */
+    public boolean updateStatus(String requestId, String newStatus, String errorMessage) {
+        try {
+            List<Object> result = redisTemplate.execute(
+                    transitionScript,
+                    StringRedisSerializer.UTF_8,
+                    (RedisSerializer) StringRedisSerializer.UTF_8,
+                    List.of("status:" + requestId),
+                    transitionArgs(newStatus, errorMessage).toArray());
+            String code = String.valueOf(result.get(0));
+            if ("-1".equals(code)) {
+                log.warn("Cannot update status for {}: no status record in Redis", requestId);
+            } else if (!"1".equals(code)) {
+                log.warn("Cannot update status for {}: not a status record ({})", requestId, describeStatus(requestId));
+            }
+            return "1".equals(code);
+        } catch (Exception e) {
+            log.error("Failed to update status for {}: {}", requestId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Non-blocking {@link #updateStatus}. Completes with false instead of erroring.
+     */
+    public Mono<Boolean> updateStatusAsync(String requestId, String newStatus, String errorMessage) {
+        return reactiveRedisTemplate.execute(transitionScript, List.of("status:" + requestId), transitionArgs(newStatus, errorMessage))
+                .collectList()
+                .map(reply -> {
+                    // the reply may arrive as one list or as its elements; the code is the first value either way
+                    Object code = reply.isEmpty() ? null : reply.get(0);
+                    if (code instanceof List<?> nested) {
+                        code = nested.isEmpty() ? null : nested.get(0);
+                    }
+                    boolean applied = "1".equals(String.valueOf(code));
+                    if (!applied) {
+                        log.warn("Cannot update status for {}: no status record in Redis", requestId);
+                    }
+                    return applied;
+                })
+                .onErrorResume(e -> {
+                    log.error("Failed to update status for {}: {}", requestId, e.getMessage(), e);
+                    return Mono.just(false);
+                });
+    }
+
+    // What status:<requestId> holds, for logging a record the transition script could not use
+    private String describeStatus(String requestId) {
+        try {
+            return readStatus(requestId).map(StatusRecord::toString).orElse("unreadable");
+        } catch (Exception e) {
+            return "unreadable: " + e.getMessage();
+        }
+    }
+
+    // ARGV for scripts/status-transition.lua, without an expected status
+    private List<String> transitionArgs(String newStatus, String errorMessage) {
+        return List.of(
+                "",
+                newStatus,
+                Instant.now().toString(),
+                errorMessage == null ? "0" : "1",
+                errorMessage == null ? "" : errorMessage,
+                hashFormat ? "hash" : "json");
+    }
+}
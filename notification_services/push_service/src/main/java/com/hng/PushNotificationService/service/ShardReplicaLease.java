@@ -0,0 +1,215 @@
+package com.hng.PushNotificationService.service;
+
+import com.hng.PushNotificationService.config.ShardAssignment;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure every push.shards.replica-index is run by one replica at a time. Each replica holds a
+ * lease on push-shard-replica:<index> in Redis (scripts/replica-lease.lua) and renews it every
+ * third of push.shards.lease-ttl-ms. The lease is taken when the context starts, in the lifecycle
+ * phase just before the listener containers, so no listener subscribes without it. Startup fails if
+ * another instance still holds the lease after a full TTL: two replicas with one index consume the
+ * same shards while the shards of the index nobody runs are left to standbys. A replica that
+ * restarts waits for its own old lease to expire. The lease is released after the containers stop.
+ *
+ * Indices below push.shards.replicas that nobody holds are logged when they change and counted in
+ * the shard.replicas.missing gauge, as are leases whose holder runs with another replica or shard
+ * count. If Redis can't be reached the check is skipped and the lease is taken on the next renewal.
+ */
+@Component
+@ConditionalOnExpression("${push.shards.enabled:false} and !${push.stream.enabled:false}")
+public class ShardReplicaLease implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardReplicaLease.class);
+
+    // start before the listener containers subscribe, stop after they are gone
+    private static final int PHASE = AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+
+    private static final String KEY_PREFIX = "push-shard-replica:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisScript<Long> leaseScript;
+    private final ShardAssignment assignment;
+    private final String key;
+    // "<instance> <replicas>/<shards>", so the other replicas can tell a different layout apart
+    private final String layout;
+    private final String holder;
+    private final long ttlMs;
+    private ScheduledExecutorService renewer;
+    private volatile boolean running;
+    private volatile int missing;
+    private Set<Integer> lastMissing = Set.of();
+    private List<String> lastMismatched = List.of();
+
+    public ShardReplicaLease(ShardAssignment assignment,
+                             StringRedisTemplate redisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${push.shards.lease-ttl-ms:15000}") long ttlMs) {
+        this.assignment = assignment;
+        this.redisTemplate = redisTemplate;
+        this.key = KEY_PREFIX + assignment.replicaIndex();
+        this.layout = assignment.replicas() + "/" + assignment.shards();
+        this.holder = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8)
+                + " " + layout;
+        this.ttlMs = Math.max(3, ttlMs);
+
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/replica-lease.lua")));
+        script.setResultType(Long.class);
+        this.leaseScript = script;
+
+        Gauge.builder("shard.replicas.missing", this, l -> l.missing)
+                .description("Replica indices below push.shards.replicas that no replica holds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        acquire();
+        checkReplicas();
+
+        this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-replica-lease");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = ttlMs / 3;
+        this.renewer.scheduleWithFixedDelay(this::renewQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    private void acquire() {
+        // a lease left by a crashed run of this replica expires within one TTL; a live duplicate keeps renewing it
+        long deadline = System.currentTimeMillis() + ttlMs + ttlMs / 3;
+        try {
+            while (!tryAcquire()) {
+                String current = redisTemplate.opsForValue().get(key);
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new IllegalStateException("Shard replica index " + assignment.replicaIndex()
+                            + " is already run by " + current + "; every replica needs its own push.shards.replica-index");
+                }
+                log.warn("Shard replica index {} is held by {}, waiting for its lease to expire",
+                        assignment.replicaIndex(), current);
+                Thread.sleep(ttlMs / 3);
+            }
+            log.info("🔧 Holding shard replica index {} of {}", assignment.replicaIndex(), assignment.replicas());
+        } catch (DataAccessException e) {
+            log.warn("Could not check shard replica index {} in Redis, taking it on the next renewal: {}",
+                    assignment.replicaIndex(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shard replica index " + assignment.replicaIndex(), e);
+        }
+    }
+
+    private boolean tryAcquire() {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, holder, Duration.ofMillis(ttlMs)));
+    }
+
+    void renew() {
+        Long renewed = redisTemplate.execute(leaseScript, List.of(key), holder, String.valueOf(ttlMs));
+        // lost while Redis was unreachable or this process was paused; another replica may have taken it since
+        if ((renewed == null || renewed == 0) && !tryAcquire()) {
+            log.error("Shard replica index {} is now held by {}; two replicas consume the same shards",
+                    assignment.replicaIndex(), redisTemplate.opsForValue().get(key));
+        }
+        checkReplicas();
+    }
+
+    // Indices nobody holds and holders with another layout, logged when they change
+    private void checkReplicas() {
+        try {
+            List<String> keys = new ArrayList<>(assignment.replicas());
+            for (int i = 0; i < assignment.replicas(); i++) {
+                keys.add(KEY_PREFIX + i);
+            }
+            List<String> holders = redisTemplate.opsForValue().multiGet(keys);
+            if (holders == null) {
+                return;
+            }
+            Set<Integer> absent = new TreeSet<>();
+            List<String> mismatched = new ArrayList<>();
+            for (int i = 0; i < holders.size(); i++) {
+                String current = holders.get(i);
+                if (current == null) {
+                    absent.add(i);
+                } else if (!current.endsWith(" " + layout)) {
+                    mismatched.add(i + " (" + current + ")");
+                }
+            }
+            missing = absent.size();
+
+            if (!absent.equals(lastMissing)) {
+                if (absent.isEmpty()) {
+                    log.info("All {} shard replica indices are held", assignment.replicas());
+                } else {
+                    log.warn("No replica runs shard replica indices {}, their shards are left to standbys", absent);
+                }
+                lastMissing = absent;
+            }
+            if (!mismatched.equals(lastMismatched)) {
+                if (!mismatched.isEmpty()) {
+                    log.warn("Shard replicas {} run with another replicas/shards layout than {}", mismatched, layout);
+                }
+                lastMismatched = mismatched;
+            }
+        } catch (DataAccessException e) {
+            log.warn("Could not check shard replica indices in Redis: {}", e.getMessage());
+        }
+    }
+
+    private void renewQuietly() {
+        try {
+            renew();
+        } catch (Exception e) {
+            log.warn("Shard replica lease renewal failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        renewer.shutdownNow();
+        try {
+            redisTemplate.execute(leaseScript, List.of(key), holder, "0");
+        } catch (Exception e) {
+            // expires after one TTL
+            log.warn("Could not release shard replica index {}: {}", assignment.replicaIndex(), e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
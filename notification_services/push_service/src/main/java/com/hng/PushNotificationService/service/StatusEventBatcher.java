@@ -0,0 +1,148 @@
+package com.hng.PushNotificationService.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Packs serialized status events from all consumer threads into JSON arrays, one AMQP message
+ * each. A single thread publishes whatever is buffered every linger interval, or as soon as
+ * max-events events or max-bytes of JSON are waiting; a publish never exceeds either limit.
+ *
+ * Each event's future completes when the message carrying it is published (and confirmed, with
+ * publisher confirms on), so a delivery is only acked once its status event has left the process.
+ */
+class StatusEventBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusEventBatcher.class);
+
+    private record Pending(byte[] json, CompletableFuture<Void> published) {}
+
+    // (JSON array body, event count) -> publish future
+    private final BiFunction<byte[], Integer, CompletableFuture<Void>> sender;
+    private final int maxEvents;
+    private final int maxBytes;
+    private final List<Pending> pending = new ArrayList<>();
+    private int pendingBytes;
+    private final ScheduledExecutorService flusher;
+
+    StatusEventBatcher(BiFunction<byte[], Integer, CompletableFuture<Void>> sender, MeterRegistry meterRegistry,
+                       long lingerMs, int maxEvents, int maxBytes) {
+        this.sender = sender;
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-event-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("status.events.batcher.depth", this, StatusEventBatcher::depth)
+                .description("Status events waiting to be published")
+                .register(meterRegistry);
+
+        log.info("Status event batching enabled (every {}ms, up to {} events or {} bytes)", lingerMs, maxEvents, maxBytes);
+    }
+
+    CompletableFuture<Void> submit(byte[] json) {
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        boolean full;
+        synchronized (pending) {
+            pending.add(new Pending(json, published));
+            pendingBytes += json.length + 1;
+            full = pending.size() >= maxEvents || pendingBytes >= maxBytes;
+        }
+        if (full) {
+            flusher.execute(this::flushQuietly);
+        }
+        return published;
+    }
+
+    int depth() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    // Only ever runs on the flusher thread, so publishes leave in submission order
+    private void flush() {
+        List<Pending> drained;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            drained = new ArrayList<>(pending);
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        int from = 0;
+        while (from < drained.size()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(Math.min(maxBytes, 64 * 1024));
+            body.write('[');
+            int to = from;
+            while (to < drained.size() && to - from < maxEvents) {
+                byte[] json = drained.get(to).json();
+                // an event bigger than max-bytes still goes out, alone
+                if (to > from && body.size() + json.length + 1 > maxBytes) {
+                    break;
+                }
+                if (to > from) {
+                    body.write(',');
+                }
+                body.writeBytes(json);
+                to++;
+            }
+            body.write(']');
+            publish(drained.subList(from, to), body.toByteArray());
+            from = to;
+        }
+    }
+
+    private void publish(List<Pending> events, byte[] body) {
+        CompletableFuture<Void> sent;
+        try {
+            sent = sender.apply(body, events.size());
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((v, error) -> {
+            for (Pending event : events) {
+                if (error == null) {
+                    event.published().complete(null);
+                } else {
+                    event.published().completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Failed to publish {} buffered status events: {}", depth(), e.getMessage());
+        }
+    }
+
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+}
@@ -0,0 +1,116 @@
+package com.hng.PushNotificationService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hng.PushNotificationService.dto.StatusEvent;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static com.hng.PushNotificationService.config.RabbitConfig.PUSH_EXCHANGE;
+import static com.hng.PushNotificationService.config.RabbitConfig.STATUS_ROUTING_KEY;
+
+/**
+ * Publishes {@link StatusEvent}s to the status queue, which RabbitConfig declares and binds to the
+ * service's exchange. By default each event is its own JSON message (type notification.status).
+ * With status-events.batch.enabled, events are packed into JSON arrays (type
+ * notification.status.batch, header event_count) by a {@link StatusEventBatcher}.
+ *
+ * Publishes go through {@link ConfirmedPublisher} and are tracked in the caller's scope either
+ * way, so a delivery is acked only after its status event is out.
+ */
+@Service
+public class StatusEventPublisher {
+
+    public static final String EVENT_TYPE = "notification.status";
+    public static final String BATCH_TYPE = "notification.status.batch";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConfirmedPublisher publisher;
+    private final StatusEventBatcher batcher;
+
+    private final DistributionSummary bytesPerEvent;
+    private final DistributionSummary eventsPerPublish;
+
+    public StatusEventPublisher(ConfirmedPublisher publisher,
+                                MeterRegistry meterRegistry,
+                                @Value("${status-events.batch.enabled:false}") boolean batchEnabled,
+                                @Value("${status-events.batch.linger-ms:50}") long lingerMs,
+                                @Value("${status-events.batch.max-events:500}") int maxEvents,
+                                @Value("${status-events.batch.max-bytes:131072}") int maxBytes) {
+        this.publisher = publisher;
+        this.bytesPerEvent = DistributionSummary.builder("status.events.bytes.per.event")
+                .description("Status message body size divided by the events it carries")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.eventsPerPublish = DistributionSummary.builder("status.events.per.publish")
+                .description("Status events carried by one AMQP message")
+                .register(meterRegistry);
+        this.batcher = batchEnabled
+                ? new StatusEventBatcher(this::sendBatch, meterRegistry, lingerMs, maxEvents, maxBytes)
+                : null;
+    }
+
+    public CompletableFuture<Void> publish(StatusEvent event) {
+        return publish(toJson(event).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Publish an event kept in its {@link #toJson} form, such as one whose first publish was never confirmed. */
+    public CompletableFuture<Void> publish(String json) {
+        return publish(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String toJson(StatusEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize status event for " + event.request_id(), e);
+        }
+    }
+
+    public static StatusEvent fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, StatusEvent.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot read status event " + json, e);
+        }
+    }
+
+    private CompletableFuture<Void> publish(byte[] json) {
+        if (batcher == null) {
+            return send(json, 1, EVENT_TYPE);
+        }
+        return publisher.track(batcher.submit(json));
+    }
+
+    private CompletableFuture<Void> sendBatch(byte[] body, int events) {
+        return send(body, events, BATCH_TYPE);
+    }
+
+    private CompletableFuture<Void> send(byte[] body, int events, String type) {
+        Message message = MessageBuilder.withBody(body)
+                .setContentType(MessageProperties.CONTENT_TYPE_JSON)
+                .setType(type)
+                .setHeader("event_count", events)
+                .build();
+        bytesPerEvent.record((double) body.length / events);
+        eventsPerPublish.record(events);
+        return publisher.send(PUSH_EXCHANGE, STATUS_ROUTING_KEY, message);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+}
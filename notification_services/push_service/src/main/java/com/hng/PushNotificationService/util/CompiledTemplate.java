@@ -0,0 +1,111 @@
+package com.hng.PushNotificationService.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template body parsed once into literal and placeholder segments.
+ * Placeholders use the {{var}} / {{ user.name }} syntax of the template service; dotted paths
+ * walk nested maps. Rendering is a single pass into a pre-sized buffer.
+ */
+public final class CompiledTemplate {
+
+    private static final Object MISSING = new Object();
+
+    private final String source;
+    // literals.length == placeholders.length + 1; placeholder i sits between literal i and i + 1
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+    private final int literalLength;
+
+    private record Placeholder(String raw, String key, String[] path) {}
+
+    private CompiledTemplate(String source, String[] literals, Placeholder[] placeholders, int literalLength) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.literalLength = literalLength;
+    }
+
+    public static CompiledTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        int literalLength = 0;
+        int cursor = 0;
+        int segmentStart = 0;
+
+        while (true) {
+            int open = source.indexOf("{{", cursor);
+            if (open < 0) break;
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) break;
+
+            String key = source.substring(open + 2, close).trim();
+            if (key.isEmpty()) {
+                cursor = close + 2;
+                continue;
+            }
+
+            String literal = source.substring(segmentStart, open);
+            literals.add(literal);
+            literalLength += literal.length();
+            placeholders.add(new Placeholder(source.substring(open, close + 2), key, key.split("\\.")));
+            cursor = close + 2;
+            segmentStart = cursor;
+        }
+
+        String tail = source.substring(segmentStart);
+        literals.add(tail);
+        literalLength += tail.length();
+
+        return new CompiledTemplate(source, literals.toArray(new String[0]),
+                placeholders.toArray(new Placeholder[0]), literalLength);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public String render(Map<String, Object> variables) {
+        if (placeholders.length == 0) {
+            return source;
+        }
+        StringBuilder out = new StringBuilder(literalLength + placeholders.length * 16);
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(literals[i]);
+            Placeholder placeholder = placeholders[i];
+            Object value = resolve(variables, placeholder);
+            if (value == MISSING) {
+                // unknown variables are left untouched, as the replace-based renderer did
+                out.append(placeholder.raw());
+            } else if (value != null) {
+                out.append(value);
+            }
+        }
+        out.append(literals[placeholders.length]);
+        return out.toString();
+    }
+
+    private static Object resolve(Map<String, Object> variables, Placeholder placeholder) {
+        if (variables == null) {
+            return MISSING;
+        }
+        // a flat "user.name" key wins over walking the nested path
+        if (variables.containsKey(placeholder.key())) {
+            return variables.get(placeholder.key());
+        }
+        String[] path = placeholder.path();
+        if (path.length == 1) {
+            return MISSING;
+        }
+        Object current = variables;
+        for (String segment : path) {
+            if (!(current instanceof Map<?, ?> map) || !map.containsKey(segment)) {
+                return MISSING;
+            }
+            current = map.get(segment);
+        }
+        return current;
+    }
+}
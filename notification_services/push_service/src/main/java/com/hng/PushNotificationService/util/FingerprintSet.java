@@ -0,0 +1,84 @@
+package com.hng.PushNotificationService.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact set of 64-bit fingerprints for recently seen ids.
+ *
+ * Fingerprints live in two generations of primitive open-addressing tables. Inserts go to the
+ * current generation; once it is half full it becomes the previous generation and the old
+ * previous one is dropped. Memory is therefore fixed at 2 x capacity longs, and the set
+ * remembers at least the last capacity / 2 ids.
+ *
+ * A miss means the id was definitely not added within the window. A hit only means it probably
+ * was, because two ids can share a fingerprint.
+ */
+public class FingerprintSet {
+
+    private final int mask;
+    private final int maxEntries;
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+
+    public FingerprintSet(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        this.mask = tableSize - 1;
+        this.maxEntries = tableSize / 2;
+        this.current = new long[tableSize];
+        this.previous = new long[tableSize];
+    }
+
+    public synchronized boolean mightContain(String id) {
+        long fingerprint = fingerprint(id);
+        return contains(current, fingerprint) || contains(previous, fingerprint);
+    }
+
+    public synchronized void add(String id) {
+        long fingerprint = fingerprint(id);
+        if (contains(current, fingerprint)) {
+            return;
+        }
+        if (currentSize >= maxEntries) {
+            long[] recycled = previous;
+            Arrays.fill(recycled, 0L);
+            previous = current;
+            current = recycled;
+            currentSize = 0;
+        }
+        int slot = (int) fingerprint & mask;
+        while (current[slot] != 0L) {
+            slot = (slot + 1) & mask;
+        }
+        current[slot] = fingerprint;
+        currentSize++;
+    }
+
+    private boolean contains(long[] table, long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        long entry;
+        while ((entry = table[slot]) != 0L) {
+            if (entry == fingerprint) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    // FNV-1a over the UTF-8 bytes followed by a 64-bit finalizer; 0 marks an empty slot
+    static long fingerprint(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0L ? 1L : hash;
+    }
+}
@@ -0,0 +1,102 @@
+package com.hng.PushNotificationService.util;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Message converter for Jackson's binary formats (CBOR, Smile). Works on the body bytes directly,
+ * which Jackson2JsonMessageConverter doesn't: it decodes through a String.
+ *
+ * The target type is the listener's parameter type when known, otherwise the __TypeId__ header
+ * written on encode, limited to trusted packages; anything else decodes to a Map.
+ */
+public class JacksonBinaryMessageConverter extends AbstractMessageConverter {
+
+    public static final String CBOR = "application/cbor";
+    public static final String SMILE = "application/x-jackson-smile";
+
+    private static final String TYPE_ID_HEADER = "__TypeId__";
+
+    private final ObjectMapper mapper;
+    private final String contentType;
+    private final String[] trustedPackages;
+
+    public JacksonBinaryMessageConverter(ObjectMapper mapper, String contentType, String... trustedPackages) {
+        // requests from the gateway may carry fields the records don't declare
+        this.mapper = mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.contentType = contentType;
+        this.trustedPackages = trustedPackages;
+    }
+
+    public static JacksonBinaryMessageConverter cbor(String... trustedPackages) {
+        return new JacksonBinaryMessageConverter(new CBORMapper(), CBOR, trustedPackages);
+    }
+
+    public static JacksonBinaryMessageConverter smile(String... trustedPackages) {
+        return new JacksonBinaryMessageConverter(new SmileMapper(), SMILE, trustedPackages);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to encode " + object.getClass().getName() + " as " + contentType, e);
+        }
+        messageProperties.setContentType(contentType);
+        messageProperties.setContentLength(body.length);
+        messageProperties.setHeader(TYPE_ID_HEADER, object.getClass().getName());
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        JavaType type = targetType(message.getMessageProperties());
+        try {
+            return mapper.readValue(message.getBody(), type);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to decode " + contentType + " message as " + type, e);
+        }
+    }
+
+    private JavaType targetType(MessageProperties properties) {
+        Type inferred = properties.getInferredArgumentType();
+        if (inferred != null) {
+            return mapper.constructType(inferred);
+        }
+        Object typeId = properties.getHeaders().get(TYPE_ID_HEADER);
+        if (typeId != null && isTrusted(typeId.toString())) {
+            try {
+                return mapper.constructType(Class.forName(typeId.toString()));
+            } catch (ClassNotFoundException e) {
+                throw new MessageConversionException("Unknown " + TYPE_ID_HEADER + " " + typeId, e);
+            }
+        }
+        return mapper.constructType(Map.class);
+    }
+
+    private boolean isTrusted(String className) {
+        for (String trustedPackage : trustedPackages) {
+            if (className.startsWith(trustedPackage + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,30 @@
+package com.hng.PushNotificationService.util;
+
+/**
+ * Helpers for keeping device tokens and provider payloads out of log lines, or short.
+ */
+public final class LogRedaction {
+
+    public static final int MAX_PAYLOAD_CHARS = 512;
+
+    private LogRedaction() {
+    }
+
+    /** First four characters of a device token or key, then *** */
+    public static String token(String token) {
+        if (token == null) {
+            return null;
+        }
+        return token.length() <= 4 ? "***" : token.substring(0, 4) + "***";
+    }
+
+    /** String form of a payload, cut to MAX_PAYLOAD_CHARS */
+    public static String truncate(Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        String s = payload.toString();
+        return s.length() <= MAX_PAYLOAD_CHARS ? s
+                : s.substring(0, MAX_PAYLOAD_CHARS) + "...(" + (s.length() - MAX_PAYLOAD_CHARS) + " more chars)";
+    }
+}
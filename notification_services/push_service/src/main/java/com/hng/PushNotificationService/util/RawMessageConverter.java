@@ -0,0 +1,30 @@
+package com.hng.PushNotificationService.util;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Leaves the body of an incoming message as it is. Listeners that take the raw Message and decode
+ * only what they need themselves (see RequestHeadReader) name this converter on their
+ * RabbitListener, so the payload conversion that runs before every listener call is a no-op for
+ * them instead of a full decode.
+ */
+public class RawMessageConverter implements MessageConverter {
+
+    public static final String BEAN_NAME = "rawMessageConverter";
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (object instanceof byte[] body) {
+            return new Message(body, messageProperties);
+        }
+        throw new MessageConversionException("Only raw bodies can be sent, not " + object.getClass().getName());
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        return message.getBody();
+    }
+}
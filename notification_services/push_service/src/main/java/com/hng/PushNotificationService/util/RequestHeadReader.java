@@ -0,0 +1,89 @@
+package com.hng.PushNotificationService.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.hng.PushNotificationService.dto.RequestHead;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.io.IOException;
+
+/**
+ * Reads a {@link RequestHead} without decoding the whole request: from the request_id, channel,
+ * timestamp and template_code AMQP headers when the publisher sets them, otherwise with a
+ * streaming pass over the top-level fields of the body (JSON, CBOR or Smile). The pass stops
+ * once all four fields are found; nested values are skipped and string values that aren't needed,
+ * such as the body, are never materialized.
+ */
+public final class RequestHeadReader {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final CBORFactory CBOR = new CBORFactory();
+    private static final SmileFactory SMILE = new SmileFactory();
+
+    private RequestHeadReader() {
+    }
+
+    /**
+     * Returns null when no request_id can be read this way (unknown content type, malformed
+     * payload); the caller then decodes the whole message instead.
+     */
+    public static RequestHead read(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        Object headerId = properties.getHeader("request_id");
+        if (headerId != null) {
+            return new RequestHead(headerId.toString(), header(properties, "channel"),
+                    header(properties, "timestamp"), header(properties, "template_code"));
+        }
+
+        JsonFactory factory = factoryFor(properties.getContentType());
+        if (factory == null) {
+            return null;
+        }
+        try (JsonParser parser = factory.createParser(message.getBody())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String requestId = null;
+            String channel = null;
+            String timestamp = null;
+            String templateCode = null;
+            int found = 0;
+            while (found < 4 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "request_id" -> { requestId = parser.getValueAsString(); found++; }
+                    case "channel" -> { channel = parser.getValueAsString(); found++; }
+                    case "timestamp" -> { timestamp = parser.getValueAsString(); found++; }
+                    case "template_code" -> { templateCode = parser.getValueAsString(); found++; }
+                    default -> parser.skipChildren();
+                }
+            }
+            return requestId == null ? null : new RequestHead(requestId, channel, timestamp, templateCode);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String header(MessageProperties properties, String name) {
+        Object value = properties.getHeader(name);
+        return value == null ? null : value.toString();
+    }
+
+    // Same content types the listener's converter accepts; no content type means JSON
+    private static JsonFactory factoryFor(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        return switch (CodecMessageConverter.baseType(contentType)) {
+            case MessageProperties.CONTENT_TYPE_JSON -> JSON;
+            case JacksonBinaryMessageConverter.CBOR -> CBOR;
+            case JacksonBinaryMessageConverter.SMILE -> SMILE;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,29 @@
+-- Token bucket shared by every replica that sends through one provider API key.
+--
+-- KEYS[1]  bucket hash: tokens, ts (ms)
+-- ARGV[1]  refill rate in tokens per second
+-- ARGV[2]  bucket size (burst)
+-- ARGV[3]  tokens wanted
+--
+-- Returns the number of tokens granted, between 0 and ARGV[3]. The server clock is used so
+-- replicas with skewed clocks still share one refill rate.
+
+local rate = tonumber(ARGV[1])
+local burst = tonumber(ARGV[2])
+local wanted = tonumber(ARGV[3])
+
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(state[1]) or burst
+local ts = tonumber(state[2]) or now
+
+tokens = math.min(burst, tokens + math.max(0, now - ts) * rate / 1000)
+local granted = math.min(wanted, math.floor(tokens))
+tokens = tokens - granted
+
+redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', now)
+-- an idle bucket is full again after burst / rate seconds, so it can simply expire
+redis.call('PEXPIRE', KEYS[1], math.ceil(burst / rate * 1000) + 1000)
+return granted
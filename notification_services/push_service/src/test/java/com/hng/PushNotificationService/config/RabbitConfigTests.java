@@ -0,0 +1,30 @@
+package com.hng.PushNotificationService.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RabbitConfigTests {
+
+    // expected keys are what the gateway's partitionKey gives for the same user ids
+    @Test
+    void streamPartitionKeyMatchesTheGateway() {
+        assertThat(RabbitConfig.streamPartitionKey("user-1", 3)).isEqualTo("0");
+        assertThat(RabbitConfig.streamPartitionKey("42", 3)).isEqualTo("1");
+        assertThat(RabbitConfig.streamPartitionKey("a8f5f167-f44f-4964-a4e1-b4a5b5e1c3d2", 3)).isEqualTo("2");
+        assertThat(RabbitConfig.streamPartitionKey("user-1", 8)).isEqualTo("3");
+        assertThat(RabbitConfig.streamPartitionKey("42", 8)).isEqualTo("0");
+    }
+
+    @Test
+    void missingUserIdHashesAsEmpty() {
+        assertThat(RabbitConfig.streamPartitionKey(null, 3)).isEqualTo(RabbitConfig.streamPartitionKey("", 3));
+        assertThat(RabbitConfig.streamPartitionKey("", 8)).isEqualTo("1");
+    }
+
+    @Test
+    void streamRetryQueuesArePerTierAndPartition() {
+        assertThat(RabbitConfig.streamRetryRoutingKey(0, "2")).isEqualTo(RabbitConfig.retryRoutingKey(0) + ".2");
+        assertThat(RabbitConfig.streamRetryRoutingKey(1, "2")).isNotEqualTo(RabbitConfig.streamRetryRoutingKey(0, "2"));
+    }
+}
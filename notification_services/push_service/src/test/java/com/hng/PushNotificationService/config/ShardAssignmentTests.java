@@ -0,0 +1,66 @@
+package com.hng.PushNotificationService.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardAssignmentTests {
+
+    private static ShardAssignment assignment(int shards, int replicas, int replicaIndex) {
+        return new ShardAssignment(shards, replicas, replicaIndex, shard -> "q." + shard);
+    }
+
+    @Test
+    void singleReplicaOwnsEveryShard() {
+        ShardAssignment assignment = assignment(4, 1, 0);
+
+        assertThat(assignment.ownedQueues()).containsExactly("q.0", "q.1", "q.2", "q.3");
+        assertThat(assignment.standbyQueues()).isEmpty();
+    }
+
+    @Test
+    void replicaOwnsTheShardsOfItsIndex() {
+        ShardAssignment assignment = assignment(8, 3, 1);
+
+        assertThat(assignment.ownedQueues()).containsExactly("q.1", "q.4", "q.7");
+        assertThat(assignment.standbyQueues()).containsExactly("q.0", "q.2", "q.3", "q.5", "q.6");
+        assertThat(assignment.shards()).isEqualTo(8);
+        assertThat(assignment.replicas()).isEqualTo(3);
+        assertThat(assignment.replicaIndex()).isEqualTo(1);
+    }
+
+    @Test
+    void replicasSplitTheShardsWithoutOverlap() {
+        int shards = 10;
+        int replicas = 4;
+        List<String> owned = new ArrayList<>();
+        for (int index = 0; index < replicas; index++) {
+            ShardAssignment assignment = assignment(shards, replicas, index);
+            owned.addAll(List.of(assignment.ownedQueues()));
+
+            Set<String> all = new HashSet<>(List.of(assignment.ownedQueues()));
+            all.addAll(List.of(assignment.standbyQueues()));
+            assertThat(all).hasSize(shards);
+        }
+
+        assertThat(owned).hasSize(shards).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void rejectsIndicesOutsideTheReplicaCount() {
+        assertThatThrownBy(() -> assignment(8, 3, 3)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> assignment(8, 3, -1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsMoreReplicasThanShards() {
+        assertThatThrownBy(() -> assignment(2, 3, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> assignment(2, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
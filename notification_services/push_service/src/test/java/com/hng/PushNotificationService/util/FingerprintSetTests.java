@@ -0,0 +1,105 @@
+package com.hng.PushNotificationService.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FingerprintSetTests {
+
+    // capacity 16 gives a 32 slot table per generation that rolls over at 16 entries
+    private static final int GENERATION = 16;
+
+    @Test
+    void containsAddedIdsOnly() {
+        FingerprintSet set = new FingerprintSet(GENERATION);
+        set.add("req-1");
+        set.add("req-2");
+
+        assertThat(set.mightContain("req-1")).isTrue();
+        assertThat(set.mightContain("req-2")).isTrue();
+        assertThat(set.mightContain("req-3")).isFalse();
+        assertThat(set.mightContain("")).isFalse();
+    }
+
+    @Test
+    void keepsThePreviousGenerationAfterRollover() {
+        FingerprintSet set = new FingerprintSet(GENERATION);
+        for (int i = 0; i < 2 * GENERATION; i++) {
+            set.add("req-" + i);
+        }
+
+        // the first generation rolled over once and is still the previous one
+        for (int i = 0; i < 2 * GENERATION; i++) {
+            assertThat(set.mightContain("req-" + i)).as("req-" + i).isTrue();
+        }
+    }
+
+    @Test
+    void dropsTheOldestGenerationOnTheSecondRollover() {
+        FingerprintSet set = new FingerprintSet(GENERATION);
+        for (int i = 0; i < 2 * GENERATION + 1; i++) {
+            set.add("req-" + i);
+        }
+
+        for (int i = 0; i < GENERATION; i++) {
+            assertThat(set.mightContain("req-" + i)).as("req-" + i).isFalse();
+        }
+        for (int i = GENERATION; i < 2 * GENERATION + 1; i++) {
+            assertThat(set.mightContain("req-" + i)).as("req-" + i).isTrue();
+        }
+    }
+
+    @Test
+    void addingAnIdAgainDoesNotTakeAnotherEntry() {
+        FingerprintSet set = new FingerprintSet(GENERATION);
+        set.add("first");
+        for (int i = 0; i < 10 * GENERATION; i++) {
+            set.add("same");
+        }
+        // two generations' worth of distinct ids in all, so "first" has only rolled over once
+        for (int i = 0; i < 2 * GENERATION - 2; i++) {
+            set.add("req-" + i);
+        }
+
+        assertThat(set.mightContain("first")).isTrue();
+        assertThat(set.mightContain("same")).isTrue();
+    }
+
+    @Test
+    void addingAPreviousGenerationIdCarriesItIntoTheNextOne() {
+        FingerprintSet set = new FingerprintSet(GENERATION);
+        set.add("kept");
+        for (int i = 0; i < GENERATION; i++) {
+            set.add("req-" + i);
+        }
+        // "kept" is in the previous generation now; adding it again puts it in the current one
+        set.add("kept");
+        for (int i = GENERATION; i < 2 * GENERATION; i++) {
+            set.add("req-" + i);
+        }
+
+        assertThat(set.mightContain("kept")).isTrue();
+        assertThat(set.mightContain("req-0")).isFalse();
+    }
+
+    @Test
+    void remembersAtLeastHalfTheCapacity() {
+        int capacity = 1000;
+        FingerprintSet set = new FingerprintSet(capacity);
+        int added = 10 * capacity;
+        for (int i = 0; i < added; i++) {
+            set.add("req-" + i);
+        }
+
+        for (int i = added - capacity / 2; i < added; i++) {
+            assertThat(set.mightContain("req-" + i)).as("req-" + i).isTrue();
+        }
+    }
+
+    @Test
+    void fingerprintIsNeverTheEmptySlotMarker() {
+        assertThat(FingerprintSet.fingerprint("")).isNotZero();
+        assertThat(FingerprintSet.fingerprint("req-1")).isEqualTo(FingerprintSet.fingerprint("req-1"));
+        assertThat(FingerprintSet.fingerprint("req-1")).isNotEqualTo(FingerprintSet.fingerprint("req-2"));
+    }
+}